@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.ActivityTestRule;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.classification.tflite.Classifier;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Recognition;
+
+/** Side-by-side latency and memory benchmark of the float and quantized classifiers. */
+@RunWith(AndroidJUnit4.class)
+public class ClassifierBenchmarkTest {
+  private static final String TAG = "ClassifierBenchmark";
+
+  @Rule
+  public ActivityTestRule<ClassifierActivity> rule =
+      new ActivityTestRule<>(ClassifierActivity.class);
+
+  private static final String[] INPUTS = {"fox.jpg"};
+  private static final String QUANTIZED_MODEL_PATH = "model_quant.tflite";
+  private static final int WARMUP_RUNS = 5;
+  private static final int BENCHMARK_RUNS = 50;
+
+  @Test
+  public void floatAndQuantizedModelsShouldAgreeOnTopResult() throws IOException {
+    ClassifierActivity activity = rule.getActivity();
+    Assume.assumeTrue(
+        "Quantized model is not bundled", hasAsset(activity.getAssets(), QUANTIZED_MODEL_PATH));
+
+    Classifier floatClassifier = Classifier.create(activity, Model.FLOAT_MOBILENET, Device.CPU, 1);
+    Classifier quantizedClassifier =
+        Classifier.create(activity, Model.QUANTIZED_MOBILENET, Device.CPU, 1);
+    for (String imageFileName : INPUTS) {
+      Bitmap input = loadImage(imageFileName);
+      BenchmarkResult floatResult = benchmark(floatClassifier, input);
+      BenchmarkResult quantizedResult = benchmark(quantizedClassifier, input);
+      Log.i(TAG, imageFileName + " float: " + floatResult);
+      Log.i(TAG, imageFileName + " quantized: " + quantizedResult);
+
+      List<Recognition> floatRecognitions = floatClassifier.recognizeImage(input, 0);
+      List<Recognition> quantizedRecognitions = quantizedClassifier.recognizeImage(input, 0);
+      assertThat(quantizedRecognitions).hasSize(floatRecognitions.size());
+      assertThat(quantizedRecognitions.get(0).getTitle())
+          .isEqualTo(floatRecognitions.get(0).getTitle());
+    }
+    floatClassifier.close();
+    quantizedClassifier.close();
+  }
+
+  /** Runs the classifier repeatedly on the same image and collects latency and heap growth. */
+  private static BenchmarkResult benchmark(Classifier classifier, Bitmap input) {
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      classifier.recognizeImage(input, 0);
+    }
+    Runtime runtime = Runtime.getRuntime();
+    runtime.gc();
+    long javaHeapBefore = runtime.totalMemory() - runtime.freeMemory();
+    long nativeHeapBefore = Debug.getNativeHeapAllocatedSize();
+
+    long[] latenciesNs = new long[BENCHMARK_RUNS];
+    for (int i = 0; i < BENCHMARK_RUNS; i++) {
+      long start = SystemClock.elapsedRealtimeNanos();
+      classifier.recognizeImage(input, 0);
+      latenciesNs[i] = SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    long javaHeapAfter = runtime.totalMemory() - runtime.freeMemory();
+    long nativeHeapAfter = Debug.getNativeHeapAllocatedSize();
+    Arrays.sort(latenciesNs);
+    return new BenchmarkResult(
+        latenciesNs[BENCHMARK_RUNS / 2],
+        latenciesNs[BENCHMARK_RUNS * 9 / 10],
+        javaHeapAfter - javaHeapBefore,
+        nativeHeapAfter - nativeHeapBefore);
+  }
+
+  private static boolean hasAsset(AssetManager assetManager, String fileName) throws IOException {
+    String[] assets = assetManager.list("");
+    return assets != null && Arrays.asList(assets).contains(fileName);
+  }
+
+  private static Bitmap loadImage(String fileName) {
+    AssetManager assetManager =
+        InstrumentationRegistry.getInstrumentation().getContext().getAssets();
+    InputStream inputStream = null;
+    try {
+      inputStream = assetManager.open(fileName);
+    } catch (IOException e) {
+      Log.e("Test", "Cannot load image from assets");
+    }
+    return BitmapFactory.decodeStream(inputStream);
+  }
+
+  /** Latency percentiles and heap growth measured over {@link #BENCHMARK_RUNS} inferences. */
+  private static class BenchmarkResult {
+    final long p50Ns;
+    final long p90Ns;
+    final long javaHeapDeltaBytes;
+    final long nativeHeapDeltaBytes;
+
+    BenchmarkResult(long p50Ns, long p90Ns, long javaHeapDeltaBytes, long nativeHeapDeltaBytes) {
+      this.p50Ns = p50Ns;
+      this.p90Ns = p90Ns;
+      this.javaHeapDeltaBytes = javaHeapDeltaBytes;
+      this.nativeHeapDeltaBytes = nativeHeapDeltaBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "p50=%.2fms p90=%.2fms javaHeapDelta=%dB nativeHeapDelta=%dB",
+          p50Ns / 1e6, p90Ns / 1e6, javaHeapDeltaBytes, nativeHeapDeltaBytes);
+    }
+  }
+}
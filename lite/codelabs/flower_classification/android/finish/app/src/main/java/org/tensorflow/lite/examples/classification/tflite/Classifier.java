@@ -29,12 +29,14 @@ import java.util.Map;
 import java.util.PriorityQueue;
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.examples.classification.env.Logger;
 import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
 import org.tensorflow.lite.gpu.GpuDelegate;
 import org.tensorflow.lite.support.common.FileUtil;
 import org.tensorflow.lite.support.common.TensorOperator;
 import org.tensorflow.lite.support.common.TensorProcessor;
+import org.tensorflow.lite.support.common.ops.NormalizeOp;
 import org.tensorflow.lite.support.image.ImageProcessor;
 import org.tensorflow.lite.support.image.TensorImage;
 import org.tensorflow.lite.support.image.ops.ResizeOp;
@@ -48,6 +50,12 @@ import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 public abstract class Classifier {
   private static final Logger LOGGER = new Logger();
 
+  /** The model type used for classification. */
+  public enum Model {
+    FLOAT_MOBILENET,
+    QUANTIZED_MOBILENET
+  }
+
   /** The runtime device type used for executing classification. */
   public enum Device {
     CPU,
@@ -89,8 +97,20 @@ public abstract class Classifier {
   /** Processer to apply post processing of the output probability. */
   private final TensorProcessor probabilityProcessor;
 
+  /** Whether the output probability is uint8, in which case top-k runs on the raw scores. */
+  private final boolean isQuantizedOutput;
+
+  /** Quantization scale of the output probability. Only used for quantized output. */
+  private final float probabilityScale;
+
+  /** Quantization zero point of the output probability. Only used for quantized output. */
+  private final int probabilityZeroPoint;
+
+  /** Top-k selection on the raw uint8 scores, reused across quantized inferences. */
+  private final QuantizedTopK quantizedTopK = new QuantizedTopK(MAX_RESULTS);
+
   /**
-   * Creates a classifier with the provided configuration.
+   * Creates a float MobileNet classifier with the provided configuration.
    *
    * @param activity The current Activity.
    * @param device The device to use for classification.
@@ -99,8 +119,28 @@ public abstract class Classifier {
    */
   public static Classifier create(Activity activity, Device device, int numThreads)
       throws IOException {
+    return create(activity, Model.FLOAT_MOBILENET, device, numThreads);
+  }
 
-    return new ClassifierFloatMobileNet(activity, device, numThreads);
+  /**
+   * Creates a classifier with the provided configuration.
+   *
+   * @param activity The current Activity.
+   * @param model The model to use for classification.
+   * @param device The device to use for classification.
+   * @param numThreads The number of threads to use for classification.
+   * @return A classifier with the desired configuration.
+   */
+  public static Classifier create(Activity activity, Model model, Device device, int numThreads)
+      throws IOException {
+    switch (model) {
+      case QUANTIZED_MOBILENET:
+        return new ClassifierQuantizedMobileNet(activity, device, numThreads);
+      case FLOAT_MOBILENET:
+        return new ClassifierFloatMobileNet(activity, device, numThreads);
+      default:
+        throw new IllegalArgumentException("Unsupported model: " + model);
+    }
   }
 
   /** An immutable result returned by a Classifier describing what was recognized. */
@@ -201,7 +241,11 @@ public abstract class Classifier {
     int probabilityTensorIndex = 0;
     int[] probabilityShape =
         tflite.getOutputTensor(probabilityTensorIndex).shape(); // {1, NUM_CLASSES}
-    DataType probabilityDataType = tflite.getOutputTensor(probabilityTensorIndex).dataType();
+    Tensor probabilityTensor = tflite.getOutputTensor(probabilityTensorIndex);
+    DataType probabilityDataType = probabilityTensor.dataType();
+    isQuantizedOutput = probabilityDataType == DataType.UINT8;
+    probabilityScale = probabilityTensor.quantizationParams().getScale();
+    probabilityZeroPoint = probabilityTensor.quantizationParams().getZeroPoint();
 
     // Creates the input tensor.
     inputImageBuffer = new TensorImage(imageDataType);
@@ -209,8 +253,12 @@ public abstract class Classifier {
     // Creates the output tensor and its processor.
     outputProbabilityBuffer = TensorBuffer.createFixedSize(probabilityShape, probabilityDataType);
 
-    // Creates the post processor for the output probability.
-    probabilityProcessor = new TensorProcessor.Builder().add(getPostprocessNormalizeOp()).build();
+    // Creates the post processor for the output probability. Quantized output is dequantized
+    // with the output tensor's quantization params instead.
+    probabilityProcessor =
+        isQuantizedOutput
+            ? null
+            : new TensorProcessor.Builder().add(getPostprocessNormalizeOp()).build();
 
     LOGGER.d("Created a Tensorflow Lite Image Classifier.");
   }
@@ -236,6 +284,13 @@ public abstract class Classifier {
     Trace.endSection();
     LOGGER.v("Timecost to run model inference: " + (endTimeForReference - startTimeForReference));
 
+    if (isQuantizedOutput) {
+      // Selects top-k on the raw uint8 scores and only dequantizes the winners.
+      List<Recognition> recognitions = getTopKQuantizedProbability(outputProbabilityBuffer);
+      Trace.endSection();
+      return recognitions;
+    }
+
     // Gets the map of label and probability.
     // TODO: Use TensorLabel from TFLite Support Library to associate the probabilities
     //       with category labels
@@ -320,6 +375,20 @@ public abstract class Classifier {
     return recognitions;
   }
 
+  /** Gets the top-k results directly from the raw uint8 output, dequantizing only the winners. */
+  private List<Recognition> getTopKQuantizedProbability(TensorBuffer probabilityBuffer) {
+    int numClasses = Math.min(probabilityBuffer.getFlatSize(), labels.size());
+    int count = quantizedTopK.select(probabilityBuffer.getBuffer(), numClasses);
+
+    final ArrayList<Recognition> recognitions = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      String label = labels.get(quantizedTopK.getIndex(i));
+      float confidence = (quantizedTopK.getScore(i) - probabilityZeroPoint) * probabilityScale;
+      recognitions.add(new Recognition(label, label, confidence, null));
+    }
+    return recognitions;
+  }
+
   /** Gets the name of the model file stored in Assets. */
   protected abstract String getModelPath();
 
@@ -330,12 +399,13 @@ public abstract class Classifier {
   protected abstract TensorOperator getPreprocessNormalizeOp();
 
   /**
-   * Gets the TensorOperator to dequantize the output probability in post processing.
+   * Gets the TensorOperator to normalize the float output probability in post processing.
    *
-   * <p>For quantized model, we need de-quantize the prediction with NormalizeOp (as they are all
-   * essentially linear transformation). For float model, de-quantize is not required. But to
-   * uniform the API, de-quantize is added to float model too. Mean and std are set to 0.0f and
-   * 1.0f, respectively.
+   * <p>Only used for float output: uint8 output is dequantized with the quantization params of the
+   * output tensor, after top-k selection. The default mean and std of 0.0f and 1.0f leave the
+   * probabilities unchanged.
    */
-  protected abstract TensorOperator getPostprocessNormalizeOp();
+  protected TensorOperator getPostprocessNormalizeOp() {
+    return new NormalizeOp(0.0f, 1.0f);
+  }
 }
@@ -0,0 +1,73 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Selects the k highest scores of a uint8 output tensor without dequantizing it.
+ *
+ * <p>Dequantization is a monotonic linear transformation, so ranking the raw scores gives the same
+ * order as ranking the dequantized probabilities. The selected indices and scores are kept in
+ * arrays that are reused across calls.
+ */
+public final class QuantizedTopK {
+  private final int[] indices;
+  private final int[] scores;
+  private int count;
+
+  public QuantizedTopK(int k) {
+    indices = new int[k];
+    scores = new int[k];
+  }
+
+  /**
+   * Selects the top-k of the first {@code numScores} uint8 values of {@code buffer}, highest
+   * first. Equal scores keep their order in the buffer.
+   *
+   * @return The number of selected entries, which is less than k if there are fewer scores.
+   */
+  public int select(ByteBuffer buffer, int numScores) {
+    int k = indices.length;
+    count = 0;
+    for (int i = 0; i < numScores; ++i) {
+      int score = buffer.get(i) & 0xff;
+      if (count == k && score <= scores[count - 1]) {
+        continue;
+      }
+      // Insertion into the small sorted top-k arrays, dropping the last entry when full.
+      int position = count < k ? count++ : count - 1;
+      while (position > 0 && scores[position - 1] < score) {
+        scores[position] = scores[position - 1];
+        indices[position] = indices[position - 1];
+        --position;
+      }
+      scores[position] = score;
+      indices[position] = i;
+    }
+    return count;
+  }
+
+  /** Gets the buffer index of the {@code rank}-th selected score. */
+  public int getIndex(int rank) {
+    return indices[rank];
+  }
+
+  /** Gets the raw uint8 value of the {@code rank}-th selected score. */
+  public int getScore(int rank) {
+    return scores[rank];
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.tensorflow.lite.examples.classification.tflite.QuantizedTopK;
+
+/** Tests the uint8 top-k selection of quantized classifiers, without needing a model. */
+public class QuantizedTopKTest {
+
+  @Test
+  public void selectsHighestScoresHighestFirst() {
+    QuantizedTopK topK = new QuantizedTopK(3);
+    ByteBuffer scores = uint8Buffer(10, 200, 30, 255, 0, 128, 199);
+
+    assertEquals(3, topK.select(scores, scores.capacity()));
+    assertArrayEquals(
+        new int[] {3, 1, 6}, new int[] {topK.getIndex(0), topK.getIndex(1), topK.getIndex(2)});
+    assertArrayEquals(
+        new int[] {255, 200, 199},
+        new int[] {topK.getScore(0), topK.getScore(1), topK.getScore(2)});
+  }
+
+  @Test
+  public void returnsFewerResultsThanKForShortOutput() {
+    QuantizedTopK topK = new QuantizedTopK(3);
+    ByteBuffer scores = uint8Buffer(7, 9);
+
+    assertEquals(2, topK.select(scores, scores.capacity()));
+    assertEquals(1, topK.getIndex(0));
+    assertEquals(0, topK.getIndex(1));
+  }
+
+  @Test
+  public void keepsBufferOrderForEqualScores() {
+    QuantizedTopK topK = new QuantizedTopK(2);
+    ByteBuffer scores = uint8Buffer(5, 40, 40, 40);
+
+    assertEquals(2, topK.select(scores, scores.capacity()));
+    assertEquals(1, topK.getIndex(0));
+    assertEquals(2, topK.getIndex(1));
+  }
+
+  @Test
+  public void onlyReadsTheFirstNumScoresValues() {
+    QuantizedTopK topK = new QuantizedTopK(1);
+    ByteBuffer scores = uint8Buffer(1, 2, 250);
+
+    assertEquals(1, topK.select(scores, 2));
+    assertEquals(1, topK.getIndex(0));
+  }
+
+  @Test
+  public void matchesSortingTheWholeOutput() {
+    Random random = new Random(42);
+    QuantizedTopK topK = new QuantizedTopK(5);
+    for (int run = 0; run < 100; ++run) {
+      int numScores = 1 + random.nextInt(1001);
+      byte[] bytes = new byte[numScores];
+      random.nextBytes(bytes);
+      ByteBuffer scores = ByteBuffer.wrap(bytes);
+
+      // Reference: a stable sort of all indices by descending unsigned score.
+      Integer[] order = new Integer[numScores];
+      for (int i = 0; i < numScores; ++i) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Integer.compare(bytes[b] & 0xff, bytes[a] & 0xff));
+
+      int count = topK.select(scores, numScores);
+      assertEquals(Math.min(5, numScores), count);
+      for (int rank = 0; rank < count; ++rank) {
+        assertEquals((int) order[rank], topK.getIndex(rank));
+        assertEquals(bytes[order[rank]] & 0xff, topK.getScore(rank));
+      }
+    }
+  }
+
+  private static ByteBuffer uint8Buffer(int... values) {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length);
+    for (int value : values) {
+      buffer.put((byte) value);
+    }
+    buffer.rewind();
+    return buffer;
+  }
+}
@@ -25,6 +25,8 @@ android {
         targetSdk = 33
         versionCode = 1
         versionName = "1.0"
+
+        testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
     }
     buildFeatures {
         compose = true
@@ -91,12 +93,15 @@ dependencies {
     // Logging
     implementation(libraries.napier)
 
-    // Profanity filter
-    implementation(libraries.wordfilter)
-
     // TensorFlow Lite
     implementation(libraries.tflite)
 
     // Unit tests
     testImplementation(libraries.junit)
+
+    // Instrumented tests and benchmarks
+    androidTestImplementation(libraries.androidx.test.runner)
+    androidTestImplementation(libraries.androidx.test.junit)
+    // Word filter library the in-project language checker is benchmarked against
+    androidTestImplementation(libraries.wordfilter)
 }
@@ -22,19 +22,34 @@ import com.google.tensorflowdemo.data.autocomplete.AutoCompleteService.AutoCompl
 import com.google.tensorflowdemo.data.autocomplete.AutoCompleteService.AutoCompleteResult
 import com.google.tensorflowdemo.data.autocomplete.AutoCompleteService.AutoCompleteServiceError
 import com.google.tensorflowdemo.data.autocomplete.AutoCompleteService.InitModelResult
+import com.google.tensorflowdemo.data.autocomplete.AutoCompleteService.RequestCounts
+import com.google.tensorflowdemo.data.autocomplete.AutoCompleteService.SuggestionEvent
+import com.google.tensorflowdemo.data.autocomplete.AutoCompleteService.SuggestionMetrics
+import com.google.tensorflowdemo.data.language.LanguageChecker
 import com.google.tensorflowdemo.util.splitToWords
 import com.google.tensorflowdemo.util.trimToMaxWordCount
-import com.mediamonks.wordfilter.LanguageChecker
 import io.github.aakira.napier.Napier
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.FlowCollector
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import org.tensorflow.lite.Interpreter
 import java.io.FileInputStream
 import java.io.FileNotFoundException
 import java.nio.ByteBuffer
+import java.nio.CharBuffer
 import java.nio.MappedByteBuffer
 import java.nio.channels.FileChannel
+import java.nio.charset.CodingErrorAction
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.math.min
 
 interface AutoCompleteService {
@@ -49,6 +64,11 @@ interface AutoCompleteService {
      */
     val isInitialized: Boolean
 
+    /**
+     * Number of suggestion requests that completed, or were abandoned because a newer request arrived
+     */
+    val requestCounts: RequestCounts
+
     /**
      * Initialize TensorFlow-Lite with app provided model
      * @return [InitModelResult.Success] if TFLite was initialized properly, otherwise [InitModelResult.Error]
@@ -60,9 +80,30 @@ interface AutoCompleteService {
      * If [applyWindow] is true, the last [windowSize] words are taken from [input] and fed into the interpreter.
      * @return an instance of [AutoCompleteResult.Error] if something went wrong, or
      * an instance of [AutoCompleteResult.Success] with the suggested text, split into words
+     * Only the latest request is worked on: starting a new one makes an older one that is still running stop
+     * at its next check by throwing a [CancellationException].
      */
     suspend fun getSuggestion(input: String, applyWindow: Boolean = false, windowSize: Int = 50): AutoCompleteResult
 
+    /**
+     * Stream an autocomplete suggestion for the provided [input], emitting a [SuggestionEvent.Word] for each
+     * suggested word as soon as it has been decoded, followed by a single [SuggestionEvent.Completed] with the
+     * timing of the request, or a single [SuggestionEvent.Error].
+     * [applyWindow] and [windowSize] are applied as for [getSuggestion], and so is the cancellation of older requests.
+     */
+    fun streamSuggestion(input: String, applyWindow: Boolean = false, windowSize: Int = 50): Flow<SuggestionEvent>
+
+    /**
+     * Timing of the most recent suggestion request that completed, or null if there was none yet
+     */
+    val lastSuggestionMetrics: SuggestionMetrics?
+
+    /**
+     * Forget previously generated suggestions, so the next request runs the model again, e.g. when the user
+     * asks for a different suggestion
+     */
+    fun clearCachedSuggestions()
+
     /**
      * Possible errors from [AutoCompleteService]
      */
@@ -81,6 +122,44 @@ interface AutoCompleteService {
         data class Error(val error: AutoCompleteServiceError) : AutoCompleteResult
     }
 
+    /**
+     * Events emitted by [AutoCompleteService.streamSuggestion]
+     */
+    sealed interface SuggestionEvent {
+        data class Word(val word: String) : SuggestionEvent
+        data class Completed(val metrics: SuggestionMetrics) : SuggestionEvent
+        data class Error(val error: AutoCompleteServiceError) : SuggestionEvent
+    }
+
+    /**
+     * Timing of a single suggestion request
+     */
+    data class SuggestionMetrics(
+        // Time from the request until the first word was emitted
+        val timeToFirstWordMs: Long,
+        // Time from the request until the last word was emitted
+        val totalTimeMs: Long,
+        // Number of words emitted
+        val wordCount: Int,
+        // Number of times the model was run, including retries on bad language; 0 if the suggestion was cached
+        val generationCount: Int,
+    ) {
+        val wordsPerSecond: Float
+            get() = if (totalTimeMs > 0) wordCount * 1000f / totalTimeMs else 0f
+    }
+
+    /**
+     * Counts reported by [AutoCompleteService.requestCounts]
+     */
+    data class RequestCounts(
+        // Requests for which the model ran until it produced a final output
+        val completed: Long,
+        // Requests replaced by a newer one after the model had already run for them
+        val superseded: Long,
+        // Requests replaced by a newer one before the model ran for them
+        val dropped: Long,
+    )
+
     /**
      * Result from [AutoCompleteService.initModel] method call
      */
@@ -102,7 +181,8 @@ interface AutoCompleteService {
 class AutoCompleteServiceImpl(
     private val context: Context,
     private val languageChecker: LanguageChecker,
-    private val dispatcher: CoroutineDispatcher = Dispatchers.IO
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
+    private val suggestionCache: SuggestionCache = SuggestionCache(),
 ) : AutoCompleteService, AutoCloseable {
 
     /**
@@ -118,12 +198,38 @@ class AutoCompleteServiceImpl(
         initialWordCount = 20
     )
 
+    @Volatile
     override var isInitialized: Boolean = false
         private set
 
+    // Guards the interpreter and its buffers: it is created and run by one request at a time
+    private val interpreterMutex = Mutex()
     private lateinit var interpreter: Interpreter
+
+    // Id of the most recent suggestion request; older requests stop once they see a newer one
+    private val latestRequestId = AtomicLong()
+    private val completedCount = AtomicLong()
+    private val supersededCount = AtomicLong()
+    private val droppedCount = AtomicLong()
+
+    override val requestCounts: RequestCounts
+        get() = RequestCounts(completedCount.get(), supersededCount.get(), droppedCount.get())
+
+    @Volatile
+    override var lastSuggestionMetrics: SuggestionMetrics? = null
+        private set
+
     private val outputBuffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE)
 
+    // UTF-8 never decodes to more chars than bytes, so this always fits the whole output
+    private val outputChars = CharBuffer.allocate(OUTPUT_BUFFER_SIZE)
+    private val outputDecoder = Charsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+
+    // Most recent input found free of bad language, so a longer version of it only needs its new text checked
+    private var lastCleanInput = ""
+
 
     /**
      * Initialize TensorFlow Lite with app provided model
@@ -131,53 +237,74 @@ class AutoCompleteServiceImpl(
      */
     override suspend fun initModel(): InitModelResult {
         return withContext(dispatcher) {
-            // Load model file
-            val loadResult = loadModelFile(context)
-
-            // Determine if load was successful
-            if (loadResult.isFailure) {
-                val exc = loadResult.exceptionOrNull()
-                return@withContext if (exc is FileNotFoundException) {
-                    InitModelResult.Error(AutoCompleteServiceError.MODEL_FILE_NOT_FOUND)
-                } else {
-                    InitModelResult.Error(AutoCompleteServiceError.MODEL_NOT_INITIALIZED)
-                }
-            }
+            interpreterMutex.withLock { initModelLocked() }
+        }
+    }
+
+    private fun initModelLocked(): InitModelResult {
+        // Nothing to do if another caller already created the interpreter
+        if (isInitialized) return InitModelResult.Success
 
-            // Instantiate interpreter with loaded model
-            val model = loadResult.getOrNull()
-            isInitialized = model?.let {
-                interpreter = Interpreter(it)
-                true
-            } ?: false
+        // Load model file
+        val loadResult = loadModelFile(context)
 
-            if (isInitialized) InitModelResult.Success
-            else InitModelResult.Error(AutoCompleteServiceError.MODEL_NOT_INITIALIZED)
+        // Determine if load was successful
+        if (loadResult.isFailure) {
+            val exc = loadResult.exceptionOrNull()
+            return if (exc is FileNotFoundException) {
+                InitModelResult.Error(AutoCompleteServiceError.MODEL_FILE_NOT_FOUND)
+            } else {
+                InitModelResult.Error(AutoCompleteServiceError.MODEL_NOT_INITIALIZED)
+            }
         }
+
+        // Instantiate interpreter with loaded model
+        val model = loadResult.getOrNull()
+        isInitialized = model?.let {
+            interpreter = Interpreter(it)
+            true
+        } ?: false
+
+        return if (isInitialized) InitModelResult.Success
+        else InitModelResult.Error(AutoCompleteServiceError.MODEL_NOT_INITIALIZED)
     }
 
     /**
-     * Get autocomplete suggestion split into words for the provided [input].
-     * If [applyWindow] is true, the last [windowSize] words are taken from [input] and fed into the interpreter.
+     * Get autocomplete suggestion split into words for the provided [input], by collecting [streamSuggestion].
      * @return an instance of [AutoCompleteResult.Error] if something went wrong, or
      * an instance of [AutoCompleteResult.Success] with the suggested text, split into words
      */
-    override suspend fun getSuggestion(input: String, applyWindow: Boolean, windowSize: Int) = withContext(dispatcher) {
+    override suspend fun getSuggestion(input: String, applyWindow: Boolean, windowSize: Int): AutoCompleteResult {
+        val words = mutableListOf<String>()
+        var result: AutoCompleteResult? = null
+        streamSuggestion(input, applyWindow, windowSize).collect { event ->
+            when (event) {
+                is SuggestionEvent.Word -> words += event.word
+                is SuggestionEvent.Completed -> result = AutoCompleteResult.Success(words)
+                is SuggestionEvent.Error -> result = AutoCompleteResult.Error(event.error)
+            }
+        }
+        return result ?: AutoCompleteResult.Error(AutoCompleteServiceError.NO_SUGGESTIONS)
+    }
+
+    /**
+     * Stream an autocomplete suggestion for the provided [input], one word at a time.
+     * If [applyWindow] is true, the last [windowSize] words are taken from [input] and fed into the interpreter.
+     * The bundled model generates the whole suggestion in a single run, so its words are emitted as soon as that
+     * output has been decoded; a model that generates step by step can emit each word through the same flow.
+     * Emits the words of the suggestion followed by [SuggestionEvent.Completed], or a single [SuggestionEvent.Error]
+     */
+    override fun streamSuggestion(input: String, applyWindow: Boolean, windowSize: Int): Flow<SuggestionEvent> = flow {
+        val startTime = System.nanoTime()
+        val requestId = latestRequestId.incrementAndGet()
         Napier.d { "[0] Start interpretation" }
         Napier.d { "[1] Input text: (${input.length} chars) '$input'" }
 
         // Check input for bad language
-        if (languageChecker.containsBadLanguage(input)) {
+        if (inputContainsBadLanguage(input)) {
             Napier.w { "[2] Input contains bad language, refused!" }
-            return@withContext AutoCompleteResult.Error(AutoCompleteServiceError.BAD_LANGUAGE)
-        }
-
-        // Initialize interpreter if necessary
-        if (!::interpreter.isInitialized) {
-            val result = initModel()
-            if (result is InitModelResult.Error) {
-                return@withContext AutoCompleteResult.Error(result.error)
-            }
+            emit(SuggestionEvent.Error(AutoCompleteServiceError.BAD_LANGUAGE))
+            return@flow
         }
 
         // Determine maximum number of words to take from input as model input
@@ -188,26 +315,50 @@ class AutoCompleteServiceImpl(
         val trimmedInput = input.trimToMaxWordCount(maxInputWordCount)
         Napier.d { "[3] Model input: (${trimmedInput.length} chars) '$trimmedInput'" }
 
+        // Reuse an earlier suggestion for this model input, or for one this input extends with suggested words
+        suggestionCache.get(trimmedInput, maxInputWordCount)?.let { words ->
+            Napier.d { "[4] Reusing cached suggestion: (${words.size} words) [${words.joinToString()}]" }
+            emitWords(words, startTime, generationCount = 0)
+            return@flow
+        }
+
+        // Initialize interpreter if necessary
+        if (!isInitialized) {
+            val result = initModel()
+            if (result is InitModelResult.Error) {
+                emit(SuggestionEvent.Error(result.error))
+                return@flow
+            }
+        }
+
         var retryCount = 0
-        var containsBadLanguage: Boolean
+        var containsBadLanguage = false
         lateinit var output: String
 
-        // Run generation until it no longer contains bad language or a max number of tries has been exceeded
-        do {
-            // Let model generate new text based on windowed input
-            output = runInterpreterOn(trimmedInput)
+        interpreterMutex.withLock {
+            // Run generation until it no longer contains bad language or a max number of tries has been exceeded.
+            // A single run cannot be interrupted, so a newer request is looked for before every run
+            do {
+                checkLatestRequest(requestId, hasRunModel = retryCount > 0)
+
+                // Let model generate new text based on windowed input
+                output = runInterpreterOn(trimmedInput)
 
-            // Check output for bad language
-            containsBadLanguage = languageChecker.containsBadLanguage(output)
+                // Check output for bad language; the echoed input at its start has already been checked
+                val checkedLength = if (output.startsWith(trimmedInput)) trimmedInput.length else 0
+                containsBadLanguage = containsBadLanguageAfter(output, checkedLength)
 
-            retryCount++
-        } while (containsBadLanguage && retryCount < RETRY_COUNT_ON_BAD_LANGUAGE)
+                retryCount++
+            } while (containsBadLanguage && retryCount < RETRY_COUNT_ON_BAD_LANGUAGE)
+        }
+        checkLatestRequest(requestId, hasRunModel = true)
+        completedCount.incrementAndGet()
 
         // Return error if output still contains bad language
         if (containsBadLanguage) {
             Napier.w { "[4] Output still contains bad language after 3 attempts, refused!" }
-
-            return@withContext AutoCompleteResult.Error(AutoCompleteServiceError.NO_SUGGESTIONS)
+            emit(SuggestionEvent.Error(AutoCompleteServiceError.NO_SUGGESTIONS))
+            return@flow
         }
 
         Napier.d { "[4] Model output: (${output.length} chars) '$output'" }
@@ -215,22 +366,87 @@ class AutoCompleteServiceImpl(
         // Check if output size is actually longer than original input text, if not that's an error
         if (output.length < trimmedInput.length) {
             Napier.w { "[5] NO SUGGESTION: Output length is shorter than trimmed input length, so there was no new text suggested" }
-            AutoCompleteResult.Error(AutoCompleteServiceError.NO_SUGGESTIONS)
-        } else {
-            // Output = input + new text, determine new text by subtracting input
-            val newText = output.substring(output.indexOf(trimmedInput) + trimmedInput.length)
-            Napier.d { "[5] New text from interpreter: (${newText.length} chars) '$newText'" }
-
-            // Split new text into words. If there are no words, that's an error, otherwise return the words
-            val words = newText.splitToWords()
-            if (words.isEmpty()) {
-                Napier.w { "[6] NO SUGGESTION: No words found after splitting new text into words" }
-                AutoCompleteResult.Error(AutoCompleteServiceError.NO_SUGGESTIONS)
-            } else {
-                Napier.d { "[6] New text split in words: (${words.size} words) [${words.joinToString()}]" }
-                AutoCompleteResult.Success(words)
-            }
+            emit(SuggestionEvent.Error(AutoCompleteServiceError.NO_SUGGESTIONS))
+            return@flow
+        }
+
+        // Output = input + new text, determine new text by subtracting input
+        val newText = output.substring(output.indexOf(trimmedInput) + trimmedInput.length)
+        Napier.d { "[5] New text from interpreter: (${newText.length} chars) '$newText'" }
+
+        // Split new text into words
+        val words = newText.splitToWords()
+        if (words.isEmpty()) {
+            Napier.w { "[6] NO SUGGESTION: No words found after splitting new text into words" }
+            emit(SuggestionEvent.Error(AutoCompleteServiceError.NO_SUGGESTIONS))
+            return@flow
+        }
+        suggestionCache.put(trimmedInput, words)
+
+        emitWords(words, startTime, generationCount = retryCount)
+    }.flowOn(dispatcher)
+
+    /**
+     * Emit each of [words] as a [SuggestionEvent.Word], then a [SuggestionEvent.Completed] with the metrics of the
+     * request started at [startTime]
+     */
+    private suspend fun FlowCollector<SuggestionEvent>.emitWords(words: List<String>, startTime: Long, generationCount: Int) {
+        var firstWordTime = 0L
+        for (word in words) {
+            emit(SuggestionEvent.Word(word))
+            if (firstWordTime == 0L) firstWordTime = System.nanoTime()
         }
+
+        val metrics = SuggestionMetrics(
+            timeToFirstWordMs = (firstWordTime - startTime) / NANOS_PER_MILLI,
+            totalTimeMs = (System.nanoTime() - startTime) / NANOS_PER_MILLI,
+            wordCount = words.size,
+            generationCount = generationCount,
+        )
+        lastSuggestionMetrics = metrics
+        Napier.d { "[6] Suggested ${words.size} words, first after ${metrics.timeToFirstWordMs} ms, ${metrics.wordsPerSecond} words/s, using $generationCount model runs" }
+        emit(SuggestionEvent.Completed(metrics))
+    }
+
+    /**
+     * Stop the request with id [requestId] by throwing a [CancellationException] if it was cancelled or a newer
+     * request was made since, counting it as superseded if [hasRunModel] and as dropped otherwise
+     */
+    private suspend fun checkLatestRequest(requestId: Long, hasRunModel: Boolean) {
+        currentCoroutineContext().ensureActive()
+        if (latestRequestId.get() != requestId) {
+            (if (hasRunModel) supersededCount else droppedCount).incrementAndGet()
+            Napier.d { "Suggestion request $requestId superseded by request ${latestRequestId.get()}" }
+            throw CancellationException("Superseded by a newer suggestion request")
+        }
+    }
+
+    override fun clearCachedSuggestions() {
+        suggestionCache.clear()
+    }
+
+    /**
+     * Check [input] for bad language. When it extends the previous clean input, e.g. while the user keeps
+     * typing, only the appended text is scanned
+     */
+    @Synchronized
+    private fun inputContainsBadLanguage(input: String): Boolean {
+        val checkedLength = if (input.startsWith(lastCleanInput)) lastCleanInput.length else 0
+        val containsBadLanguage = containsBadLanguageAfter(input, checkedLength)
+        if (!containsBadLanguage) lastCleanInput = input
+        return containsBadLanguage
+    }
+
+    /**
+     * Check [text] for bad language, given that its first [checkedLength] chars are known to be clean.
+     * The clean part is scanned again from as far back as the longest banned term reaches, widened to a word start,
+     * so terms spanning the boundary are still caught
+     */
+    private fun containsBadLanguageAfter(text: String, checkedLength: Int): Boolean {
+        val overlap = languageChecker.maxTermLength.coerceAtLeast(1) - 1
+        var start = if (checkedLength <= overlap) 0 else (checkedLength - overlap).coerceAtMost(text.length)
+        while (start > 0 && !text[start - 1].isWhitespace()) start--
+        return languageChecker.containsBadLanguage(if (start == 0) text else text.substring(start))
     }
 
     /**
@@ -247,14 +463,16 @@ class AutoCompleteServiceImpl(
         // Set output buffer limit to current position & position to 0
         outputBuffer.flip()
 
-        // Get bytes from output buffer
-        val bytes = ByteArray(outputBuffer.remaining())
-        outputBuffer.get(bytes)
+        // Decode the generated bytes straight from the output buffer into the reused char buffer
+        outputChars.clear()
+        outputDecoder.reset()
+        outputDecoder.decode(outputBuffer, outputChars, true)
+        outputDecoder.flush(outputChars)
+        outputChars.flip()
 
         outputBuffer.clear()
 
-        // Return bytes converted to String
-        return String(bytes, Charsets.UTF_8)
+        return outputChars.toString()
     }
 
     /**
@@ -297,5 +515,7 @@ class AutoCompleteServiceImpl(
 
         // Maximum number of attempts to generate text that does not contain bad language
         private const val RETRY_COUNT_ON_BAD_LANGUAGE = 3
+
+        private const val NANOS_PER_MILLI = 1_000_000L
     }
 }
\ No newline at end of file
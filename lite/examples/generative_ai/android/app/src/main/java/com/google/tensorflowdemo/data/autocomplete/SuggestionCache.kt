@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tensorflowdemo.data.autocomplete
+
+import com.google.tensorflowdemo.util.trimToMaxWordCount
+
+/**
+ * Small LRU cache of generated suggestions, keyed by the model input they were generated for, i.e. the input
+ * text after trimming it to the window. Inputs that only differ outside the window share an entry.
+ *
+ * Besides exact hits, a lookup also succeeds when the model input is what a cached model input becomes after
+ * appending the first words of its cached suggestion, e.g. when the user typed or accepted those words, and
+ * trimming it to the window again. The remaining words are returned then, so extending the same sentence does
+ * not run the model again.
+ */
+class SuggestionCache(private val maxEntries: Int = DEFAULT_MAX_ENTRIES) {
+
+    // Access ordered, so the first entry is the least recently used one
+    private val entries = object : LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, List<String>>?) = size > maxEntries
+    }
+
+    /**
+     * Returns the cached words that continue [modelInput], which was trimmed to [windowSize] words, or null if
+     * there are none
+     */
+    @Synchronized
+    fun get(modelInput: String, windowSize: Int): List<String>? {
+        entries[modelInput]?.let { return it }
+
+        // Look for an earlier model input that this one continues with whole words of its suggestion
+        for ((cachedInput, words) in entries.entries.reversed()) {
+            val remaining = words.remainingAfter(cachedInput, modelInput, windowSize) ?: continue
+            // Touch the matching entry so it stays in the cache while the user keeps typing along
+            entries[cachedInput]
+            return remaining
+        }
+        return null
+    }
+
+    @Synchronized
+    fun put(modelInput: String, words: List<String>) {
+        if (words.isEmpty()) return
+        entries[modelInput] = words
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+
+    /**
+     * If [modelInput] is [cachedInput] followed by the first words of this suggestion, trimmed to [windowSize]
+     * words, returns the words after those, or null if there is no such prefix that leaves words over
+     */
+    private fun List<String>.remainingAfter(cachedInput: String, modelInput: String, windowSize: Int): List<String>? {
+        val extended = StringBuilder(cachedInput)
+        for (index in 0 until size - 1) {
+            val word = this[index]
+            extended.append(word)
+            // The model input ends with the last typed word, so only trim when that matches
+            if (modelInput.endsWith(word.trim()) && extended.toString().trimToMaxWordCount(windowSize) == modelInput) {
+                return subList(index + 1, size)
+            }
+        }
+        return null
+    }
+
+    companion object {
+        private const val DEFAULT_MAX_ENTRIES = 32
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2023 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tensorflowdemo.data.language
+
+import android.content.Context
+
+/**
+ * [LanguageChecker] matching a list of banned terms with an Aho–Corasick automaton.
+ *
+ * The automaton is built once from the terms and stored in a few primitive arrays, with the outgoing edges of
+ * each state sorted by character. Checking a text is a single pass over its characters with no allocation,
+ * however many terms there are. Matching ignores case and only reports whole words, so a banned term inside
+ * a longer word does not count.
+ */
+class AhoCorasickLanguageChecker(terms: Iterable<String>) : LanguageChecker {
+
+    // Edges of state s are at [edgeStart[s], edgeStart[s + 1]), sorted by edgeChar
+    private val edgeStart: IntArray
+    private val edgeChar: CharArray
+    private val edgeTarget: IntArray
+
+    // State to continue from when the current state has no edge for the next character
+    private val failure: IntArray
+
+    // Length of the term ending in each state, or 0 if no term ends there
+    private val termLength: IntArray
+
+    // Closest state along the failure links in which a term ends, or ROOT if there is none
+    private val outputLink: IntArray
+
+    init {
+        // Build the trie with maps first; it is compacted into arrays below
+        val children = mutableListOf(sortedMapOf<Char, Int>())
+        val lengths = mutableListOf(0)
+        for (term in terms) {
+            // Lower cased char by char, exactly as the text is when checked
+            val trimmed = term.trim()
+            val normalized = CharArray(trimmed.length) { Character.toLowerCase(trimmed[it]) }
+            if (normalized.isEmpty()) continue
+            var state = ROOT
+            for (char in normalized) {
+                state = children[state].getOrPut(char) {
+                    children += sortedMapOf()
+                    lengths += 0
+                    children.size - 1
+                }
+            }
+            lengths[state] = normalized.size
+        }
+
+        val stateCount = children.size
+        edgeStart = IntArray(stateCount + 1)
+        val edgeCount = children.sumOf { it.size }
+        edgeChar = CharArray(edgeCount)
+        edgeTarget = IntArray(edgeCount)
+        var edge = 0
+        for (state in 0 until stateCount) {
+            edgeStart[state] = edge
+            for ((char, target) in children[state]) {
+                edgeChar[edge] = char
+                edgeTarget[edge] = target
+                edge++
+            }
+        }
+        edgeStart[stateCount] = edge
+        termLength = lengths.toIntArray()
+
+        // Breadth first, so the failure state of a state's parent is always known before the state itself
+        failure = IntArray(stateCount)
+        outputLink = IntArray(stateCount)
+        val queue = IntArray(stateCount)
+        var head = 0
+        var tail = 0
+        for (e in edgeStart[ROOT] until edgeStart[ROOT + 1]) queue[tail++] = edgeTarget[e]
+        while (head < tail) {
+            val state = queue[head++]
+            for (e in edgeStart[state] until edgeStart[state + 1]) {
+                val child = edgeTarget[e]
+                val char = edgeChar[e]
+                var fallback = failure[state]
+                var next = transition(fallback, char)
+                while (next == NO_STATE && fallback != ROOT) {
+                    fallback = failure[fallback]
+                    next = transition(fallback, char)
+                }
+                failure[child] = if (next == NO_STATE || next == child) ROOT else next
+                val childFailure = failure[child]
+                outputLink[child] = if (termLength[childFailure] > 0) childFailure else outputLink[childFailure]
+                queue[tail++] = child
+            }
+        }
+    }
+
+    override val maxTermLength: Int = termLength.maxOrNull() ?: 0
+
+    /** Number of states in the automaton */
+    val stateCount: Int
+        get() = failure.size
+
+    override fun containsBadLanguage(text: String): Boolean {
+        var state = ROOT
+        for (index in text.indices) {
+            val char = Character.toLowerCase(text[index])
+            var next = transition(state, char)
+            while (next == NO_STATE && state != ROOT) {
+                state = failure[state]
+                next = transition(state, char)
+            }
+            state = if (next == NO_STATE) ROOT else next
+
+            // Check every term ending at this position, longest first
+            var match = if (termLength[state] > 0) state else outputLink[state]
+            while (match != ROOT) {
+                if (isWholeWord(text, index - termLength[match] + 1, index)) return true
+                match = outputLink[match]
+            }
+        }
+        return false
+    }
+
+    /** Returns the state reached from [state] with [char], or [NO_STATE] if there is no such edge */
+    private fun transition(state: Int, char: Char): Int {
+        var low = edgeStart[state]
+        var high = edgeStart[state + 1] - 1
+        while (low <= high) {
+            val middle = (low + high) ushr 1
+            val middleChar = edgeChar[middle]
+            when {
+                middleChar < char -> low = middle + 1
+                middleChar > char -> high = middle - 1
+                else -> return edgeTarget[middle]
+            }
+        }
+        return NO_STATE
+    }
+
+    private fun isWholeWord(text: String, start: Int, end: Int) =
+        (start == 0 || !text[start - 1].isLetterOrDigit()) && (end == text.length - 1 || !text[end + 1].isLetterOrDigit())
+
+    companion object {
+        private const val ROOT = 0
+        private const val NO_STATE = -1
+
+        /**
+         * Builds a checker from an asset with one banned term per line
+         * @throws java.io.IOException if there is no asset named [fileName]
+         */
+        fun fromAsset(context: Context, fileName: String): AhoCorasickLanguageChecker =
+            context.assets.open(fileName).bufferedReader().useLines { lines -> AhoCorasickLanguageChecker(lines.asIterable()) }
+    }
+}
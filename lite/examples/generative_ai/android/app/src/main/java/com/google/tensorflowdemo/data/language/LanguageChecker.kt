@@ -0,0 +1,35 @@
+/*
+ * Copyright 2023 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tensorflowdemo.data.language
+
+/**
+ * Checks text for bad language, both in the user input and in the text generated by the model
+ */
+fun interface LanguageChecker {
+
+    /**
+     * @return true if [text] contains any of the banned terms
+     */
+    fun containsBadLanguage(text: String): Boolean
+
+    /**
+     * Length of the longest banned term, so callers that check text piece by piece know how much of the
+     * already checked text a term can span. [Int.MAX_VALUE] if unknown, which makes them check all of it again
+     */
+    val maxTermLength: Int
+        get() = Int.MAX_VALUE
+}
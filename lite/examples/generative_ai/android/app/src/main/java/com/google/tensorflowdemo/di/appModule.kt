@@ -18,12 +18,14 @@ package com.google.tensorflowdemo.di
 
 import com.google.tensorflowdemo.data.autocomplete.AutoCompleteService
 import com.google.tensorflowdemo.data.autocomplete.AutoCompleteServiceImpl
-import com.mediamonks.wordfilter.LanguageChecker
-import com.mediamonks.wordfilter.LanguageCheckerImpl
+import com.google.tensorflowdemo.data.language.AhoCorasickLanguageChecker
+import com.google.tensorflowdemo.data.language.LanguageChecker
 import org.koin.android.ext.koin.androidContext
-import org.koin.core.module.dsl.singleOf
 import org.koin.dsl.module
 
+// Asset with one banned term per line, compiled into the in-project language checker
+private const val BANNED_TERMS_ASSET = "banned_terms.txt"
+
 val appModule = module {
     single<AutoCompleteService> {
         AutoCompleteServiceImpl(
@@ -32,5 +34,7 @@ val appModule = module {
         )
     }
 
-    singleOf<LanguageChecker>(::LanguageCheckerImpl)
+    single<LanguageChecker> {
+        AhoCorasickLanguageChecker.fromAsset(androidContext(), BANNED_TERMS_ASSET)
+    }
 }
@@ -183,6 +183,8 @@ class AutoCompleteViewModel(
         isSuggesting.value = false
         currentSuggestionText = null
 
+        // Make sure the retry generates a new suggestion instead of returning the cached one
+        autoCompleteService.clearCachedSuggestions()
         onGenerateAutoComplete(currentSuggestionInputText)
     }
 
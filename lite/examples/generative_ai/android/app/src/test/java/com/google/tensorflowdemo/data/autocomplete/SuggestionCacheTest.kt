@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tensorflowdemo.data.autocomplete
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class SuggestionCacheTest {
+    private val words = listOf(" sat", " on", " the", " mat.")
+
+    @Test fun TestThatTheSameInputIsAHit() {
+        val cache = SuggestionCache()
+        cache.put("The cat", words)
+        assertEquals(words, cache.get("The cat", 20))
+    }
+
+    @Test fun TestThatTheSameModelInputIsAHitForAnyWindowSize() {
+        val cache = SuggestionCache()
+        cache.put("The cat", words)
+        assertEquals(words, cache.get("The cat", 10))
+    }
+
+    @Test fun TestThatTypingTheSuggestedWordsIntoAFullWindowReturnsTheRest() {
+        val cache = SuggestionCache()
+        // Model input of "Yesterday the cat" with a window of 2 words
+        cache.put("the cat", words)
+        assertEquals(listOf(" the", " mat."), cache.get("sat on", 2))
+        assertNull(cache.get("sat in", 2))
+    }
+
+    @Test fun TestThatTypingTheSuggestedWordsReturnsTheRest() {
+        val cache = SuggestionCache()
+        cache.put("The cat", words)
+        assertEquals(listOf(" the", " mat."), cache.get("The cat sat on", 20))
+    }
+
+    @Test fun TestThatDivergingOrPartialInputIsAMiss() {
+        val cache = SuggestionCache()
+        cache.put("The cat", words)
+        assertNull(cache.get("The cat sat in", 20))
+        assertNull(cache.get("The cat sa", 20))
+        assertNull(cache.get("The cat sat on the mat.", 20))
+    }
+
+    @Test fun TestThatTheLeastRecentlyUsedEntryIsEvicted() {
+        val cache = SuggestionCache(maxEntries = 2)
+        cache.put("a", words)
+        cache.put("b", words)
+        cache.get("a", 20)
+        cache.put("c", words)
+        assertNotNull(cache.get("a", 20))
+        assertNull(cache.get("b", 20))
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tensorflowdemo.data.language
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+import kotlin.random.Random
+
+class AhoCorasickLanguageCheckerTest {
+    private val checker = AhoCorasickLanguageChecker(listOf("darn", "heck", "gosh darn", "fudge "))
+
+    @Test fun TestThatCleanTextPasses() {
+        assertFalse(checker.containsBadLanguage("Mary had a little lamb!"))
+        assertFalse(checker.containsBadLanguage(""))
+    }
+
+    @Test fun TestThatBannedWordsAreFoundRegardlessOfCase() {
+        assertTrue(checker.containsBadLanguage("Oh HECK, the lamb ran off"))
+        assertTrue(checker.containsBadLanguage("darn"))
+        assertTrue(checker.containsBadLanguage("It was fudge."))
+    }
+
+    @Test fun TestThatBannedWordsInsideOtherWordsAreIgnored() {
+        assertFalse(checker.containsBadLanguage("A checkered past"))
+        assertFalse(checker.containsBadLanguage("darned socks"))
+    }
+
+    @Test fun TestThatPhrasesAreMatched() {
+        val phraseChecker = AhoCorasickLanguageChecker(listOf("gosh darn it"))
+        assertTrue(phraseChecker.containsBadLanguage("well gosh darn it all"))
+        assertFalse(phraseChecker.containsBadLanguage("well gosh darn"))
+    }
+
+    @Test fun TestThatResultsMatchAPlainSearch() {
+        val random = Random(42)
+        val terms = List(200) { randomWord(random) }
+        val fast = AhoCorasickLanguageChecker(terms)
+        val plain = PlainLanguageChecker(terms)
+        repeat(1000) {
+            val text = List(random.nextInt(1, 20)) { randomWord(random) }.joinToString(" ")
+            assertEquals(text, plain.containsBadLanguage(text), fast.containsBadLanguage(text))
+        }
+    }
+
+    @Test fun TestThatMaxTermLengthIsTheLongestTrimmedTerm() {
+        assertEquals(14, AhoCorasickLanguageChecker(listOf("bad", "  son of a bitch ", "")).maxTermLength)
+        assertEquals(0, AhoCorasickLanguageChecker(emptyList()).maxTermLength)
+    }
+
+    @Test fun TestThatTheShippedTermsAreUsable() {
+        // Unit tests run from the module directory
+        val terms = File("src/main/assets/banned_terms.txt").readLines()
+        val shipped = AhoCorasickLanguageChecker(terms)
+        assertTrue(shipped.containsBadLanguage("Well, shit."))
+        assertTrue(shipped.containsBadLanguage("What a Son of a Bitch"))
+        assertFalse(shipped.containsBadLanguage("Mary had a little lamb, its fleece was white as snow"))
+        assertFalse(shipped.containsBadLanguage("A classic passage about Scunthorpe"))
+    }
+
+    private fun randomWord(random: Random) = String(CharArray(random.nextInt(1, 4)) { 'a' + random.nextInt(3) })
+}
+
+/**
+ * Reference checker looking for every term separately, as a plain word list filter does
+ */
+class PlainLanguageChecker(terms: List<String>) : LanguageChecker {
+    private val terms = terms.map { it.trim().lowercase() }.filter { it.isNotEmpty() }
+
+    override fun containsBadLanguage(text: String): Boolean {
+        val lowerCaseText = text.lowercase()
+        return terms.any { term ->
+            var start = lowerCaseText.indexOf(term)
+            while (start >= 0) {
+                val end = start + term.length
+                if ((start == 0 || !lowerCaseText[start - 1].isLetterOrDigit()) &&
+                    (end == lowerCaseText.length || !lowerCaseText[end].isLetterOrDigit())
+                ) return@any true
+                start = lowerCaseText.indexOf(term, start + 1)
+            }
+            false
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.tensorflow.lite.examples.imageclassification;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
@@ -29,6 +30,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.tensorflow.lite.support.label.Category;
@@ -46,7 +48,7 @@ public class ImageClassificationTest {
     );
 
     @Test
-    public void classificationResultsShouldNotChange() {
+    public void classificationResultsShouldNotChange() throws InterruptedException {
         ImageClassifierHelper helper = ImageClassifierHelper.create(
                 InstrumentationRegistry.getInstrumentation().getContext(),
                 new ImageClassifierHelper.ClassifierListener() {
@@ -78,7 +80,9 @@ public class ImageClassificationTest {
                     }
                 });
         helper.setThreshold(0.0f);
-        helper.classify(loadImage("coffee.jpg"), 0);
+        assertTrue(helper.awaitClassifier(10, TimeUnit.SECONDS));
+        assertTrue(helper.classify(loadImage("coffee.jpg"), 0));
+        helper.close();
     }
 
     private Bitmap loadImage(String fileName) {
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.imageclassification;
+
+import android.util.Log;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.tensorflow.lite.task.vision.classifier.ImageClassifier;
+
+/**
+ * 已构建 ImageClassifier 的 LRU 缓存
+ * 按 (模型, 代理, 线程数, 阈值, 最大结果数) 缓存分类器实例，使切换配置时无需重新从 assets 加载模型。
+ * 总内存占用（按模型文件大小估算）超出预算时，关闭并淘汰最久未使用的实例。
+ * 本类不是线程安全的，只应在 ImageClassifierHelper 的 worker 线程上使用。
+ */
+class ImageClassifierCache {
+    private static final String TAG = "ImageClassifierCache";
+
+    private final long memoryBudgetBytes; // 缓存允许占用的内存预算（字节）
+    private long usedBytes;               // 当前缓存实例的估算内存总和
+    private ImageClassifier inUse;        // 正在用于推理的实例，淘汰时跳过
+
+    // accessOrder = true：迭代顺序即从最久未使用到最近使用
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(8, 0.75f, true);
+
+    ImageClassifierCache(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * 返回缓存的分类器并将其标记为最近使用；不存在时返回 null。
+     */
+    ImageClassifier get(Key key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.classifier;
+    }
+
+    /** 标记正在用于推理的分类器，使其不会被淘汰。 */
+    void setInUse(ImageClassifier classifier) {
+        inUse = classifier;
+    }
+
+    /** 是否已缓存给定配置的分类器。不会改变 LRU 顺序。 */
+    boolean contains(Key key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * 放入新构建的分类器，并在超出内存预算时淘汰最久未使用的实例。
+     * 刚放入的实例和正在使用的实例始终保留，即使它们本身就超出预算。
+     */
+    void put(Key key, ImageClassifier classifier, long estimatedBytes) {
+        Entry previous = entries.put(key, new Entry(classifier, estimatedBytes));
+        if (previous != null) {
+            usedBytes -= previous.estimatedBytes;
+            if (previous.classifier != classifier) {
+                previous.classifier.close();
+            }
+        }
+        usedBytes += estimatedBytes;
+
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (usedBytes > memoryBudgetBytes && iterator.hasNext()) {
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            ImageClassifier candidate = eldest.getValue().classifier;
+            if (candidate == classifier || candidate == inUse) {
+                continue;
+            }
+            Log.d(TAG, "Evicting classifier " + eldest.getKey());
+            usedBytes -= eldest.getValue().estimatedBytes;
+            candidate.close();
+            iterator.remove();
+        }
+    }
+
+    /** 关闭并移除所有缓存的分类器。 */
+    void clear() {
+        for (Entry entry : entries.values()) {
+            entry.classifier.close();
+        }
+        entries.clear();
+        usedBytes = 0;
+        inUse = null;
+    }
+
+    /**
+     * 分类器配置，作为缓存键。
+     */
+    static final class Key {
+        final int model;
+        final int delegate;
+        final int numThreads;
+        final float threshold;
+        final int maxResults;
+
+        Key(int model, int delegate, int numThreads, float threshold, int maxResults) {
+            this.model = model;
+            this.delegate = delegate;
+            this.numThreads = numThreads;
+            this.threshold = threshold;
+            this.maxResults = maxResults;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return model == other.model
+                    && delegate == other.delegate
+                    && numThreads == other.numThreads
+                    && Float.compare(threshold, other.threshold) == 0
+                    && maxResults == other.maxResults;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = model;
+            result = 31 * result + delegate;
+            result = 31 * result + numThreads;
+            result = 31 * result + Float.floatToIntBits(threshold);
+            result = 31 * result + maxResults;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Key{model=" + model + ", delegate=" + delegate + ", numThreads=" + numThreads
+                    + ", threshold=" + threshold + ", maxResults=" + maxResults + "}";
+        }
+    }
+
+    private static final class Entry {
+        final ImageClassifier classifier;
+        final long estimatedBytes;
+
+        Entry(ImageClassifier classifier, long estimatedBytes) {
+            this.classifier = classifier;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+}
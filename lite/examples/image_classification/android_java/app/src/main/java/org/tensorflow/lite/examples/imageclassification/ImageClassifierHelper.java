@@ -17,16 +17,30 @@
 package org.tensorflow.lite.examples.imageclassification;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.os.SystemClock;
 import android.util.Log;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.gpu.CompatibilityList;
 import org.tensorflow.lite.support.image.ImageProcessor;
 import org.tensorflow.lite.support.image.TensorImage;
 import org.tensorflow.lite.support.image.ops.Rot90Op;
+import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 import org.tensorflow.lite.task.core.BaseOptions;
+import org.tensorflow.lite.task.core.vision.ImageProcessingOptions;
 import org.tensorflow.lite.task.vision.classifier.Classifications;
 import org.tensorflow.lite.task.vision.classifier.ImageClassifier;
 
@@ -49,6 +63,9 @@ public class ImageClassifierHelper {
     private static final int MODEL_EFFICIENTNETV0 = 1;
     private static final int MODEL_EFFICIENTNETV1 = 2;
     private static final int MODEL_EFFICIENTNETV2 = 3;
+    private static final int MODEL_COUNT = 4;
+    // 分类器缓存的默认内存预算
+    private static final long DEFAULT_CACHE_BUDGET_BYTES = 64L * 1024 * 1024;
 
     // 推理相关的可调参数
     private float threshold;          // 分类置信度阈值，低于此值的结果将被过滤
@@ -59,7 +76,28 @@ public class ImageClassifierHelper {
 
     private final Context context;                     // Android 应用上下文
     private final ClassifierListener imageClassifierListener; // 结果回调监听器
-    private ImageClassifier imageClassifier;           // TFLite 图像分类器实例
+    // TFLite 图像分类器实例。重建期间为 null，只在 worker 线程上使用和关闭
+    private volatile ImageClassifier imageClassifier;
+
+    // 单线程 worker：分类器的构建、推理和关闭都在这一个线程上串行执行，
+    // 既保证 GPU 代理在创建它的线程上使用，也让摄像头线程无需等待模型加载
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private Future<ImageClassifier> classifierFuture; // 最近一次后台构建的结果
+    // 已构建分类器的 LRU 缓存，只在 worker 线程上访问
+    private final ImageClassifierCache classifierCache =
+            new ImageClassifierCache(DEFAULT_CACHE_BUDGET_BYTES);
+    private volatile boolean prewarmEnabled;  // 分类器就绪后是否预热下一个模型
+    // 已排队或正在执行的预热任务数。在调用线程上排队前就加一，预热期间（包括排队等待时）跳过帧
+    private final AtomicInteger pendingPrewarms = new AtomicInteger();
+
+    // 逐帧复用的预处理对象，避免每帧重新分配
+    private final ImageProcessor[] rotationProcessors = new ImageProcessor[4]; // 按旋转角度(0/90/180/270)缓存的预处理器
+    private final ImageProcessingOptions[] orientationOptions = new ImageProcessingOptions[4]; // 按旋转角度缓存的方向选项
+    private final TensorImage tensorImage = new TensorImage(DataType.UINT8); // 复用的输入图像
+    private TensorBuffer rgbTensorBuffer;  // 包装 rgbBuffer 的 RGB 张量，尺寸变化时才重建
+    private ByteBuffer rgbBuffer;          // 从 RGBA 平面解包得到的 RGB 像素
+    private byte[] rgbaRow;                // 单行 RGBA 像素的临时数组
+    private byte[] rgbRow;                 // 单行 RGB 像素的临时数组
 
     /**
      * 构造函数，初始化分类器帮助类
@@ -85,7 +123,7 @@ public class ImageClassifierHelper {
         this.currentModel = currentModel;
         this.context = context;
         this.imageClassifierListener = imageClassifierListener;
-        // 初始化时直接设置并创建分类器
+        // 初始化时在后台开始构建分类器
         setupImageClassifier();
     }
 
@@ -108,22 +146,108 @@ public class ImageClassifierHelper {
     }
 
     /**
-     * 设置并初始化 TFLite ImageClassifier。
-     * 此方法会根据当前设置（模型、代理、线程数等）构建并创建分类器实例。
+     * 在 worker 线程上按当前设置异步构建分类器，之前的实例保留在缓存中以便切换回来。
+     * 构建完成前 classify 会直接跳过帧而不是阻塞等待。
+     */
+    private synchronized void setupImageClassifier() {
+        imageClassifier = null;
+        final ImageClassifierCache.Key key = currentKey();
+        final boolean prewarmNext = prewarmEnabled;
+        classifierFuture = worker.submit(() -> {
+            long buildTime = SystemClock.uptimeMillis();
+            ImageClassifier classifier;
+            try {
+                // 之前构建过相同配置时直接复用缓存的实例，切换几乎是即时的
+                classifier = getOrCreateImageClassifier(key);
+            } catch (IOException | RuntimeException e) {
+                imageClassifierListener.onError("Image classifier failed to initialize. See error logs for details");
+                Log.e(TAG, "TFLite failed to load model with error: " + e.getMessage());
+                throw e;
+            }
+            buildTime = SystemClock.uptimeMillis() - buildTime;
+            classifierCache.setInUse(classifier);
+            imageClassifier = classifier;
+            imageClassifierListener.onClassifierReady(buildTime);
+            if (prewarmNext) {
+                prewarm((key.model + 1) % MODEL_COUNT, key.delegate);
+            }
+            return classifier;
+        });
+    }
+
+    /**
+     * 在 worker 线程上预先构建并缓存给定模型和代理的分类器（其余参数使用当前设置），
+     * 之后切换到该配置时无需等待加载。从调用本方法起直到预热完成，classify 都会跳过帧，
+     * 因此摄像头线程不会排在模型构建之后等待。
+     */
+    public void prewarm(int model, int delegate) {
+        final ImageClassifierCache.Key key =
+                new ImageClassifierCache.Key(model, delegate, numThreads, threshold, maxResults);
+        pendingPrewarms.incrementAndGet();
+        try {
+            worker.execute(() -> {
+                try {
+                    if (!classifierCache.contains(key)) {
+                        getOrCreateImageClassifier(key);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "Failed to prewarm classifier " + key, e);
+                } finally {
+                    pendingPrewarms.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // worker 已关闭，预热不会执行
+            pendingPrewarms.decrementAndGet();
+        }
+    }
+
+    // 返回当前设置对应的缓存键
+    private ImageClassifierCache.Key currentKey() {
+        return new ImageClassifierCache.Key(
+                currentModel, currentDelegate, numThreads, threshold, maxResults);
+    }
+
+    /**
+     * 从缓存中取出给定配置的分类器，没有时创建并放入缓存。只在 worker 线程上调用。
+     */
+    private ImageClassifier getOrCreateImageClassifier(ImageClassifierCache.Key key)
+            throws IOException {
+        ImageClassifier classifier = classifierCache.get(key);
+        if (classifier == null) {
+            String modelName = getModelName(key.model);
+            classifier = createImageClassifier(key, modelName);
+            classifierCache.put(key, classifier, estimateModelBytes(modelName));
+        }
+        return classifier;
+    }
+
+    // 以模型文件大小估算分类器占用的内存；模型在 assets 中不压缩，因此可以直接取得长度
+    private long estimateModelBytes(String modelName) {
+        try (AssetFileDescriptor fd = context.getAssets().openFd(modelName)) {
+            return fd.getLength();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 按给定配置（模型、代理、线程数等）创建 TFLite ImageClassifier，只在 worker 线程上调用。
      */
-    private void setupImageClassifier() {
+    private ImageClassifier createImageClassifier(ImageClassifierCache.Key key, String modelName)
+            throws IOException {
         // 1. 设置分类器选项，如分数阈值和最大结果数
         ImageClassifier.ImageClassifierOptions.Builder optionsBuilder =
                 ImageClassifier.ImageClassifierOptions.builder()
-                        .setScoreThreshold(threshold)
-                        .setMaxResults(maxResults);
+                        .setScoreThreshold(key.threshold)
+                        .setMaxResults(key.maxResults);
 
         // 2. 设置通用的基础选项，如线程数和硬件代理
         BaseOptions.Builder baseOptionsBuilder =
-                BaseOptions.builder().setNumThreads(numThreads);
+                BaseOptions.builder().setNumThreads(key.numThreads);
 
         // 3. 根据用户选择配置硬件加速代理
-        switch (currentDelegate) {
+        switch (key.delegate) {
             case DELEGATE_CPU:
                 // 默认使用CPU，无需特殊配置
                 break;
@@ -141,33 +265,42 @@ public class ImageClassifierHelper {
                 break;
         }
 
-        // 4. 根据用户选择确定要加载的模型文件名
-        String modelName;
-        switch (currentModel) {
-            case MODEL_MOBILENETV1:
-                modelName = "mobilenetv1.tflite";
-                break;
+        // 4. 将基础选项应用到分类器选项
+        optionsBuilder.setBaseOptions(baseOptionsBuilder.build());
+
+        // 5. 使用模型文件和配置选项创建 ImageClassifier 实例
+        // Task Library 的核心方法，从 assets 加载模型并创建分类器
+        return ImageClassifier.createFromFileAndOptions(context, modelName, optionsBuilder.build());
+    }
+
+    // 根据模型常量确定要加载的模型文件名
+    private static String getModelName(int model) {
+        switch (model) {
             case MODEL_EFFICIENTNETV0:
-                modelName = "efficientnet-lite0.tflite";
-                break;
+                return "efficientnet-lite0.tflite";
             case MODEL_EFFICIENTNETV1:
-                modelName = "efficientnet-lite1.tflite";
-                break;
+                return "efficientnet-lite1.tflite";
             case MODEL_EFFICIENTNETV2:
-                modelName = "efficientnet-lite2.tflite";
-                break;
+                return "efficientnet-lite2.tflite";
+            case MODEL_MOBILENETV1:
             default:
-                modelName = "mobilenetv1.tflite";
-                break;
+                return "mobilenetv1.tflite";
         }
+    }
 
-        // 5. 使用模型文件和配置选项创建 ImageClassifier 实例
+    /**
+     * 等待后台构建完成，主要供测试使用。
+     * @return 分类器在超时前构建成功则返回 true
+     */
+    public boolean awaitClassifier(long timeout, TimeUnit unit) throws InterruptedException {
+        Future<ImageClassifier> future;
+        synchronized (this) {
+            future = classifierFuture;
+        }
         try {
-            // Task Library 的核心方法，从 assets 加载模型并创建分类器
-            imageClassifier = ImageClassifier.createFromFileAndOptions(context, modelName, optionsBuilder.build());
-        } catch (IOException e) {
-            imageClassifierListener.onError("Image classifier failed to initialize. See error logs for details");
-            Log.e(TAG, "TFLite failed to load model with error: " + e.getMessage());
+            return future.get(timeout, unit) != null;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
         }
     }
 
@@ -175,42 +308,159 @@ public class ImageClassifierHelper {
      * 对给定的 Bitmap 图像执行分类。
      * @param image 待分类的图像
      * @param imageRotation 图像的旋转角度，用于预处理时校正方向
+     * @return 分类器未就绪而跳过该帧时返回 false
      */
-    public void classify(Bitmap image, int imageRotation) {
-        // 如果分类器未初始化（例如，在切换模型或代理后），则重新设置
-        if (imageClassifier == null) {
-            setupImageClassifier();
-        }
+    public boolean classify(Bitmap image, int imageRotation) {
+        return runOnWorker(classifier -> {
+            // 将 Bitmap 载入复用的 TensorImage，并使用按旋转角度缓存的预处理器校正方向
+            tensorImage.load(image);
+            TensorImage processedImage = getRotationProcessor(imageRotation).process(tensorImage);
+            return classifier.classify(processedImage);
+        });
+    }
 
-        // 记录推理开始时间
-        long inferenceTime = SystemClock.uptimeMillis();
+    /**
+     * 直接对 RGBA_8888 像素缓冲区（例如 CameraX ImageProxy 的第一个平面）执行分类。
+     * 像素在一次遍历中解包到复用的 RGB 缓冲区，不经过中间 Bitmap；
+     * 旋转交给 Task Library 的方向选项处理，而不是额外旋转一次图像。
+     * 调用方需保证在本方法返回前 rgbaBuffer 仍然有效。
+     * @param rgbaBuffer RGBA 像素缓冲区
+     * @param width 图像宽度
+     * @param height 图像高度
+     * @param rowStride 每行的字节数（可能大于 width * 4）
+     * @param imageRotation 图像的旋转角度
+     * @return 分类器未就绪而跳过该帧时返回 false
+     */
+    public boolean classify(ByteBuffer rgbaBuffer, int width, int height, int rowStride,
+                            int imageRotation) {
+        return runOnWorker(classifier -> {
+            // 去掉 alpha 通道，按行拷贝到复用的 RGB 缓冲区
+            ensureRgbBuffers(width, height);
+            rgbBuffer.rewind();
+            for (int y = 0; y < height; y++) {
+                rgbaBuffer.position(y * rowStride);
+                rgbaBuffer.get(rgbaRow, 0, width * 4);
+                for (int x = 0, i = 0, o = 0; x < width; x++, i += 4, o += 3) {
+                    rgbRow[o] = rgbaRow[i];
+                    rgbRow[o + 1] = rgbaRow[i + 1];
+                    rgbRow[o + 2] = rgbaRow[i + 2];
+                }
+                rgbBuffer.put(rgbRow);
+            }
+            rgbBuffer.rewind();
+            tensorImage.load(rgbTensorBuffer);
+            return classifier.classify(tensorImage, getOrientationOptions(imageRotation));
+        });
+    }
 
-        // 1. 创建图像预处理器 (ImageProcessor)
-        //    - 主要目的是根据摄像头传感器的方向，对图像进行旋转，以确保模型接收到的是正向图像
-        ImageProcessor imageProcessor =
-                new ImageProcessor.Builder().add(new Rot90Op(-imageRotation / 90)).build();
+    /**
+     * 在 worker 线程上执行一次推理并等待其完成，结果和耗时通过回调返回。
+     * 分类器尚未就绪（首次构建或切换设置后重建中）时直接跳过该帧。
+     * @return 该帧被分类则返回 true，被跳过则返回 false
+     */
+    private boolean runOnWorker(InferenceTask task) {
+        final ImageClassifier classifier = imageClassifier;
+        if (classifier == null || pendingPrewarms.get() > 0) {
+            return false;
+        }
+        final long submitTime = SystemClock.uptimeMillis();
+        Future<Boolean> future = worker.submit(() -> {
+            // 提交后若分类器已被替换，说明设置刚刚改变，旧实例可能已关闭
+            if (classifier != imageClassifier) {
+                return false;
+            }
+            long startTime = SystemClock.uptimeMillis();
+            List<Classifications> result = task.run(classifier);
+            long inferenceTime = SystemClock.uptimeMillis() - startTime;
+            imageClassifierListener.onResults(result, inferenceTime);
+            imageClassifierListener.onFrameTimings(startTime - submitTime, inferenceTime);
+            return true;
+        });
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            imageClassifierListener.onError("Image classification failed. See error logs for details");
+            Log.e(TAG, "TFLite failed to classify image", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
 
-        // 2. 预处理图像并转换为 TensorImage
-        //    - TensorImage 是 TFLite 支持库中用于处理图像的格式
-        TensorImage tensorImage = imageProcessor.process(TensorImage.fromBitmap(image));
+    /**
+     * 返回给定旋转角度对应的图像预处理器，首次使用时创建并缓存。
+     */
+    private ImageProcessor getRotationProcessor(int imageRotation) {
+        int index = rotationIndex(imageRotation);
+        if (rotationProcessors[index] == null) {
+            rotationProcessors[index] =
+                    new ImageProcessor.Builder().add(new Rot90Op(-imageRotation / 90)).build();
+        }
+        return rotationProcessors[index];
+    }
 
-        // 3. 执行分类
-        //    - 这是核心推理步骤，模型将对输入的 tensorImage 进行分析
-        List<Classifications> result = imageClassifier.classify(tensorImage);
+    /**
+     * 返回给定旋转角度对应的 Task Library 方向选项，首次使用时创建并缓存。
+     */
+    private ImageProcessingOptions getOrientationOptions(int imageRotation) {
+        int index = rotationIndex(imageRotation);
+        if (orientationOptions[index] == null) {
+            ImageProcessingOptions.Orientation orientation;
+            switch (index) {
+                case 1:
+                    orientation = ImageProcessingOptions.Orientation.RIGHT_TOP;
+                    break;
+                case 2:
+                    orientation = ImageProcessingOptions.Orientation.BOTTOM_RIGHT;
+                    break;
+                case 3:
+                    orientation = ImageProcessingOptions.Orientation.LEFT_BOTTOM;
+                    break;
+                default:
+                    orientation = ImageProcessingOptions.Orientation.TOP_LEFT;
+                    break;
+            }
+            orientationOptions[index] =
+                    ImageProcessingOptions.builder().setOrientation(orientation).build();
+        }
+        return orientationOptions[index];
+    }
 
-        // 计算总推理耗时
-        inferenceTime = SystemClock.uptimeMillis() - inferenceTime;
+    // 将旋转角度 (0/90/180/270) 转换为缓存数组的下标
+    private static int rotationIndex(int imageRotation) {
+        return ((imageRotation / 90) % 4 + 4) % 4;
+    }
 
-        // 4. 通过回调将结果和耗时返回给调用方 (CameraFragment)
-        imageClassifierListener.onResults(result, inferenceTime);
+    // 仅在输入尺寸变化时重新分配 RGB 缓冲区
+    private void ensureRgbBuffers(int width, int height) {
+        int[] shape = rgbTensorBuffer == null ? null : rgbTensorBuffer.getShape();
+        if (shape != null && shape[0] == height && shape[1] == width) {
+            return;
+        }
+        rgbBuffer = ByteBuffer.allocateDirect(width * height * 3).order(ByteOrder.nativeOrder());
+        rgbaRow = new byte[width * 4];
+        rgbRow = new byte[width * 3];
+        rgbTensorBuffer = TensorBuffer.createDynamic(DataType.UINT8);
+        rgbTensorBuffer.loadBuffer(rgbBuffer, new int[] {height, width, 3});
     }
 
     /**
-     * 清除分类器实例。
-     * 在切换模型或代理时调用，以释放资源并强制在下次分类时重建分类器。
+     * 清除分类器实例，并在后台按新设置重建。
+     * 在切换模型或代理时调用；重建完成前 classify 会跳过帧。
      */
     public void clearImageClassifier() {
+        setupImageClassifier();
+    }
+
+    /**
+     * 关闭分类器并停止 worker 线程。调用后不能再使用本实例。
+     */
+    public synchronized void close() {
         imageClassifier = null;
+        classifierFuture.cancel(false);
+        // 缓存中的所有实例（包括当前使用的）都在 worker 线程上关闭
+        worker.execute(classifierCache::clear);
+        worker.shutdown();
     }
 
     // Getter 和 Setter 方法
@@ -223,6 +473,18 @@ public class ImageClassifierHelper {
     public void setCurrentDelegate(int currentDelegate) { this.currentDelegate = currentDelegate; }
     public void setCurrentModel(int currentModel) { this.currentModel = currentModel; }
 
+    /**
+     * 启用后，每次切换设置且分类器就绪后都会在后台预热下一个模型；启用时立即预热当前模型的下一个模型。
+     */
+    public synchronized void setPrewarmEnabled(boolean prewarmEnabled) {
+        boolean wasEnabled = this.prewarmEnabled;
+        this.prewarmEnabled = prewarmEnabled;
+        if (prewarmEnabled && !wasEnabled) {
+            // 排在当前分类器的构建之后执行
+            prewarm((currentModel + 1) % MODEL_COUNT, currentDelegate);
+        }
+    }
+
     /**
      * 回调接口，用于将分类结果或错误信息异步传递回 UI 层。
      */
@@ -239,5 +501,25 @@ public class ImageClassifierHelper {
          * @param inferenceTime 本次推理的耗时（毫秒）
          */
         void onResults(List<Classifications> results, long inferenceTime);
+
+        /**
+         * 当后台构建的分类器就绪时调用
+         * @param buildTime 构建分类器的耗时（毫秒）
+         */
+        default void onClassifierReady(long buildTime) {}
+
+        /**
+         * 每帧推理完成后调用，用于性能分析
+         * @param queueDelay 帧提交到 worker 线程后等待执行的时间（毫秒）
+         * @param inferenceTime 预处理和推理的耗时（毫秒）
+         */
+        default void onFrameTimings(long queueDelay, long inferenceTime) {}
+    }
+
+    /**
+     * 在 worker 线程上使用给定分类器执行的一次推理。
+     */
+    private interface InferenceTask {
+        List<Classifications> run(ImageClassifier classifier);
     }
 }
\ No newline at end of file
@@ -17,7 +17,6 @@ package org.tensorflow.lite.examples.imageclassification.fragments;
 
 import android.annotation.SuppressLint;
 import android.content.res.Configuration;
-import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -40,6 +39,7 @@ import androidx.navigation.Navigation;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -63,7 +63,6 @@ public class CameraFragment extends Fragment
 
     private FragmentCameraBinding fragmentCameraBinding; // ViewBinding实例，用于访问布局中的视图
     private ImageClassifierHelper imageClassifierHelper; // 图像分类帮助类的实例
-    private Bitmap bitmapBuffer; // 用于存储从CameraX获取的图像帧
     private ClassificationResultAdapter classificationResultsAdapter; // RecyclerView的适配器，用于显示分类结果
     private ImageAnalysis imageAnalyzer; // CameraX的图像分析用例
     private ProcessCameraProvider cameraProvider; // CameraX的相机提供者
@@ -102,9 +101,9 @@ public class CameraFragment extends Fragment
         super.onDestroyView();
         // 关闭后台线程池，以防内存泄漏
         cameraExecutor.shutdown();
-        // 同步清理分类器，释放TFLite相关资源
+        // 同步关闭分类器及其 worker 线程，释放TFLite相关资源
         synchronized (task) {
-            imageClassifierHelper.clearImageClassifier();
+            imageClassifierHelper.close();
         }
     }
 
@@ -115,6 +114,8 @@ public class CameraFragment extends Fragment
         cameraExecutor = Executors.newSingleThreadExecutor();
         // 初始化ImageClassifierHelper，并传入当前Fragment作为回调监听器
         imageClassifierHelper = ImageClassifierHelper.create(requireContext(), this);
+        // 在后台预热下一个模型，在模型之间切换时无需等待加载
+        imageClassifierHelper.setPrewarmEnabled(true);
 
         // 初始化用于显示结果的RecyclerView及其适配器
         classificationResultsAdapter = new ClassificationResultAdapter();
@@ -156,8 +157,9 @@ public class CameraFragment extends Fragment
         fragmentCameraBinding.bottomSheetLayout.threadsValue.setText(
                 String.valueOf(imageClassifierHelper.getNumThreads()));
         
-        // 清除当前的分类器实例。这会强制在下一次classify调用时，使用新的参数重新创建一个分类器。
-        // 这样做是必要的，因为某些代理（如GPU代理）需要在其将被使用的线程上进行初始化。
+        // 清除当前的分类器实例，并在ImageClassifierHelper的worker线程上使用新的参数重建。
+        // 构建和推理在同一个线程上进行，因为某些代理（如GPU代理）需要在其将被使用的线程上进行初始化。
+        // 重建期间分析器会直接跳过帧，而不会阻塞摄像头线程。
         synchronized (task) {
             imageClassifierHelper.clearImageClassifier();
         }
@@ -212,30 +214,25 @@ public class CameraFragment extends Fragment
 
         // 核心逻辑：为ImageAnalysis用例设置分析器(Analyzer)
         imageAnalyzer.setAnalyzer(cameraExecutor, image -> {
-            if (bitmapBuffer == null) {
-                // 为bitmapBuffer创建与图像帧匹配的Bitmap。这只在第一次时执行。
-                bitmapBuffer = Bitmap.createBitmap(
-                        image.getWidth(),
-                        image.getHeight(),
-                        Bitmap.Config.ARGB_8888);
-            }
-            // 将ImageProxy中的图像数据复制到我们的bitmapBuffer中
-            image.getPlanes()[0].getBuffer().rewind();
-            bitmapBuffer.copyPixelsFromBuffer(image.getPlanes()[0].getBuffer());
+            // 直接读取 ImageProxy 的 RGBA 平面，不再经过 Bitmap 中转
+            ImageProxy.PlaneProxy plane = image.getPlanes()[0];
+            ByteBuffer rgbaBuffer = plane.getBuffer();
+            rgbaBuffer.rewind();
 
             // 获取图像的旋转角度
             int rotation = image.getImageInfo().getRotationDegrees();
-            
-            // 关闭ImageProxy，释放资源。非常重要！
-            image.close();
 
-            // 将准备好的Bitmap和旋转角度传递给ImageClassifierHelper进行分类
-            // 推理将在ImageClassifierHelper内部的线程中执行
+            // 将平面缓冲区和旋转角度传递给ImageClassifierHelper进行分类
+            // 分类器仍在构建时该帧会被直接跳过
             synchronized (task) {
                 if (imageClassifierHelper != null) {
-                    imageClassifierHelper.classify(bitmapBuffer, rotation);
+                    imageClassifierHelper.classify(rgbaBuffer, image.getWidth(),
+                            image.getHeight(), plane.getRowStride(), rotation);
                 }
             }
+
+            // 分类完成后才能关闭ImageProxy，因为分类时直接读取了它的缓冲区。非常重要！
+            image.close();
         });
 
         // 在重新绑定用例之前，必须先解绑所有旧的用例
@@ -260,6 +257,16 @@ public class CameraFragment extends Fragment
         });
     }
 
+    @Override
+    public void onClassifierReady(long buildTime) {
+        Log.d(TAG, "Classifier ready in " + buildTime + " ms");
+    }
+
+    @Override
+    public void onFrameTimings(long queueDelay, long inferenceTime) {
+        Log.v(TAG, "Queue delay " + queueDelay + " ms, inference " + inferenceTime + " ms");
+    }
+
     @Override
     public void onResults(List<Classifications> results, long inferenceTime) {
         // 当收到分类结果时，在主线程中更新UI
@@ -44,9 +44,12 @@ import com.google.android.gms.tflite.java.TfLite;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.tensorflow.lite.examples.classification.playservices.ImageClassificationHelper
@@ -60,18 +63,37 @@ public final class CameraActivity extends AppCompatActivity {
   // Number of recognition results to show in the UI
   private static final int MAX_REPORT = 3;
   private static final String PERMISSION = Manifest.permission.CAMERA;
-
+  // Number of input buffers: one can be copied into while the other is being classified
+  private static final int INPUT_BUFFER_COUNT = 2;
+  // One more buffer than that is allocated, to hold the last classified frame
+  private static final int ALLOCATED_BUFFER_COUNT = INPUT_BUFFER_COUNT + 1;
+  // Number of frames the pipeline metrics are averaged over, and logged after
+  private static final int METRICS_WINDOW = 30;
+  // Number of inferences run on a blank input before the classifier is used on camera frames
+  private static final int WARM_UP_RUNS = 3;
+
+  // Runs the analyzer, which only copies frames out of the camera
   private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  // Runs the classifier, so CameraX can deliver the next frame while inference is running
+  private final ExecutorService inferenceExecutor = Executors.newSingleThreadExecutor();
+  // Input buffers not currently holding a frame waiting for, or under, inference
+  private final BlockingQueue<Bitmap> freeInputBuffers =
+          new ArrayBlockingQueue<>(ALLOCATED_BUFFER_COUNT);
+  private final PipelineMetrics metrics = new PipelineMetrics(METRICS_WINDOW);
 
   private ActivityResultLauncher<String> requestPermissionLauncher;
   private ActivityCameraBinding activityCameraBinding;
-  private Bitmap bitmapBuffer;
+  // Most recently classified frame, shown when the analysis is paused. It stays out of
+  // freeInputBuffers until a newer frame replaces it, and is only read or replaced while holding
+  // lastFrameLock, so it can't be recycled while it is being shown.
+  private final Object lastFrameLock = new Object();
+  private Bitmap lastFrame;
   private boolean pauseAnalysis = false;
   private int imageRotationDegrees = 0;
   // Initialize TFLite once
   private Task<Void> initializeTask;
   // The classifier is create after initialization succeeded
-  private ImageClassificationHelper classifier;
+  private volatile ImageClassificationHelper classifier;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -119,24 +141,38 @@ public final class CameraActivity extends AppCompatActivity {
     Log.d(TAG, "TFLite in Play Services initialized successfully.");
     // Create ImageClassificationHelper AFTER TfLite.initialize() succeeded. This
     // guarantees that all the interactions with TFLite happens after initialization.
+    // The warm-up blocks, so it runs on the inference thread; frames are skipped until the
+    // classifier is assigned.
     try {
-      classifier = ImageClassificationHelper.create(
-              CameraActivity.this,
-              MAX_REPORT,
-              isGpuInitialized
-      );
-    } catch (Exception e) {
-      Log.d(TAG, "ImageClassificationHelper initialization error");
+      inferenceExecutor.execute(
+              () -> {
+                try {
+                  classifier = ImageClassificationHelper.create(
+                          CameraActivity.this,
+                          MAX_REPORT,
+                          isGpuInitialized,
+                          WARM_UP_RUNS,
+                          getCodeCacheDir()
+                  );
+                } catch (Exception e) {
+                  Log.d(TAG, "ImageClassificationHelper initialization error");
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      // The activity was destroyed before TFLite finished initializing
+      Log.d(TAG, "Skipped classifier creation after shutdown.");
     }
   }
 
 
   @Override
   protected void onDestroy() {
-    // Terminate all outstanding analyzing jobs (if there is any)
+    // Terminate all outstanding analyzing and inference jobs (if there is any)
     executor.shutdown();
+    inferenceExecutor.shutdown();
     try {
-      if (!executor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+      if (!executor.awaitTermination(1000, TimeUnit.MILLISECONDS)
+              || !inferenceExecutor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
         Log.w(TAG, "Failed to terminate.");
       }
     } catch (InterruptedException e) {
@@ -230,19 +266,30 @@ public final class CameraActivity extends AppCompatActivity {
             });
   }
 
-  /** Image Analyzer used for classifying image. */
+  /**
+   * Image Analyzer used for classifying image.
+   *
+   * <p>The analyzer only copies the frame into a free input buffer and closes the {@link
+   * ImageProxy} right away, so CameraX can produce the next frame while the previous one is being
+   * classified on {@link #inferenceExecutor}. Frames arriving while every buffer is busy are
+   * dropped.
+   */
   private class ClassificationAnalyzer implements Analyzer {
-    private int frameCounter = 0;
-    private long lastFpsTimeMillis = System.currentTimeMillis();
+    private boolean buffersAllocated = false;
 
     @Override
     public void analyze(@NonNull ImageProxy image) {
-      if (bitmapBuffer == null) {
-        // The image rotation and RGB image buffer are initialized only after the analyzer has
+      long arrivalTime = System.nanoTime();
+      if (!buffersAllocated) {
+        // The image rotation and RGB image buffers are initialized only after the analyzer has
         // started running
         imageRotationDegrees = image.getImageInfo().getRotationDegrees();
-        bitmapBuffer =
-                Bitmap.createBitmap(image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
+        for (int i = 0; i < ALLOCATED_BUFFER_COUNT; ++i) {
+          freeInputBuffers.add(
+                  Bitmap.createBitmap(
+                          image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888));
+        }
+        buffersAllocated = true;
       }
 
       // Early exit: image analysis is in paused state, or TFLite initialization has not finished
@@ -251,25 +298,62 @@ public final class CameraActivity extends AppCompatActivity {
         return;
       }
 
-      // Copy out RGB bits to our shared buffer
-      bitmapBuffer.copyPixelsFromBuffer(image.getPlanes()[0].getBuffer());
-
-      // Perform the image classification for the current frame
-      List<Recognition> recognitions = classifier.classify(bitmapBuffer, imageRotationDegrees);
+      Bitmap inputBuffer = freeInputBuffers.poll();
+      if (inputBuffer == null) {
+        // Both buffers are queued or under inference: skip this frame rather than wait
+        metrics.recordDroppedFrame();
+        image.close();
+        return;
+      }
 
-      reportRecognition(recognitions);
+      // Copy out RGB bits to the input buffer, then hand the camera buffer back immediately
+      inputBuffer.copyPixelsFromBuffer(image.getPlanes()[0].getBuffer());
+      int rotationDegrees = image.getImageInfo().getRotationDegrees();
+      image.close();
+      long copiedTime = System.nanoTime();
+
+      try {
+        inferenceExecutor.execute(
+                () -> classify(inputBuffer, rotationDegrees, arrivalTime, copiedTime));
+      } catch (RejectedExecutionException e) {
+        // onDestroy shut the inference executor down while this frame was being copied
+        freeInputBuffers.add(inputBuffer);
+      }
+    }
 
-      // Compute the FPS of the entire pipeline
-      int frameCount = 10;
-      if (++frameCounter % frameCount == 0) {
-        frameCounter = 0;
-        long currentTimeMillis = System.currentTimeMillis();
-        long deltaTimeMillis = currentTimeMillis - lastFpsTimeMillis;
-        float fps = 1000 * (float) frameCount / deltaTimeMillis;
-        Log.d(TAG, "FPS: " + fps);
-        lastFpsTimeMillis = currentTimeMillis;
+    /**
+     * Classifies one copied frame on the inference executor, keeps it as the last frame and
+     * recycles the buffer of the frame it replaces.
+     */
+    private void classify(
+            Bitmap inputBuffer, int rotationDegrees, long arrivalTime, long copiedTime) {
+      Bitmap recycledBuffer = inputBuffer;
+      try {
+        long startTime = System.nanoTime();
+        // Perform the image classification for the current frame
+        List<Recognition> recognitions = classifier.classify(inputBuffer, rotationDegrees);
+        long endTime = System.nanoTime();
+        synchronized (lastFrameLock) {
+          recycledBuffer = lastFrame;
+          lastFrame = inputBuffer;
+        }
+
+        reportRecognition(recognitions);
+
+        metrics.recordFrame(
+                copiedTime - arrivalTime,
+                startTime - copiedTime,
+                endTime - startTime,
+                endTime - arrivalTime,
+                endTime);
+        if (metrics.isWindowComplete()) {
+          Log.d(TAG, metrics.toString());
+        }
+      } finally {
+        if (recycledBuffer != null) {
+          freeInputBuffers.add(recycledBuffer);
+        }
       }
-      image.close();
     }
   }
 
@@ -314,15 +398,22 @@ public final class CameraActivity extends AppCompatActivity {
         pauseAnalysis = true;
         Matrix matrix = new Matrix();
         matrix.postRotate(imageRotationDegrees);
-        Bitmap uprightImage =
-                Bitmap.createBitmap(
-                        bitmapBuffer,
-                        0,
-                        0,
-                        bitmapBuffer.getWidth(),
-                        bitmapBuffer.getHeight(),
-                        matrix,
-                        true);
+        Bitmap uprightImage;
+        synchronized (lastFrameLock) {
+          if (lastFrame == null) {
+            listener.setEnabled(true);
+            return;
+          }
+          uprightImage =
+                  Bitmap.createBitmap(
+                          lastFrame,
+                          0,
+                          0,
+                          lastFrame.getWidth(),
+                          lastFrame.getHeight(),
+                          matrix,
+                          true);
+        }
         activityCameraBinding.imagePredicted.setImageBitmap(uprightImage);
         activityCameraBinding.imagePredicted.setVisibility(View.VISIBLE);
       }
@@ -20,15 +20,19 @@ import static java.lang.Math.min;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
+import androidx.annotation.Nullable;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.InterpreterApi;
 import org.tensorflow.lite.InterpreterApi.Options.TfLiteRuntime;
@@ -36,43 +40,34 @@ import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.gpu.GpuDelegateFactory;
 import org.tensorflow.lite.support.common.FileUtil;
 import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.TensorProcessor;
 import org.tensorflow.lite.support.common.ops.NormalizeOp;
 import org.tensorflow.lite.support.image.ImageProcessor;
 import org.tensorflow.lite.support.image.TensorImage;
 import org.tensorflow.lite.support.image.ops.ResizeOp;
 import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp;
 import org.tensorflow.lite.support.image.ops.Rot90Op;
-import org.tensorflow.lite.support.label.TensorLabel;
 import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 /** Helper class used to communicate between our app and the TF image classification model. */
 class ImageClassificationHelper implements Closeable {
 
   private static final String TAG = "ImageClassification";
+  // Enables per-frame debug logging. Kept off so the classification hot path does not log
+  private static final boolean DEBUG = false;
   // ClassifierFloatEfficientNet model
   private static final String MODEL_PATH = "efficientnet-lite0-fp32.tflite";
   private static final String LABELS_PATH = "labels_without_background.txt";
-  // Float model does not need dequantization in the post-processing. Setting mean and std as 0.0f
-  // and 1.0f, respectively, to bypass the normalization
-  private static final float PROBABILITY_MEAN = 0.0f;
-  private static final float PROBABILITY_STD = 1.0f;
   private static final float IMAGE_MEAN = 127.0f;
   private static final float IMAGE_STD = 128.0f;
   private static final TensorOperator PREPROCESS_NORMALIZE_OP =
           new NormalizeOp(IMAGE_MEAN, IMAGE_STD);
-  private static final TensorOperator POSTPROCESS_NORMALIZE_OP =
-          new NormalizeOp(PROBABILITY_MEAN, PROBABILITY_STD);
-  /** Processor to apply post processing of the output probability. */
-  private static final TensorProcessor PROBABILITY_PROCESSOR =
-          new TensorProcessor.Builder().add(POSTPROCESS_NORMALIZE_OP).build();
 
   /** Abstraction object that wraps a classification output in an easy to parse way. */
   public static class Recognition {
     private final String title;
-    private final Float confidence;
+    private final float confidence;
 
-    public Recognition(String title, Float confidence) {
+    public Recognition(String title, float confidence) {
       this.title = title;
       this.confidence = confidence;
     }
@@ -81,7 +76,7 @@ class ImageClassificationHelper implements Closeable {
       return title;
     }
 
-    public Float getConfidence() {
+    public float getConfidence() {
       return confidence;
     }
   }
@@ -97,17 +92,55 @@ class ImageClassificationHelper implements Closeable {
           boolean isGpuInitialized
   )
           throws IOException {
+    return create(context, maxResults, isGpuInitialized, /* warmUpRuns= */ 0, null);
+  }
+
+  /**
+   * Factory method to create an instance of {@code ImageClassificationHelper} that is ready to
+   * classify at full speed.
+   *
+   * <p>The first inference pays for the GPU delegate compilation and kernel warm-up. Running
+   * {@code warmUpRuns} inferences on a blank input here moves that cost out of the camera path;
+   * this blocks, so call it from a background thread. The cold and warm latencies measured along
+   * the way are available from {@link #getColdInferenceMillis()} and {@link
+   * #getWarmInferenceMillis()}.
+   *
+   * @param maxResults the number of {@link Recognition} that will be returned when classifying,
+   *     which must be positive
+   * @param warmUpRuns the number of inferences to run before returning, 0 to skip the warm-up
+   * @param gpuCacheDir if not null and the GPU is used, directory where the compiled GPU program
+   *     is serialized, so later launches skip the shader compilation
+   */
+  public static ImageClassificationHelper create(
+          Context context,
+          int maxResults,
+          boolean isGpuInitialized,
+          int warmUpRuns,
+          @Nullable File gpuCacheDir
+  )
+          throws IOException {
+    if (maxResults <= 0) {
+      throw new IllegalArgumentException("maxResults must be positive: " + maxResults);
+    }
     // Use TFLite in Play Services runtime by setting the option to FROM_SYSTEM_ONLY
     InterpreterApi.Options options = new InterpreterApi
             .Options()
             .setRuntime(TfLiteRuntime.FROM_SYSTEM_ONLY);
 
+    MappedByteBuffer model = FileUtil.loadMappedFile(context, MODEL_PATH);
     if (isGpuInitialized) {
-      options.addDelegateFactory(new GpuDelegateFactory());
+      GpuDelegateFactory.Options gpuOptions = new GpuDelegateFactory.Options();
+      if (gpuCacheDir != null) {
+        // The token identifies the model the cached program was compiled for
+        gpuOptions.setSerializationParams(
+                gpuCacheDir.getAbsolutePath(), MODEL_PATH + "-" + model.capacity());
+      }
+      options.addDelegateFactory(new GpuDelegateFactory(gpuOptions));
     }
 
-    InterpreterApi interpreter =
-            InterpreterApi.create(FileUtil.loadMappedFile(context, MODEL_PATH), options);
+    long createStartTime = SystemClock.elapsedRealtimeNanos();
+    InterpreterApi interpreter = InterpreterApi.create(model, options);
+    long createNanos = SystemClock.elapsedRealtimeNanos() - createStartTime;
 
     int[] inputShape = interpreter.getInputTensor(/* inputIndex */ 0).shape();
     Size tfInputSize =
@@ -120,8 +153,12 @@ class ImageClassificationHelper implements Closeable {
     // Read labels from file
     List<String> labels = FileUtil.loadLabels(context, LABELS_PATH);
 
-    return new ImageClassificationHelper(
-            maxResults, labels, interpreter, tfInputSize, outputProbabilityBuffer);
+    ImageClassificationHelper helper =
+            new ImageClassificationHelper(
+                    maxResults, labels, interpreter, tfInputSize, outputProbabilityBuffer);
+    helper.createMillis = createNanos / 1e6f;
+    helper.warmUp(warmUpRuns);
+    return helper;
   }
 
   // Return the top maxResults classification result
@@ -131,8 +168,17 @@ class ImageClassificationHelper implements Closeable {
   private final InterpreterApi interpreter;
   private final Size tfInputSize;
   private final TensorBuffer outputProbabilityBuffer;
+  // Float view over the output buffer, read in place after each inference
+  private final FloatBuffer outputProbabilities;
+  // Indices and scores of the current top results, reused across frames
+  private final int[] topIndices;
+  private final float[] topScores;
   private ImageProcessor tfImageProcessor;
   private TensorImage tfInputBuffer = new TensorImage(DataType.UINT8);
+  // Latencies measured by create(), in milliseconds; NaN when not measured
+  private float createMillis = Float.NaN;
+  private float coldInferenceMillis = Float.NaN;
+  private float warmInferenceMillis = Float.NaN;
 
   private ImageClassificationHelper(
           int maxResults,
@@ -145,23 +191,72 @@ class ImageClassificationHelper implements Closeable {
     this.interpreter = interpreter;
     this.tfInputSize = tfInputSize;
     this.outputProbabilityBuffer = outputProbabilityBuffer;
+    this.outputProbabilities = outputProbabilityBuffer.getBuffer().asFloatBuffer();
+    this.topIndices = new int[maxResults];
+    this.topScores = new float[maxResults];
   }
 
   /** Returns the top {@link #maxResults} recognition result in the input {@code bitmapBuffer}. */
   public List<Recognition> classify(final Bitmap bitmapBuffer, int imageRotationDegrees) {
     // Loads the input bitmapBuffer
     tfInputBuffer = loadImage(bitmapBuffer, imageRotationDegrees);
-    Log.d(TAG, "tensorSize: " + tfInputBuffer.getWidth() + " x " + tfInputBuffer.getHeight());
+    if (DEBUG) {
+      Log.d(TAG, "tensorSize: " + tfInputBuffer.getWidth() + " x " + tfInputBuffer.getHeight());
+    }
 
     // Runs the inference call
     interpreter.run(tfInputBuffer.getBuffer(), outputProbabilityBuffer.getBuffer().rewind());
 
-    // Gets the map of label and probability
-    Map<String, Float> labeledProbability =
-            new TensorLabel(labels, PROBABILITY_PROCESSOR.process(outputProbabilityBuffer))
-                    .getMapWithFloatValue();
+    return getTopKProbability();
+  }
 
-    return getTopKProbability(labeledProbability, maxResults);
+  /** Returns how long creating the interpreter and applying the delegate took, in milliseconds. */
+  public float getCreateMillis() {
+    return createMillis;
+  }
+
+  /**
+   * Returns the latency of the first inference, which includes the GPU delegate compilation, in
+   * milliseconds, or NaN if no warm-up was run.
+   */
+  public float getColdInferenceMillis() {
+    return coldInferenceMillis;
+  }
+
+  /**
+   * Returns the mean latency of the warm-up inferences after the first one, in milliseconds, or
+   * NaN if fewer than two warm-up inferences were run.
+   */
+  public float getWarmInferenceMillis() {
+    return warmInferenceMillis;
+  }
+
+  /** Runs {@code runs} inferences on a blank input and records the cold and warm latencies. */
+  private void warmUp(int runs) {
+    if (runs <= 0) {
+      return;
+    }
+    ByteBuffer input =
+            ByteBuffer.allocateDirect(interpreter.getInputTensor(0).numBytes())
+                    .order(ByteOrder.nativeOrder());
+    long warmNanos = 0;
+    for (int i = 0; i < runs; ++i) {
+      long startTime = SystemClock.elapsedRealtimeNanos();
+      interpreter.run(input.rewind(), outputProbabilityBuffer.getBuffer().rewind());
+      long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+      if (i == 0) {
+        coldInferenceMillis = elapsed / 1e6f;
+      } else {
+        warmNanos += elapsed;
+      }
+    }
+    if (runs > 1) {
+      warmInferenceMillis = warmNanos / ((runs - 1) * 1e6f);
+    }
+    Log.d(
+            TAG,
+            "Warm-up: create " + createMillis + " ms, cold " + coldInferenceMillis
+                    + " ms, warm " + warmInferenceMillis + " ms");
   }
 
   /** Releases TFLite resources. */
@@ -192,24 +287,36 @@ class ImageClassificationHelper implements Closeable {
     return tfImageProcessor.process(tfInputBuffer);
   }
 
-  /** Gets the top {@code maxResults} results. */
-  private static List<Recognition> getTopKProbability(
-          Map<String, Float> labelProb, int maxResults) {
-    // Sorts the recognition by confidence from HIGH to LOW
-    PriorityQueue<Recognition> priorityQueue =
-            new PriorityQueue<>(
-                    maxResults,
-                    (Recognition a, Recognition b) -> Float
-                            .compare(b.getConfidence(), a.getConfidence())
-            );
-
-    for (Entry<String, Float> entry : labelProb.entrySet()) {
-      priorityQueue.add(new Recognition(entry.getKey(), entry.getValue()));
+  /**
+   * Gets the top {@code maxResults} results, reading the output probabilities in place.
+   *
+   * <p>Only the winning indices are turned into {@link Recognition}s; no per-label map or boxed
+   * score is created. The float model outputs probabilities, so they need no post-processing. This
+   * is the same insertion as the uint8 top-k of the flower classification codelab, which lives in
+   * a separate Gradle project and so cannot be shared.
+   */
+  private List<Recognition> getTopKProbability() {
+    int numClasses = min(outputProbabilities.capacity(), labels.size());
+    int count = 0;
+    for (int i = 0; i < numClasses; ++i) {
+      float score = outputProbabilities.get(i);
+      if (count == maxResults && score <= topScores[count - 1]) {
+        continue;
+      }
+      // Inserts into the small sorted arrays, dropping the lowest entry once they are full
+      int position = count < maxResults ? count++ : count - 1;
+      while (position > 0 && topScores[position - 1] < score) {
+        topScores[position] = topScores[position - 1];
+        topIndices[position] = topIndices[position - 1];
+        --position;
+      }
+      topScores[position] = score;
+      topIndices[position] = i;
     }
-    List<Recognition> recognitions = new ArrayList<>();
-    int recognitionsSize = min(priorityQueue.size(), maxResults);
-    for (int i = 0; i < recognitionsSize; ++i) {
-      recognitions.add(priorityQueue.poll());
+
+    List<Recognition> recognitions = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      recognitions.add(new Recognition(labels.get(topIndices[i]), topScores[i]));
     }
     return recognitions;
   }
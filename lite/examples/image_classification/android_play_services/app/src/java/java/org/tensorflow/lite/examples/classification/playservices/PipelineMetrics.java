@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022 The TensorFlow Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification.playservices;
+
+import java.util.Locale;
+
+/**
+ * Rolling-window timings of the camera classification pipeline.
+ *
+ * <p>Keeps the per-stage durations of the last {@code windowSize} classified frames in fixed ring
+ * buffers, so recording a frame never allocates. Frames are recorded from the inference thread and
+ * read from any thread.
+ */
+final class PipelineMetrics {
+
+  /** A stage of the pipeline, from the camera frame arriving to its result being available. */
+  enum Stage {
+    // Copying the camera plane into a pooled input buffer, on the analyzer thread
+    COPY,
+    // Waiting for the inference executor to pick the frame up
+    QUEUE,
+    // Running the classifier, including pre- and post-processing
+    INFERENCE,
+    // From the frame arriving in the analyzer to its recognitions being ready
+    TOTAL
+  }
+
+  private static final int STAGE_COUNT = Stage.values().length;
+
+  private final int windowSize;
+  // [stage][frame] durations in nanoseconds, written as a ring
+  private final long[][] durations;
+  private final long[] sums = new long[STAGE_COUNT];
+  // Completion time of each frame in the window, used for the throughput
+  private final long[] completionTimes;
+  private int next = 0;
+  private int size = 0;
+  private long completedFrames = 0;
+  private long droppedFrames = 0;
+
+  PipelineMetrics(int windowSize) {
+    if (windowSize < 2) {
+      throw new IllegalArgumentException("windowSize must be at least 2: " + windowSize);
+    }
+    this.windowSize = windowSize;
+    this.durations = new long[STAGE_COUNT][windowSize];
+    this.completionTimes = new long[windowSize];
+  }
+
+  /** Records the stage durations of one classified frame, in nanoseconds. */
+  synchronized void recordFrame(
+          long copyNanos, long queueNanos, long inferenceNanos, long totalNanos,
+          long completionTimeNanos) {
+    if (size == windowSize) {
+      for (int stage = 0; stage < STAGE_COUNT; ++stage) {
+        sums[stage] -= durations[stage][next];
+      }
+    } else {
+      ++size;
+    }
+    put(Stage.COPY, copyNanos);
+    put(Stage.QUEUE, queueNanos);
+    put(Stage.INFERENCE, inferenceNanos);
+    put(Stage.TOTAL, totalNanos);
+    completionTimes[next] = completionTimeNanos;
+    next = (next + 1) % windowSize;
+    ++completedFrames;
+  }
+
+  /** Records a camera frame that was skipped because every input buffer was busy. */
+  synchronized void recordDroppedFrame() {
+    ++droppedFrames;
+  }
+
+  /** Returns whether the window has just been refilled, i.e. a full window of new frames landed. */
+  synchronized boolean isWindowComplete() {
+    return completedFrames > 0 && completedFrames % windowSize == 0;
+  }
+
+  /** Returns the mean duration of {@code stage} over the window, in milliseconds. */
+  synchronized float getMeanMillis(Stage stage) {
+    return size == 0 ? 0f : sums[stage.ordinal()] / (size * 1e6f);
+  }
+
+  /** Returns the longest duration of {@code stage} over the window, in milliseconds. */
+  synchronized float getMaxMillis(Stage stage) {
+    long max = 0;
+    long[] values = durations[stage.ordinal()];
+    for (int i = 0; i < size; ++i) {
+      max = Math.max(max, values[i]);
+    }
+    return max / 1e6f;
+  }
+
+  /** Returns the number of frames classified per second over the window. */
+  synchronized float getFps() {
+    if (size < 2) {
+      return 0f;
+    }
+    int newest = (next - 1 + windowSize) % windowSize;
+    int oldest = size == windowSize ? next : 0;
+    long elapsed = completionTimes[newest] - completionTimes[oldest];
+    return elapsed <= 0 ? 0f : (size - 1) * 1e9f / elapsed;
+  }
+
+  /** Returns the number of camera frames skipped since creation. */
+  synchronized long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder =
+            new StringBuilder(
+                    String.format(
+                            Locale.US,
+                            "FPS: %.1f, dropped: %d",
+                            getFps(),
+                            droppedFrames));
+    for (Stage stage : Stage.values()) {
+      builder.append(
+              String.format(
+                      Locale.US,
+                      ", %s: %.1f/%.1f ms",
+                      stage.name().toLowerCase(Locale.US),
+                      getMeanMillis(stage),
+                      getMaxMillis(stage)));
+    }
+    return builder.toString();
+  }
+
+  private void put(Stage stage, long nanos) {
+    durations[stage.ordinal()][next] = nanos;
+    sums[stage.ordinal()] += nanos;
+  }
+}
@@ -1,5 +1,6 @@
 -keepclasseswithmembers class com.google.samples.gms.tflite.c.MainActivity { *; }
 -keepclasseswithmembers class com.google.samples.gms.tflite.c.TfLiteJni { *; }
+-keepclasseswithmembers class com.google.samples.gms.tflite.c.TfLiteJni$TensorInfo { *; }
 -keepclasseswithmembers class android.support.** { *; }
 -keepclasseswithmembers class androidx.** { *; }
 
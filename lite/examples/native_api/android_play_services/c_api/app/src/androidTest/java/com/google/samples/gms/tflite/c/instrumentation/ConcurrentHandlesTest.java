@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 The TensorFlow Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.gms.tflite.c.instrumentation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.gms.tflite.java.TfLiteNative;
+import com.google.samples.gms.tflite.c.TfLiteJni;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Runs several independent {@link TfLiteJni} handles concurrently on separate threads. */
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentHandlesTest {
+  private static final int NUM_HANDLES = 8;
+  private static final int ITERATIONS = 200;
+
+  @Test
+  public void independentHandlesRunConcurrently() throws Exception {
+    Context context = ApplicationProvider.getApplicationContext();
+    Tasks.await(TfLiteNative.initialize(context));
+
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_HANDLES);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Void>> results = new ArrayList<>();
+    for (int i = 0; i < NUM_HANDLES; i++) {
+      final float scale = i + 1;
+      results.add(
+          executor.submit(
+              () -> {
+                TfLiteJni jni = new TfLiteJni(/* loggingCallback= */ null);
+                jni.loadModel(context.getAssets(), "add.tflite");
+                start.await();
+                for (int j = 0; j < ITERATIONS; j++) {
+                  float[] output = jni.runInference(new float[] {scale, 3.f * scale});
+                  assertThat(output).isEqualTo(new float[] {3.f * scale, 9.f * scale});
+                }
+                jni.destroy();
+                return null;
+              }));
+    }
+    start.countDown();
+    try {
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void sharedHandleIsSafeAcrossThreads() throws ExecutionException, InterruptedException {
+    Context context = ApplicationProvider.getApplicationContext();
+    Tasks.await(TfLiteNative.initialize(context));
+    TfLiteJni jni = new TfLiteJni(/* loggingCallback= */ null);
+    jni.loadModel(context.getAssets(), "add.tflite");
+
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_HANDLES);
+    List<Future<?>> results = new ArrayList<>();
+    for (int i = 0; i < NUM_HANDLES; i++) {
+      results.add(
+          executor.submit(
+              () -> {
+                for (int j = 0; j < ITERATIONS; j++) {
+                  float[] output = jni.runInference(new float[] {1.f, 3.f});
+                  assertThat(output).isEqualTo(new float[] {3.f, 9.f});
+                }
+              }));
+    }
+    try {
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+      jni.destroy();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 The TensorFlow Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.gms.tflite.c.instrumentation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.gms.tflite.java.TfLiteNative;
+import com.google.samples.gms.tflite.c.TfLiteJni;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the invoke latency histogram and op profile exposed by {@link TfLiteJni}. */
+@RunWith(AndroidJUnit4.class)
+public class InvokeStatsTest {
+  private static final int ITERATIONS = 100;
+
+  private TfLiteJni jni;
+
+  @Before
+  public void setUp() throws Exception {
+    Context context = ApplicationProvider.getApplicationContext();
+    Tasks.await(TfLiteNative.initialize(context));
+    jni = new TfLiteJni(/* loggingCallback= */ null);
+    jni.loadModel(context.getAssets(), "add.tflite");
+  }
+
+  @After
+  public void tearDown() {
+    jni.destroy();
+  }
+
+  @Test
+  public void recordsEveryInvoke() {
+    assertThat(jni.getStats()[TfLiteJni.STATS_COUNT]).isEqualTo(0);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      jni.runInference(new float[] {1.f, 3.f});
+    }
+
+    long[] stats = jni.getStats();
+    assertThat(stats[TfLiteJni.STATS_COUNT]).isEqualTo(ITERATIONS);
+    assertThat(stats[TfLiteJni.STATS_P50_NANOS]).isAtMost(stats[TfLiteJni.STATS_P90_NANOS]);
+    assertThat(stats[TfLiteJni.STATS_P90_NANOS]).isAtMost(stats[TfLiteJni.STATS_P99_NANOS]);
+    assertThat(stats[TfLiteJni.STATS_P99_NANOS]).isAtMost(stats[TfLiteJni.STATS_MAX_NANOS]);
+    assertThat(stats[TfLiteJni.STATS_MEAN_NANOS]).isAtMost(stats[TfLiteJni.STATS_MAX_NANOS]);
+
+    jni.resetStats();
+    assertThat(jni.getStats()[TfLiteJni.STATS_COUNT]).isEqualTo(0);
+  }
+
+  @Test
+  public void profilesOpsWhenSupported() {
+    if (!jni.setOpProfilingEnabled(true)) {
+      assertThat(jni.getOpStats()).isEmpty();
+      return;
+    }
+    for (int i = 0; i < ITERATIONS; i++) {
+      jni.runInference(new float[] {1.f, 3.f});
+    }
+
+    long[] opStats = jni.getOpStats();
+    String[] names = jni.getOpStatNames();
+    assertThat(opStats).isNotEmpty();
+    assertThat(opStats.length).isEqualTo(names.length * TfLiteJni.OP_STATS_STRIDE);
+    for (int i = 0; i < names.length; i++) {
+      assertThat(opStats[i * TfLiteJni.OP_STATS_STRIDE + 1]).isEqualTo(ITERATIONS);
+    }
+  }
+}
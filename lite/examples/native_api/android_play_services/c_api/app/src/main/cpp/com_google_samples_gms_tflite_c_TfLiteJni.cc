@@ -18,30 +18,69 @@ limitations under the License.
 #include <android/log.h>
 #include <jni.h>
 
+#include <chrono>  // NOLINT (build/c++11)
 #include <cstdio>
 #include <cstdlib>
 #include <cstring>
+#include <mutex>  // NOLINT (build/c++11)
+#include <vector>
 
 #include "flatbuffers/flatbuffers.h"
-#include "java_interop.h"    // NOLINT (build/include)
-#include "logging_assert.h"  // NOLINT (build/include)
+#include "java_interop.h"       // NOLINT (build/include)
+#include "latency_histogram.h"  // NOLINT (build/include)
+#include "logging_assert.h"     // NOLINT (build/include)
 #include "tensorflow/lite/abi/tflite.h"
 #include "tensorflow/lite/acceleration/configuration/c/gpu_plugin.h"
 #include "tensorflow/lite/acceleration/configuration/configuration_generated.h"
 #include "tensorflow/lite/c/c_api.h"
 
 namespace {
-AAsset* g_model_asset = nullptr;
-TfLiteInterpreter* g_interpreter = nullptr;
-TfLiteOpaqueDelegate* g_gpu_delegate = nullptr;
+
+// All the native state owned by one TfLiteJni instance. Each Java TfLiteJni
+// holds a pointer to one of these as an opaque `long` handle, so several
+// models can be live at the same time, and calls using the same handle from
+// different threads are serialized by `mutex`.
+struct TfLiteJniHandle {
+  std::mutex mutex;
+  AAsset* model_asset = nullptr;
+  TfLiteInterpreter* interpreter = nullptr;
+  TfLiteOpaqueDelegate* gpu_delegate = nullptr;
+  int num_threads = 2;
+  // Set when an input was resized and the tensors must be reallocated before
+  // the next invocation.
+  bool needs_allocation = false;
+  // Wall time of every TfLiteInterpreterInvoke on this handle.
+  util::LatencyHistogram invoke_latency;
+};
+
+// Layout of the array returned by getStats(); keep in sync with the STATS_*
+// constants in TfLiteJni.java.
+enum StatsIndex {
+  kStatsCount,
+  kStatsMeanNanos,
+  kStatsP50Nanos,
+  kStatsP90Nanos,
+  kStatsP99Nanos,
+  kStatsMaxNanos,
+  kStatsSize,
+};
+
+TfLiteJniHandle* FromJavaHandle(jlong handle) {
+  return reinterpret_cast<TfLiteJniHandle*>(handle);
+}
 
 TfLiteInterpreter* CreateInterpreterFromModel(JNIEnv* env, jobject callback,
+                                              TfLiteJniHandle* handle,
                                               TfLiteModel* model);
-TfLiteTensor* GetAndValidateInputTensor(JNIEnv* env, jobject tfliteJni,
+TfLiteTensor* GetAndValidateInputTensor(JNIEnv* env,
                                         TfLiteInterpreter* interpreter,
                                         size_t input_size);
-const TfLiteTensor* GetAndValidateOutputTensor(JNIEnv* env, jobject tfliteJni,
-                                               TfLiteInterpreter* interpreter);
+const TfLiteTensor* GetAndValidateOutputTensor(JNIEnv* env,
+                                               TfLiteInterpreter* interpreter,
+                                               size_t output_size);
+void AllocateTensorsIfNeeded(JNIEnv* env, TfLiteJniHandle* handle);
+TfLiteStatus InvokeAndRecordLatency(TfLiteJniHandle* handle);
+jobject NewTensorInfo(JNIEnv* env, const TfLiteTensor* tensor);
 
 void LogToCallback(JNIEnv* env, jobject tfliteJni, const char* messageFormat,
                    ...) {
@@ -60,10 +99,18 @@ void LogToCallback(JNIEnv* env, jobject tfliteJni, const char* messageFormat,
 
 }  // namespace
 
+extern "C" jlong Java_com_google_samples_gms_tflite_c_TfLiteJni_createHandle(
+    JNIEnv* env, jclass clazz) {
+  return reinterpret_cast<jlong>(new TfLiteJniHandle());
+}
+
 extern "C" void
 Java_com_google_samples_gms_tflite_c_TfLiteJni_initGpuAcceleration(
-    JNIEnv* env, jobject tfliteJni) {
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
   if (!GmsTfLiteCheckInitializedOrThrow(env)) return;
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
 
   flatbuffers::FlatBufferBuilder fbb;
   tflite::TFLiteSettingsBuilder builder(fbb);
@@ -73,87 +120,377 @@ Java_com_google_samples_gms_tflite_c_TfLiteJni_initGpuAcceleration(
 
   const TfLiteOpaqueDelegatePlugin* pluginCApi = TfLiteGpuDelegatePluginCApi();
   ASSERT_NE(env, pluginCApi, nullptr);
-  g_gpu_delegate = pluginCApi->create(tflite_settings);
-  ASSERT_NE(env, g_gpu_delegate, nullptr);
+  handle->gpu_delegate = pluginCApi->create(tflite_settings);
+  ASSERT_NE(env, handle->gpu_delegate, nullptr);
   LogToCallback(env, tfliteJni, "GPU acceleration initialized");
 }
 
 extern "C" void Java_com_google_samples_gms_tflite_c_TfLiteJni_loadModel(
-    JNIEnv* env, jobject tfliteJni, jobject asset_manager, jstring asset_name) {
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jobject asset_manager,
+    jstring asset_name, jint num_threads) {
   if (!GmsTfLiteCheckInitializedOrThrow(env)) return;
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_EQ(env, handle->interpreter, nullptr);
+  handle->num_threads = num_threads;
+
   // Create model.
   AAssetManager* aAssetManager = AAssetManager_fromJava(env, asset_manager);
-  g_model_asset = AAssetManager_open(
+  handle->model_asset = AAssetManager_open(
       aAssetManager, util::java::StringFromJString(env, asset_name).c_str(),
       AASSET_MODE_BUFFER);
-  TfLiteModel* model = TfLiteModelCreate(AAsset_getBuffer(g_model_asset),
-                                         AAsset_getLength(g_model_asset));
+  ASSERT_NE(env, handle->model_asset, nullptr);
+  TfLiteModel* model = TfLiteModelCreate(AAsset_getBuffer(handle->model_asset),
+                                         AAsset_getLength(handle->model_asset));
   ASSERT_NE(env, model, nullptr);
   LogToCallback(env, tfliteJni, "  Model created");
 
-  g_interpreter = CreateInterpreterFromModel(env, tfliteJni, model);
+  handle->interpreter =
+      CreateInterpreterFromModel(env, tfliteJni, handle, model);
+
+  ASSERT_EQ(env, TfLiteInterpreterAllocateTensors(handle->interpreter),
+            kTfLiteOk);
+  handle->needs_allocation = false;
+}
+
+extern "C" jint
+Java_com_google_samples_gms_tflite_c_TfLiteJni_getInputTensorCount(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  return TfLiteInterpreterGetInputTensorCount(handle->interpreter);
+}
+
+extern "C" jint
+Java_com_google_samples_gms_tflite_c_TfLiteJni_getOutputTensorCount(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  return TfLiteInterpreterGetOutputTensorCount(handle->interpreter);
+}
+
+extern "C" jobject
+Java_com_google_samples_gms_tflite_c_TfLiteJni_getInputTensorInfo(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jint index) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  return NewTensorInfo(
+      env, TfLiteInterpreterGetInputTensor(handle->interpreter, index));
+}
+
+extern "C" jobject
+Java_com_google_samples_gms_tflite_c_TfLiteJni_getOutputTensorInfo(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jint index) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  // Output shapes are only propagated from resized inputs on allocation.
+  AllocateTensorsIfNeeded(env, handle);
+  return NewTensorInfo(
+      env, TfLiteInterpreterGetOutputTensor(handle->interpreter, index));
+}
+
+extern "C" void Java_com_google_samples_gms_tflite_c_TfLiteJni_resizeInput(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jint index,
+    jintArray jshape) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+
+  std::vector<int> shape = util::java::IntVectorFromJIntArray(env, jshape);
+  const TfLiteTensor* tensor =
+      TfLiteInterpreterGetInputTensor(handle->interpreter, index);
+  ASSERT_NE(env, tensor, nullptr);
+  bool same_shape = TfLiteTensorNumDims(tensor) == shape.size();
+  for (size_t i = 0; same_shape && i < shape.size(); ++i) {
+    same_shape = TfLiteTensorDim(tensor, i) == shape[i];
+  }
+  if (same_shape) return;
 
-  ASSERT_EQ(env, TfLiteInterpreterAllocateTensors(g_interpreter), kTfLiteOk);
+  ASSERT_EQ(env,
+            TfLiteInterpreterResizeInputTensor(handle->interpreter, index,
+                                               shape.data(), shape.size()),
+            kTfLiteOk);
+  handle->needs_allocation = true;
+}
+
+extern "C" void
+Java_com_google_samples_gms_tflite_c_TfLiteJni_runInferenceOnTensors(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jobjectArray inputs,
+    jobjectArray outputs) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  QUIET_ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  QUIET_ASSERT_NE(env, handle->interpreter, nullptr);
+  AllocateTensorsIfNeeded(env, handle);
+
+  // The buffers come from the caller, so a mismatch with the model is thrown
+  // back as an IllegalArgumentException; the remaining checks only log when
+  // they fail.
+  const jsize input_count = env->GetArrayLength(inputs);
+  const jsize output_count = env->GetArrayLength(outputs);
+  const int model_input_count = static_cast<int>(
+      TfLiteInterpreterGetInputTensorCount(handle->interpreter));
+  const int model_output_count = static_cast<int>(
+      TfLiteInterpreterGetOutputTensorCount(handle->interpreter));
+  if (input_count != model_input_count || output_count != model_output_count) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Got %d inputs and %d outputs, the model has %d and %d",
+        input_count, output_count, model_input_count, model_output_count);
+    return;
+  }
+  for (jsize i = 0; i < input_count; ++i) {
+    util::java::ScopedLocalRef<jobject> buffer(
+        env->GetObjectArrayElement(inputs, i), env);
+    TfLiteTensor* tensor =
+        TfLiteInterpreterGetInputTensor(handle->interpreter, i);
+    const jlong capacity = env->GetDirectBufferCapacity(buffer.get());
+    if (capacity < 0 ||
+        static_cast<size_t>(capacity) != TfLiteTensorByteSize(tensor)) {
+      util::java::ThrowIllegalArgumentException(
+          env, "Input %d holds %lld bytes, the tensor needs %zu", i,
+          static_cast<long long>(capacity), TfLiteTensorByteSize(tensor));
+      return;
+    }
+    QUIET_ASSERT_EQ(env,
+                    TfLiteTensorCopyFromBuffer(
+                        tensor, env->GetDirectBufferAddress(buffer.get()),
+                        TfLiteTensorByteSize(tensor)),
+                    kTfLiteOk);
+  }
+
+  // Check every output before invoking, so a bad buffer doesn't waste a run.
+  for (jsize i = 0; i < output_count; ++i) {
+    util::java::ScopedLocalRef<jobject> buffer(
+        env->GetObjectArrayElement(outputs, i), env);
+    const TfLiteTensor* tensor =
+        TfLiteInterpreterGetOutputTensor(handle->interpreter, i);
+    const jlong capacity = env->GetDirectBufferCapacity(buffer.get());
+    if (capacity < 0 ||
+        static_cast<size_t>(capacity) < TfLiteTensorByteSize(tensor)) {
+      util::java::ThrowIllegalArgumentException(
+          env, "Output %d holds %lld bytes, the tensor needs %zu", i,
+          static_cast<long long>(capacity), TfLiteTensorByteSize(tensor));
+      return;
+    }
+  }
+
+  QUIET_ASSERT_EQ(env, InvokeAndRecordLatency(handle), kTfLiteOk);
+
+  for (jsize i = 0; i < output_count; ++i) {
+    util::java::ScopedLocalRef<jobject> buffer(
+        env->GetObjectArrayElement(outputs, i), env);
+    const TfLiteTensor* tensor =
+        TfLiteInterpreterGetOutputTensor(handle->interpreter, i);
+    QUIET_ASSERT_EQ(env,
+                    TfLiteTensorCopyToBuffer(
+                        tensor, env->GetDirectBufferAddress(buffer.get()),
+                        TfLiteTensorByteSize(tensor)),
+                    kTfLiteOk);
+  }
 }
 
 extern "C" jfloatArray
 Java_com_google_samples_gms_tflite_c_TfLiteJni_runInference(JNIEnv* env,
                                                             jobject tfliteJni,
+                                                            jlong jhandle,
                                                             jfloatArray input) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  QUIET_ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  QUIET_ASSERT_NE(env, handle->interpreter, nullptr);
+
   jsize input_size;
   auto cinput = util::java::FloatArrayFromJFloatArray(env, input, &input_size);
 
-  // Copy input to g_interpreter.
+  // Copy input to the interpreter.
   TfLiteTensor* input_tensor =
-      GetAndValidateInputTensor(env, tfliteJni, g_interpreter, input_size);
-  ASSERT_EQ(env,
-            TfLiteTensorCopyFromBuffer(input_tensor, cinput.get(),
-                                       input_size * sizeof(float)),
-            kTfLiteOk);
-  LogToCallback(env, tfliteJni, "  Input copied");
+      GetAndValidateInputTensor(env, handle->interpreter, input_size);
+  handle->needs_allocation = false;
+  QUIET_ASSERT_EQ(env,
+                  TfLiteTensorCopyFromBuffer(input_tensor, cinput.get(),
+                                             input_size * sizeof(float)),
+                  kTfLiteOk);
 
   // Run inference.
-  ASSERT_EQ(env, TfLiteInterpreterInvoke(g_interpreter), kTfLiteOk);
-  LogToCallback(env, tfliteJni, "  Inference executed");
+  QUIET_ASSERT_EQ(env, InvokeAndRecordLatency(handle), kTfLiteOk);
 
-  // Get output from g_interpreter.
+  // Get output from the interpreter. The add model produces one output value
+  // per input value.
   const TfLiteTensor* output_tensor =
-      GetAndValidateOutputTensor(env, tfliteJni, g_interpreter);
-  float c_array[2];
-  ASSERT_EQ(env,
-            TfLiteTensorCopyToBuffer(output_tensor, c_array, 2 * sizeof(float)),
-            kTfLiteOk);
-  LogToCallback(env, tfliteJni, "  Output values copied");
-  return util::java::JfloatArrayFromFloatArray(env, c_array, 2);
+      GetAndValidateOutputTensor(env, handle->interpreter, input_size);
+  jfloatArray output = env->NewFloatArray(input_size);
+  jfloat* coutput = env->GetFloatArrayElements(output, nullptr);
+  QUIET_ASSERT_EQ(env,
+                  TfLiteTensorCopyToBuffer(output_tensor, coutput,
+                                           input_size * sizeof(float)),
+                  kTfLiteOk);
+  env->ReleaseFloatArrayElements(output, coutput, 0);
+  return output;
+}
+
+extern "C" void
+Java_com_google_samples_gms_tflite_c_TfLiteJni_runInferenceDirect(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jobject input,
+    jobject output) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  QUIET_ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  QUIET_ASSERT_NE(env, handle->interpreter, nullptr);
+
+  // The direct buffers are owned by the caller; only their addresses are read
+  // here, so no Java objects are allocated. The checks below only log when
+  // they fail, and a buffer that doesn't fit the model is reported to the
+  // caller as an IllegalArgumentException rather than aborting.
+  void* input_data = env->GetDirectBufferAddress(input);
+  void* output_data = env->GetDirectBufferAddress(output);
+  if (input_data == nullptr || output_data == nullptr) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Input and output must be direct ByteBuffers");
+    return;
+  }
+  const size_t input_bytes = env->GetDirectBufferCapacity(input);
+  const size_t output_bytes = env->GetDirectBufferCapacity(output);
+  if (input_bytes == 0 || input_bytes % sizeof(float) != 0) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Input holds %zu bytes, not a positive number of floats",
+        input_bytes);
+    return;
+  }
+  const int input_size = static_cast<int>(input_bytes / sizeof(float));
+
+  // Only resize and reallocate when the input length actually changes.
+  TfLiteTensor* input_tensor =
+      TfLiteInterpreterGetInputTensor(handle->interpreter, 0);
+  QUIET_ASSERT_NE(env, input_tensor, nullptr);
+  if (TfLiteTensorNumDims(input_tensor) != 1 ||
+      TfLiteTensorDim(input_tensor, 0) != input_size) {
+    int input_dims[1] = {input_size};
+    QUIET_ASSERT_EQ(env,
+                    TfLiteInterpreterResizeInputTensor(handle->interpreter, 0,
+                                                       input_dims, 1),
+                    kTfLiteOk);
+    handle->needs_allocation = true;
+  }
+  AllocateTensorsIfNeeded(env, handle);
+  if (TfLiteTensorByteSize(input_tensor) != input_bytes) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Input holds %zu bytes, the input tensor needs %zu", input_bytes,
+        TfLiteTensorByteSize(input_tensor));
+    return;
+  }
+  std::memcpy(TfLiteTensorData(input_tensor), input_data, input_bytes);
+
+  QUIET_ASSERT_EQ(env, InvokeAndRecordLatency(handle), kTfLiteOk);
+
+  const TfLiteTensor* output_tensor =
+      TfLiteInterpreterGetOutputTensor(handle->interpreter, 0);
+  QUIET_ASSERT_NE(env, output_tensor, nullptr);
+  const size_t output_tensor_bytes = TfLiteTensorByteSize(output_tensor);
+  if (output_bytes < output_tensor_bytes) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Output holds %zu bytes, the output tensor needs %zu",
+        output_bytes, output_tensor_bytes);
+    return;
+  }
+  std::memcpy(output_data, TfLiteTensorData(output_tensor),
+              output_tensor_bytes);
+}
+
+extern "C" jlongArray Java_com_google_samples_gms_tflite_c_TfLiteJni_getStats(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  jlong stats[kStatsSize];
+  {
+    std::lock_guard<std::mutex> lock(handle->mutex);
+    const util::LatencyHistogram& histogram = handle->invoke_latency;
+    stats[kStatsCount] = histogram.count();
+    stats[kStatsMeanNanos] = histogram.mean();
+    stats[kStatsP50Nanos] = histogram.ValueAtPercentile(50);
+    stats[kStatsP90Nanos] = histogram.ValueAtPercentile(90);
+    stats[kStatsP99Nanos] = histogram.ValueAtPercentile(99);
+    stats[kStatsMaxNanos] = histogram.max();
+  }
+  jlongArray result = env->NewLongArray(kStatsSize);
+  env->SetLongArrayRegion(result, 0, kStatsSize, stats);
+  return result;
+}
+
+extern "C" void Java_com_google_samples_gms_tflite_c_TfLiteJni_resetStats(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  handle->invoke_latency.Reset();
+}
+
+// The TFLite C API in Play services has no hook for per-op profiling, so only
+// the whole-invoke latency is available here; see the cc_api sample instead.
+extern "C" jboolean
+Java_com_google_samples_gms_tflite_c_TfLiteJni_setOpProfilingEnabled(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jboolean enabled) {
+  return JNI_FALSE;
+}
+
+extern "C" jlongArray Java_com_google_samples_gms_tflite_c_TfLiteJni_getOpStats(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  return env->NewLongArray(0);
+}
+
+extern "C" jobjectArray
+Java_com_google_samples_gms_tflite_c_TfLiteJni_getOpStatNames(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  util::java::ScopedLocalRef<jclass> string_class(
+      env->FindClass("java/lang/String"), env);
+  return env->NewObjectArray(0, string_class.get(), nullptr);
 }
 
 extern "C" void Java_com_google_samples_gms_tflite_c_TfLiteJni_destroy(
-    JNIEnv* env, jobject tfliteJni) {
-  TfLiteInterpreterDelete(g_interpreter);
-  g_interpreter = nullptr;
-  // Some of the resources in the g_interpreter, e.g. the tensor names, are
-  // backed by the g_model_asset storage, so we should not close the
-  // g_model_asset until after we're done with the g_interpreter.
-  AAsset_close(g_model_asset);
-  g_model_asset = nullptr;
-  if (g_gpu_delegate) {
-    const auto pluginCApi = TfLiteGpuDelegatePluginCApi();
-    ASSERT_NE(env, pluginCApi, nullptr);
-    pluginCApi->destroy(g_gpu_delegate);
-    g_gpu_delegate = nullptr;
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  if (handle == nullptr) return;
+  {
+    std::lock_guard<std::mutex> lock(handle->mutex);
+    TfLiteInterpreterDelete(handle->interpreter);
+    handle->interpreter = nullptr;
+    // Some of the resources in the interpreter, e.g. the tensor names, are
+    // backed by the model_asset storage, so we should not close the
+    // model_asset until after we're done with the interpreter.
+    if (handle->model_asset) {
+      AAsset_close(handle->model_asset);
+      handle->model_asset = nullptr;
+    }
+    if (handle->gpu_delegate) {
+      const auto pluginCApi = TfLiteGpuDelegatePluginCApi();
+      ASSERT_NE(env, pluginCApi, nullptr);
+      pluginCApi->destroy(handle->gpu_delegate);
+      handle->gpu_delegate = nullptr;
+    }
   }
+  delete handle;
 }
 
 namespace {
 
 TfLiteInterpreter* CreateInterpreterFromModel(JNIEnv* env, jobject callback,
+                                              TfLiteJniHandle* handle,
                                               TfLiteModel* model) {
   // Set up options
   TfLiteInterpreterOptions* options = TfLiteInterpreterOptionsCreate();
   ASSERT_NE(env, options, nullptr);
-  TfLiteInterpreterOptionsSetNumThreads(options, 2);
-  if (g_gpu_delegate) {
-    TfLiteInterpreterOptionsAddDelegate(options, g_gpu_delegate);
+  TfLiteInterpreterOptionsSetNumThreads(options, handle->num_threads);
+  if (handle->gpu_delegate) {
+    TfLiteInterpreterOptionsAddDelegate(options, handle->gpu_delegate);
     LogToCallback(env, callback, "  GPU delegate added to options");
   }
   LogToCallback(env, callback, "  Options created");
@@ -170,58 +507,97 @@ TfLiteInterpreter* CreateInterpreterFromModel(JNIEnv* env, jobject callback,
   return interpreter;
 }
 
-TfLiteTensor* GetAndValidateInputTensor(JNIEnv* env, jobject tfliteJni,
+TfLiteTensor* GetAndValidateInputTensor(JNIEnv* env,
                                         TfLiteInterpreter* interpreter,
                                         size_t input_size) {
-  ASSERT_EQ(env, TfLiteInterpreterGetInputTensorCount(interpreter), 1);
+  QUIET_ASSERT_EQ(env, TfLiteInterpreterGetInputTensorCount(interpreter), 1);
 
   int input_dims[1] = {static_cast<int>(input_size)};
-  ASSERT_EQ(env,
-            TfLiteInterpreterResizeInputTensor(interpreter, 0, input_dims, 1),
-            kTfLiteOk);
-  ASSERT_EQ(env, TfLiteInterpreterAllocateTensors(interpreter), kTfLiteOk);
-  LogToCallback(env, tfliteJni, "  Input dims checked");
+  QUIET_ASSERT_EQ(
+      env, TfLiteInterpreterResizeInputTensor(interpreter, 0, input_dims, 1),
+      kTfLiteOk);
+  QUIET_ASSERT_EQ(env, TfLiteInterpreterAllocateTensors(interpreter),
+                  kTfLiteOk);
 
   TfLiteTensor* input_tensor = TfLiteInterpreterGetInputTensor(interpreter, 0);
-  ASSERT_NE(env, input_tensor, nullptr);
-  ASSERT_EQ(env, TfLiteTensorType(input_tensor), kTfLiteFloat32);
-  ASSERT_EQ(env, TfLiteTensorNumDims(input_tensor), 1);
-  ASSERT_EQ(env, TfLiteTensorDim(input_tensor, 0), input_size);
-  ASSERT_EQ(env, TfLiteTensorByteSize(input_tensor),
-            sizeof(float) * input_size);
-  ASSERT_NE(env, TfLiteTensorData(input_tensor), nullptr);
-  ASSERT_STREQ(env, TfLiteTensorName(input_tensor), "input");
-  LogToCallback(env, tfliteJni, "  Input tensor params checked");
+  QUIET_ASSERT_NE(env, input_tensor, nullptr);
+  QUIET_ASSERT_EQ(env, TfLiteTensorType(input_tensor), kTfLiteFloat32);
+  QUIET_ASSERT_EQ(env, TfLiteTensorNumDims(input_tensor), 1);
+  QUIET_ASSERT_EQ(env, TfLiteTensorDim(input_tensor, 0), input_size);
+  QUIET_ASSERT_EQ(env, TfLiteTensorByteSize(input_tensor),
+                  sizeof(float) * input_size);
+  QUIET_ASSERT_NE(env, TfLiteTensorData(input_tensor), nullptr);
+  QUIET_ASSERT_STREQ(env, TfLiteTensorName(input_tensor), "input");
 
   auto input_params = TfLiteTensorQuantizationParams(input_tensor);
-  ASSERT_EQ(env, input_params.scale, 0.f);
-  ASSERT_EQ(env, input_params.zero_point, 0);
-  LogToCallback(env, tfliteJni, "  Input quantization params checked");
+  QUIET_ASSERT_EQ(env, input_params.scale, 0.f);
+  QUIET_ASSERT_EQ(env, input_params.zero_point, 0);
 
   return input_tensor;
 }
 
-const TfLiteTensor* GetAndValidateOutputTensor(JNIEnv* env, jobject tfliteJni,
-                                               TfLiteInterpreter* interpreter) {
-  ASSERT_EQ(env, TfLiteInterpreterGetOutputTensorCount(interpreter), 1);
+const TfLiteTensor* GetAndValidateOutputTensor(JNIEnv* env,
+                                               TfLiteInterpreter* interpreter,
+                                               size_t output_size) {
+  QUIET_ASSERT_EQ(env, TfLiteInterpreterGetOutputTensorCount(interpreter), 1);
 
   const TfLiteTensor* output_tensor =
       TfLiteInterpreterGetOutputTensor(interpreter, 0);
-  ASSERT_NE(env, output_tensor, nullptr);
-  ASSERT_EQ(env, TfLiteTensorType(output_tensor), kTfLiteFloat32);
-  ASSERT_EQ(env, TfLiteTensorNumDims(output_tensor), 1);
-  ASSERT_EQ(env, TfLiteTensorDim(output_tensor, 0), 2);
-  ASSERT_EQ(env, TfLiteTensorByteSize(output_tensor), sizeof(float) * 2);
-  ASSERT_NE(env, TfLiteTensorData(output_tensor), nullptr);
-  ASSERT_STREQ(env, TfLiteTensorName(output_tensor), "output");
-  LogToCallback(env, tfliteJni, "  Output tensor params checked");
+  QUIET_ASSERT_NE(env, output_tensor, nullptr);
+  QUIET_ASSERT_EQ(env, TfLiteTensorType(output_tensor), kTfLiteFloat32);
+  QUIET_ASSERT_EQ(env, TfLiteTensorNumDims(output_tensor), 1);
+  QUIET_ASSERT_EQ(env, TfLiteTensorDim(output_tensor, 0), output_size);
+  QUIET_ASSERT_EQ(env, TfLiteTensorByteSize(output_tensor),
+                  sizeof(float) * output_size);
+  QUIET_ASSERT_NE(env, TfLiteTensorData(output_tensor), nullptr);
+  QUIET_ASSERT_STREQ(env, TfLiteTensorName(output_tensor), "output");
 
   auto output_params = TfLiteTensorQuantizationParams(output_tensor);
-  ASSERT_EQ(env, output_params.scale, 0.f);
-  ASSERT_EQ(env, output_params.zero_point, 0);
-  LogToCallback(env, tfliteJni, "  Output quantization params checked");
+  QUIET_ASSERT_EQ(env, output_params.scale, 0.f);
+  QUIET_ASSERT_EQ(env, output_params.zero_point, 0);
 
   return output_tensor;
 }
 
+void AllocateTensorsIfNeeded(JNIEnv* env, TfLiteJniHandle* handle) {
+  if (!handle->needs_allocation) return;
+  ASSERT_EQ(env, TfLiteInterpreterAllocateTensors(handle->interpreter),
+            kTfLiteOk);
+  handle->needs_allocation = false;
+}
+
+TfLiteStatus InvokeAndRecordLatency(TfLiteJniHandle* handle) {
+  const auto start = std::chrono::steady_clock::now();
+  TfLiteStatus status = TfLiteInterpreterInvoke(handle->interpreter);
+  handle->invoke_latency.Record(
+      std::chrono::duration_cast<std::chrono::nanoseconds>(
+          std::chrono::steady_clock::now() - start)
+          .count());
+  return status;
+}
+
+jobject NewTensorInfo(JNIEnv* env, const TfLiteTensor* tensor) {
+  ASSERT_NE(env, tensor, nullptr);
+  util::java::ScopedLocalRef<jclass> clazz(
+      env->FindClass("com/google/samples/gms/tflite/c/TfLiteJni$TensorInfo"),
+      env);
+  ASSERT_NE(env, clazz, nullptr);
+  jmethodID constructor = env->GetMethodID(clazz.get(), "<init>",
+                                           "(Ljava/lang/String;I[IFIJ)V");
+  ASSERT_NE(env, constructor, nullptr);
+
+  std::vector<jint> shape(TfLiteTensorNumDims(tensor));
+  for (size_t i = 0; i < shape.size(); ++i) {
+    shape[i] = TfLiteTensorDim(tensor, i);
+  }
+  auto name = util::java::NewStringUTF(env, TfLiteTensorName(tensor));
+  util::java::ScopedLocalRef<jintArray> jshape(
+      util::java::JintArrayFromIntArray(env, shape.data(), shape.size()), env);
+  TfLiteQuantizationParams params = TfLiteTensorQuantizationParams(tensor);
+  return env->NewObject(clazz.get(), constructor, name.get(),
+                        static_cast<jint>(TfLiteTensorType(tensor)),
+                        jshape.get(), params.scale, params.zero_point,
+                        static_cast<jlong>(TfLiteTensorByteSize(tensor)));
+}
+
 }  // namespace
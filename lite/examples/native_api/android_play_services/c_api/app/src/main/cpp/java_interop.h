@@ -18,7 +18,10 @@ limitations under the License.
 
 #include <jni.h>
 
+#include <cstdarg>
+#include <cstdio>
 #include <string>
+#include <vector>
 
 #include "logging_assert.h"  // NOLINT (build/include)
 
@@ -90,6 +93,33 @@ jfloatArray JfloatArrayFromFloatArray(JNIEnv* env, jfloat* array, jsize size) {
   return result;
 }
 
+std::vector<int> IntVectorFromJIntArray(JNIEnv* env, jintArray array) {
+  jsize length = env->GetArrayLength(array);
+  std::vector<int> result(length);
+  env->GetIntArrayRegion(array, 0, length,
+                         reinterpret_cast<jint*>(result.data()));
+  return result;
+}
+
+jintArray JintArrayFromIntArray(JNIEnv* env, const jint* array, jsize size) {
+  jintArray result = env->NewIntArray(size);
+  env->SetIntArrayRegion(result, 0, size, array);
+  return result;
+}
+
+// Throws an IllegalArgumentException with a printf style message. The caller
+// must return to Java right after, without further JNI calls.
+void ThrowIllegalArgumentException(JNIEnv* env, const char* format, ...) {
+  char message[512];
+  va_list args;
+  va_start(args, format);
+  vsnprintf(message, sizeof(message), format, args);
+  va_end(args);
+  ScopedLocalRef<jclass> clazz(
+      env->FindClass("java/lang/IllegalArgumentException"), env);
+  env->ThrowNew(clazz.get(), message);
+}
+
 }  // namespace java
 }  // namespace util
 #endif  // JAVA_INTEROP_H_
@@ -1,5 +1,6 @@
 -keepclasseswithmembers class com.google.samples.gms.tflite.cc.MainActivity { *; }
 -keepclasseswithmembers class com.google.samples.gms.tflite.cc.TfLiteJni { *; }
+-keepclasseswithmembers class com.google.samples.gms.tflite.cc.TfLiteJni$TensorInfo { *; }
 -keepclasseswithmembers class android.support.** { *; }
 -keepclasseswithmembers class androidx.** { *; }
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 The TensorFlow Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.gms.tflite.cc.instrumentation;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.gms.tflite.java.TfLiteNative;
+import com.google.samples.gms.tflite.cc.TfLiteJni;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests tensor introspection and input resizing through {@link TfLiteJni}. */
+@RunWith(AndroidJUnit4.class)
+public class DynamicShapeTest {
+  private static final int TFLITE_FLOAT32 = 1;
+
+  private TfLiteJni jni;
+
+  @Before
+  public void setUp() throws Exception {
+    Context context = ApplicationProvider.getApplicationContext();
+    Tasks.await(TfLiteNative.initialize(context));
+    jni = new TfLiteJni(/* loggingCallback= */ null);
+    jni.loadModel(context.getAssets(), "add.tflite", /* numThreads= */ 1);
+  }
+
+  @After
+  public void tearDown() {
+    jni.destroy();
+  }
+
+  @Test
+  public void introspectsTensors() {
+    assertThat(jni.getInputTensorCount()).isEqualTo(1);
+    assertThat(jni.getOutputTensorCount()).isEqualTo(1);
+
+    TfLiteJni.TensorInfo input = jni.getInputTensorInfo(0);
+    assertThat(input.name).isEqualTo("input");
+    assertThat(input.type).isEqualTo(TFLITE_FLOAT32);
+    assertThat(input.scale).isEqualTo(0.f);
+    assertThat(input.zeroPoint).isEqualTo(0);
+    assertThat(jni.getOutputTensorInfo(0).name).isEqualTo("output");
+
+    assertThrows(IllegalArgumentException.class, () -> jni.getInputTensorInfo(1));
+  }
+
+  @Test
+  public void resizedInputPropagatesToOutput() {
+    for (int length : new int[] {4, 4, 2}) {
+      jni.resizeInput(0, new int[] {length});
+      TfLiteJni.TensorInfo output = jni.getOutputTensorInfo(0);
+      assertThat(output.shape).isEqualTo(new int[] {length});
+      assertThat(output.byteSize).isEqualTo(length * 4L);
+
+      ByteBuffer input = ByteBuffer.allocateDirect(length * 4).order(ByteOrder.nativeOrder());
+      ByteBuffer result = ByteBuffer.allocateDirect(length * 4).order(ByteOrder.nativeOrder());
+      for (int i = 0; i < length; i++) {
+        input.putFloat(i * 4, i + 1);
+      }
+      jni.runInference(new ByteBuffer[] {input}, new ByteBuffer[] {result});
+
+      FloatBuffer values = result.asFloatBuffer();
+      for (int i = 0; i < length; i++) {
+        assertThat(values.get(i)).isEqualTo(3.f * (i + 1));
+      }
+    }
+  }
+}
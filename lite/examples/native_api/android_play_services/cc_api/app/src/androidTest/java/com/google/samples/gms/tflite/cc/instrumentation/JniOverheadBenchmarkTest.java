@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 The TensorFlow Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.gms.tflite.cc.instrumentation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.gms.tflite.java.TfLiteNative;
+import com.google.samples.gms.tflite.cc.TfLiteJni;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the per-invocation cost of {@link TfLiteJni#runInference(float[])} with the direct
+ * {@link ByteBuffer} overload at 8 floats, 150k floats and 4 MB tensors.
+ *
+ * <p>Both paths only log a native check when it fails, so the difference is the cost of copying
+ * through Java arrays rather than of logging.
+ */
+@RunWith(AndroidJUnit4.class)
+public class JniOverheadBenchmarkTest {
+  private static final String TAG = "JniOverheadBenchmark";
+  private static final int[] TENSOR_SIZES = {8, 150_000, 1024 * 1024};
+  private static final int WARMUP_RUNS = 5;
+
+  private TfLiteJni jni;
+
+  @Before
+  public void setUp() throws ExecutionException, InterruptedException {
+    Context context = ApplicationProvider.getApplicationContext();
+    Tasks.await(TfLiteNative.initialize(context));
+    jni = new TfLiteJni(/* loggingCallback= */ null);
+    jni.loadModel(context.getAssets(), "add.tflite");
+  }
+
+  @After
+  public void tearDown() {
+    jni.destroy();
+  }
+
+  @Test
+  public void directBuffersMatchArrayPath() {
+    float[] input = new float[] {1.f, 3.f};
+    ByteBuffer inputBuffer = allocateFloats(input.length);
+    ByteBuffer outputBuffer = allocateFloats(input.length);
+    inputBuffer.asFloatBuffer().put(input);
+
+    jni.runInference(inputBuffer, outputBuffer);
+
+    float[] output = new float[input.length];
+    outputBuffer.asFloatBuffer().get(output);
+    assertThat(output).isEqualTo(jni.runInference(input));
+  }
+
+  @Test
+  public void benchmarkJniOverhead() {
+    for (int size : TENSOR_SIZES) {
+      int runs = Math.max(10, 2_000_000 / size);
+      float[] input = new float[size];
+      Arrays.fill(input, 1.f);
+      ByteBuffer inputBuffer = allocateFloats(size);
+      ByteBuffer outputBuffer = allocateFloats(size);
+      FloatBuffer inputFloats = inputBuffer.asFloatBuffer();
+      inputFloats.put(input);
+
+      long[] arrayNs = new long[runs];
+      long[] directNs = new long[runs];
+      for (int i = 0; i < WARMUP_RUNS; i++) {
+        jni.runInference(input);
+        jni.runInference(inputBuffer, outputBuffer);
+      }
+      for (int i = 0; i < runs; i++) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        jni.runInference(input);
+        arrayNs[i] = SystemClock.elapsedRealtimeNanos() - start;
+      }
+      for (int i = 0; i < runs; i++) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        jni.runInference(inputBuffer, outputBuffer);
+        directNs[i] = SystemClock.elapsedRealtimeNanos() - start;
+      }
+      Log.i(
+          TAG,
+          String.format(
+              "%d floats (%d runs): float[] median %.1f us, direct ByteBuffer median %.1f us",
+              size, runs, median(arrayNs) / 1e3, median(directNs) / 1e3));
+      assertThat(outputBuffer.asFloatBuffer().get(size - 1)).isEqualTo(3.f);
+    }
+  }
+
+  private static ByteBuffer allocateFloats(int count) {
+    return ByteBuffer.allocateDirect(count * Float.BYTES).order(ByteOrder.nativeOrder());
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+}
@@ -18,39 +18,140 @@ limitations under the License.
 #include <android/log.h>
 #include <jni.h>
 
+#include <chrono>  // NOLINT (build/c++11)
 #include <cstdio>
 #include <cstdlib>
 #include <cstring>
 #include <functional>
+#include <mutex>  // NOLINT (build/c++11)
+#include <string>
+#include <vector>
 
 #include "flatbuffers/flatbuffers.h"
-#include "java_interop.h"    // NOLINT (build/include)
-#include "logging_assert.h"  // NOLINT (build/include)
+#include "java_interop.h"       // NOLINT (build/include)
+#include "latency_histogram.h"  // NOLINT (build/include)
+#include "logging_assert.h"     // NOLINT (build/include)
 #include "tensorflow/lite/abi/tflite.h"
 #include "tensorflow/lite/acceleration/configuration/c/gpu_plugin.h"
 #include "tensorflow/lite/acceleration/configuration/configuration_generated.h"
 #include "tensorflow/lite/c/c_api.h"        // For TfLiteTensorCopyToBuffer.
 #include "tensorflow/lite/c/c_api_types.h"  // For TfLiteOpaqueDelegate.
+#include "tensorflow/lite/core/api/profiler.h"
 #include "tensorflow/lite/interpreter.h"
 #include "tensorflow/lite/interpreter_builder.h"
 #include "tensorflow/lite/model_builder.h"
 
 namespace {
-AAsset* g_model_asset = nullptr;
-std::unique_ptr<tflite::Interpreter> g_interpreter = nullptr;
 using OpaqueDelegateDeleter = std::function<void(TfLiteOpaqueDelegate*)>;
 using OpaqueDelegatePtr =
     std::unique_ptr<TfLiteOpaqueDelegate, OpaqueDelegateDeleter>;
-OpaqueDelegatePtr g_gpu_delegate = nullptr;
+
+// Accumulates the time spent in each node of the primary subgraph. Installed
+// on the interpreter only while op profiling is enabled, since every op then
+// pays for two clock reads.
+class OpProfiler : public tflite::Profiler {
+ public:
+  struct OpStat {
+    std::string name;
+    int64_t count = 0;
+    int64_t total_nanos = 0;
+  };
+
+  uint32_t BeginEvent(const char* tag, EventType event_type,
+                      int64_t event_metadata1,
+                      int64_t event_metadata2) override {
+    if (event_type != EventType::OPERATOR_INVOKE_EVENT &&
+        event_type != EventType::DELEGATE_OPERATOR_INVOKE_EVENT) {
+      return 0;
+    }
+    // For operator events, metadata1 is the node index and metadata2 the
+    // subgraph index.
+    if (event_metadata2 != 0 || event_metadata1 < 0) return 0;
+    open_events_.push_back({static_cast<int>(event_metadata1), tag,
+                            std::chrono::steady_clock::now()});
+    return open_events_.size();
+  }
+
+  void EndEvent(uint32_t event_handle) override {
+    if (event_handle == 0 || event_handle != open_events_.size()) return;
+    const OpenEvent& event = open_events_.back();
+    if (static_cast<size_t>(event.node_index) >= stats_.size()) {
+      stats_.resize(event.node_index + 1);
+    }
+    OpStat& stat = stats_[event.node_index];
+    if (stat.name.empty() && event.tag != nullptr) stat.name = event.tag;
+    ++stat.count;
+    stat.total_nanos += std::chrono::duration_cast<std::chrono::nanoseconds>(
+                            std::chrono::steady_clock::now() - event.start)
+                            .count();
+    open_events_.pop_back();
+  }
+
+  // Indexed by node; nodes that were never run have a zero count.
+  const std::vector<OpStat>& stats() const { return stats_; }
+
+  void Reset() { stats_.clear(); }
+
+ private:
+  struct OpenEvent {
+    int node_index;
+    const char* tag;
+    std::chrono::steady_clock::time_point start;
+  };
+
+  std::vector<OpenEvent> open_events_;
+  std::vector<OpStat> stats_;
+};
+
+// All the native state owned by one TfLiteJni instance. Each Java TfLiteJni
+// holds a pointer to one of these as an opaque `long` handle, so several
+// models can be live at the same time, and calls using the same handle from
+// different threads are serialized by `mutex`.
+struct TfLiteJniHandle {
+  std::mutex mutex;
+  AAsset* model_asset = nullptr;
+  std::unique_ptr<tflite::Interpreter> interpreter = nullptr;
+  OpaqueDelegatePtr gpu_delegate = nullptr;
+  int num_threads = 2;
+  // Set when an input was resized and the tensors must be reallocated before
+  // the next invocation.
+  bool needs_allocation = false;
+  // Wall time of every Interpreter::Invoke on this handle.
+  util::LatencyHistogram invoke_latency;
+  // Whether op_profiler is installed on the interpreter.
+  bool op_profiling_enabled = false;
+  // Created the first time op profiling is enabled, and kept when it is
+  // disabled so the collected stats can still be read until resetStats().
+  std::unique_ptr<OpProfiler> op_profiler;
+};
+
+// Layout of the array returned by getStats(); keep in sync with the STATS_*
+// constants in TfLiteJni.java.
+enum StatsIndex {
+  kStatsCount,
+  kStatsMeanNanos,
+  kStatsP50Nanos,
+  kStatsP90Nanos,
+  kStatsP99Nanos,
+  kStatsMaxNanos,
+  kStatsSize,
+};
+
+TfLiteJniHandle* FromJavaHandle(jlong handle) {
+  return reinterpret_cast<TfLiteJniHandle*>(handle);
+}
 
 std::unique_ptr<tflite::Interpreter> CreateInterpreterFromModel(
-    JNIEnv* env, jobject callback,
+    JNIEnv* env, jobject callback, TfLiteJniHandle* handle,
     std::unique_ptr<tflite::FlatBufferModel> model);
-TfLiteTensor* GetAndValidateInputTensor(JNIEnv* env, jobject tfliteJni,
+TfLiteTensor* GetAndValidateInputTensor(JNIEnv* env,
                                         tflite::Interpreter* interpreter,
                                         size_t input_size);
 const TfLiteTensor* GetAndValidateOutputTensor(
-    JNIEnv* env, jobject tfliteJni, tflite::Interpreter* interpreter);
+    JNIEnv* env, tflite::Interpreter* interpreter, size_t output_size);
+void AllocateTensorsIfNeeded(JNIEnv* env, TfLiteJniHandle* handle);
+TfLiteStatus InvokeAndRecordLatency(TfLiteJniHandle* handle);
+jobject NewTensorInfo(JNIEnv* env, const TfLiteTensor* tensor);
 
 void LogToCallback(JNIEnv* env, jobject tfliteJni, const char* messageFormat,
                    ...) {
@@ -69,10 +170,18 @@ void LogToCallback(JNIEnv* env, jobject tfliteJni, const char* messageFormat,
 
 }  // namespace
 
+extern "C" jlong Java_com_google_samples_gms_tflite_cc_TfLiteJni_createHandle(
+    JNIEnv* env, jclass clazz) {
+  return reinterpret_cast<jlong>(new TfLiteJniHandle());
+}
+
 extern "C" void
 Java_com_google_samples_gms_tflite_cc_TfLiteJni_initGpuAcceleration(
-    JNIEnv* env, jobject tfliteJni) {
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
   if (!GmsTfLiteCheckInitializedOrThrow(env)) return;
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
 
   flatbuffers::FlatBufferBuilder fbb;
   tflite::TFLiteSettingsBuilder builder(fbb);
@@ -85,83 +194,412 @@ Java_com_google_samples_gms_tflite_cc_TfLiteJni_initGpuAcceleration(
   // when support for that is added to LiteRT in Play services.
   const TfLiteOpaqueDelegatePlugin* pluginCApi = TfLiteGpuDelegatePluginCApi();
   ASSERT_NE(env, pluginCApi, nullptr);
-  g_gpu_delegate = std::move(OpaqueDelegatePtr{
+  handle->gpu_delegate = std::move(OpaqueDelegatePtr{
       pluginCApi->create(tflite_settings),
       [=](TfLiteOpaqueDelegate* delegate) { pluginCApi->destroy(delegate); }});
-  ASSERT_NE(env, g_gpu_delegate, nullptr);
+  ASSERT_NE(env, handle->gpu_delegate, nullptr);
   LogToCallback(env, tfliteJni, "GPU acceleration initialized");
 }
 
 extern "C" void Java_com_google_samples_gms_tflite_cc_TfLiteJni_loadModel(
-    JNIEnv* env, jobject tfliteJni, jobject asset_manager, jstring asset_name) {
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jobject asset_manager,
+    jstring asset_name, jint num_threads) {
   if (!GmsTfLiteCheckInitializedOrThrow(env)) return;
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_EQ(env, handle->interpreter, nullptr);
+  handle->num_threads = num_threads;
+
   // Create model.
   AAssetManager* aAssetManager = AAssetManager_fromJava(env, asset_manager);
-  g_model_asset = AAssetManager_open(
+  handle->model_asset = AAssetManager_open(
       aAssetManager, util::java::StringFromJString(env, asset_name).c_str(),
       AASSET_MODE_BUFFER);
+  ASSERT_NE(env, handle->model_asset, nullptr);
   std::unique_ptr<tflite::FlatBufferModel> model =
       tflite::FlatBufferModel::VerifyAndBuildFromBuffer(
-          static_cast<const char*>(AAsset_getBuffer(g_model_asset)),
-          AAsset_getLength(g_model_asset));
+          static_cast<const char*>(AAsset_getBuffer(handle->model_asset)),
+          AAsset_getLength(handle->model_asset));
   ASSERT_NE(env, model, nullptr);
   LogToCallback(env, tfliteJni, "  Model created");
 
-  g_interpreter = CreateInterpreterFromModel(env, tfliteJni, std::move(model));
+  handle->interpreter =
+      CreateInterpreterFromModel(env, tfliteJni, handle, std::move(model));
 
-  ASSERT_EQ(env, g_interpreter->AllocateTensors(), kTfLiteOk);
+  ASSERT_EQ(env, handle->interpreter->AllocateTensors(), kTfLiteOk);
+  handle->needs_allocation = false;
+  if (handle->op_profiling_enabled) {
+    handle->interpreter->SetProfiler(handle->op_profiler.get());
+  }
+}
+
+extern "C" jint
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_getInputTensorCount(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  return handle->interpreter->inputs().size();
+}
+
+extern "C" jint
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_getOutputTensorCount(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  return handle->interpreter->outputs().size();
+}
+
+extern "C" jobject
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_getInputTensorInfo(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jint index) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  return NewTensorInfo(env, handle->interpreter->input_tensor(index));
+}
+
+extern "C" jobject
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_getOutputTensorInfo(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jint index) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  // Output shapes are only propagated from resized inputs on allocation.
+  AllocateTensorsIfNeeded(env, handle);
+  return NewTensorInfo(env, handle->interpreter->output_tensor(index));
+}
+
+extern "C" void Java_com_google_samples_gms_tflite_cc_TfLiteJni_resizeInput(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jint index,
+    jintArray jshape) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  ASSERT_NE(env, handle->interpreter, nullptr);
+  tflite::Interpreter* interpreter = handle->interpreter.get();
+
+  std::vector<int> shape = util::java::IntVectorFromJIntArray(env, jshape);
+  const TfLiteTensor* tensor = interpreter->input_tensor(index);
+  ASSERT_NE(env, tensor, nullptr);
+  bool same_shape = TfLiteTensorNumDims(tensor) == shape.size();
+  for (size_t i = 0; same_shape && i < shape.size(); ++i) {
+    same_shape = TfLiteTensorDim(tensor, i) == shape[i];
+  }
+  if (same_shape) return;
+
+  ASSERT_EQ(env,
+            interpreter->ResizeInputTensor(interpreter->inputs()[index], shape),
+            kTfLiteOk);
+  handle->needs_allocation = true;
+}
+
+extern "C" void
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_runInferenceOnTensors(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jobjectArray inputs,
+    jobjectArray outputs) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  QUIET_ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  QUIET_ASSERT_NE(env, handle->interpreter, nullptr);
+  tflite::Interpreter* interpreter = handle->interpreter.get();
+  AllocateTensorsIfNeeded(env, handle);
+
+  // The buffers come from the caller, so a mismatch with the model is thrown
+  // back as an IllegalArgumentException; the remaining checks only log when
+  // they fail.
+  const jsize input_count = env->GetArrayLength(inputs);
+  const jsize output_count = env->GetArrayLength(outputs);
+  const int model_input_count = static_cast<int>(
+      interpreter->inputs().size());
+  const int model_output_count = static_cast<int>(
+      interpreter->outputs().size());
+  if (input_count != model_input_count || output_count != model_output_count) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Got %d inputs and %d outputs, the model has %d and %d",
+        input_count, output_count, model_input_count, model_output_count);
+    return;
+  }
+  for (jsize i = 0; i < input_count; ++i) {
+    util::java::ScopedLocalRef<jobject> buffer(
+        env->GetObjectArrayElement(inputs, i), env);
+    TfLiteTensor* tensor = interpreter->input_tensor(i);
+    const jlong capacity = env->GetDirectBufferCapacity(buffer.get());
+    if (capacity < 0 ||
+        static_cast<size_t>(capacity) != TfLiteTensorByteSize(tensor)) {
+      util::java::ThrowIllegalArgumentException(
+          env, "Input %d holds %lld bytes, the tensor needs %zu", i,
+          static_cast<long long>(capacity), TfLiteTensorByteSize(tensor));
+      return;
+    }
+    QUIET_ASSERT_EQ(env,
+                    TfLiteTensorCopyFromBuffer(
+                        tensor, env->GetDirectBufferAddress(buffer.get()),
+                        TfLiteTensorByteSize(tensor)),
+                    kTfLiteOk);
+  }
+
+  // Check every output before invoking, so a bad buffer doesn't waste a run.
+  for (jsize i = 0; i < output_count; ++i) {
+    util::java::ScopedLocalRef<jobject> buffer(
+        env->GetObjectArrayElement(outputs, i), env);
+    const TfLiteTensor* tensor = interpreter->output_tensor(i);
+    const jlong capacity = env->GetDirectBufferCapacity(buffer.get());
+    if (capacity < 0 ||
+        static_cast<size_t>(capacity) < TfLiteTensorByteSize(tensor)) {
+      util::java::ThrowIllegalArgumentException(
+          env, "Output %d holds %lld bytes, the tensor needs %zu", i,
+          static_cast<long long>(capacity), TfLiteTensorByteSize(tensor));
+      return;
+    }
+  }
+
+  QUIET_ASSERT_EQ(env, InvokeAndRecordLatency(handle), kTfLiteOk);
+
+  for (jsize i = 0; i < output_count; ++i) {
+    util::java::ScopedLocalRef<jobject> buffer(
+        env->GetObjectArrayElement(outputs, i), env);
+    const TfLiteTensor* tensor = interpreter->output_tensor(i);
+    QUIET_ASSERT_EQ(env,
+                    TfLiteTensorCopyToBuffer(
+                        tensor, env->GetDirectBufferAddress(buffer.get()),
+                        TfLiteTensorByteSize(tensor)),
+                    kTfLiteOk);
+  }
 }
 
 extern "C" jfloatArray
 Java_com_google_samples_gms_tflite_cc_TfLiteJni_runInference(
-    JNIEnv* env, jobject tfliteJni, jfloatArray input) {
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jfloatArray input) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  QUIET_ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  QUIET_ASSERT_NE(env, handle->interpreter, nullptr);
+
   jsize input_size;
   auto cinput = util::java::FloatArrayFromJFloatArray(env, input, &input_size);
 
-  // Copy input to g_interpreter.
-  TfLiteTensor* input_tensor = GetAndValidateInputTensor(
-      env, tfliteJni, g_interpreter.get(), input_size);
-  ASSERT_EQ(env,
-            TfLiteTensorCopyFromBuffer(input_tensor, cinput.get(),
-                                       input_size * sizeof(float)),
-            kTfLiteOk);
-  LogToCallback(env, tfliteJni, "  Input copied");
+  // Copy input to the interpreter.
+  TfLiteTensor* input_tensor =
+      GetAndValidateInputTensor(env, handle->interpreter.get(), input_size);
+  handle->needs_allocation = false;
+  QUIET_ASSERT_EQ(env,
+                  TfLiteTensorCopyFromBuffer(input_tensor, cinput.get(),
+                                             input_size * sizeof(float)),
+                  kTfLiteOk);
 
   // Run inference.
-  ASSERT_EQ(env, g_interpreter->Invoke(), kTfLiteOk);
-  LogToCallback(env, tfliteJni, "  Inference executed");
+  QUIET_ASSERT_EQ(env, InvokeAndRecordLatency(handle), kTfLiteOk);
 
-  // Get output from g_interpreter.
+  // Get output from the interpreter. The add model produces one output value
+  // per input value.
   const TfLiteTensor* output_tensor =
-      GetAndValidateOutputTensor(env, tfliteJni, g_interpreter.get());
-  float c_array[2];
-  ASSERT_EQ(env,
-            TfLiteTensorCopyToBuffer(output_tensor, c_array, 2 * sizeof(float)),
-            kTfLiteOk);
-  LogToCallback(env, tfliteJni, "  Output values copied");
-  return util::java::JfloatArrayFromFloatArray(env, c_array, 2);
+      GetAndValidateOutputTensor(env, handle->interpreter.get(), input_size);
+  jfloatArray output = env->NewFloatArray(input_size);
+  jfloat* coutput = env->GetFloatArrayElements(output, nullptr);
+  QUIET_ASSERT_EQ(env,
+                  TfLiteTensorCopyToBuffer(output_tensor, coutput,
+                                           input_size * sizeof(float)),
+                  kTfLiteOk);
+  env->ReleaseFloatArrayElements(output, coutput, 0);
+  return output;
+}
+
+extern "C" void
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_runInferenceDirect(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jobject input,
+    jobject output) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  QUIET_ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  QUIET_ASSERT_NE(env, handle->interpreter, nullptr);
+  tflite::Interpreter* interpreter = handle->interpreter.get();
+
+  // The direct buffers are owned by the caller; only their addresses are read
+  // here, so no Java objects are allocated. The checks below only log when
+  // they fail, and a buffer that doesn't fit the model is reported to the
+  // caller as an IllegalArgumentException rather than aborting.
+  void* input_data = env->GetDirectBufferAddress(input);
+  void* output_data = env->GetDirectBufferAddress(output);
+  if (input_data == nullptr || output_data == nullptr) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Input and output must be direct ByteBuffers");
+    return;
+  }
+  const size_t input_bytes = env->GetDirectBufferCapacity(input);
+  const size_t output_bytes = env->GetDirectBufferCapacity(output);
+  if (input_bytes == 0 || input_bytes % sizeof(float) != 0) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Input holds %zu bytes, not a positive number of floats",
+        input_bytes);
+    return;
+  }
+  const int input_size = static_cast<int>(input_bytes / sizeof(float));
+
+  // Only resize and reallocate when the input length actually changes.
+  TfLiteTensor* input_tensor = interpreter->input_tensor(0);
+  QUIET_ASSERT_NE(env, input_tensor, nullptr);
+  if (TfLiteTensorNumDims(input_tensor) != 1 ||
+      TfLiteTensorDim(input_tensor, 0) != input_size) {
+    QUIET_ASSERT_EQ(env,
+                    interpreter->ResizeInputTensor(interpreter->inputs()[0],
+                                                   {input_size}),
+                    kTfLiteOk);
+    handle->needs_allocation = true;
+  }
+  AllocateTensorsIfNeeded(env, handle);
+  if (TfLiteTensorByteSize(input_tensor) != input_bytes) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Input holds %zu bytes, the input tensor needs %zu", input_bytes,
+        TfLiteTensorByteSize(input_tensor));
+    return;
+  }
+  std::memcpy(TfLiteTensorData(input_tensor), input_data, input_bytes);
+
+  QUIET_ASSERT_EQ(env, InvokeAndRecordLatency(handle), kTfLiteOk);
+
+  const TfLiteTensor* output_tensor = interpreter->output_tensor(0);
+  QUIET_ASSERT_NE(env, output_tensor, nullptr);
+  const size_t output_tensor_bytes = TfLiteTensorByteSize(output_tensor);
+  if (output_bytes < output_tensor_bytes) {
+    util::java::ThrowIllegalArgumentException(
+        env, "Output holds %zu bytes, the output tensor needs %zu",
+        output_bytes, output_tensor_bytes);
+    return;
+  }
+  std::memcpy(output_data, TfLiteTensorData(output_tensor),
+              output_tensor_bytes);
+}
+
+extern "C" jlongArray Java_com_google_samples_gms_tflite_cc_TfLiteJni_getStats(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  jlong stats[kStatsSize];
+  {
+    std::lock_guard<std::mutex> lock(handle->mutex);
+    const util::LatencyHistogram& histogram = handle->invoke_latency;
+    stats[kStatsCount] = histogram.count();
+    stats[kStatsMeanNanos] = histogram.mean();
+    stats[kStatsP50Nanos] = histogram.ValueAtPercentile(50);
+    stats[kStatsP90Nanos] = histogram.ValueAtPercentile(90);
+    stats[kStatsP99Nanos] = histogram.ValueAtPercentile(99);
+    stats[kStatsMaxNanos] = histogram.max();
+  }
+  jlongArray result = env->NewLongArray(kStatsSize);
+  env->SetLongArrayRegion(result, 0, kStatsSize, stats);
+  return result;
+}
+
+extern "C" void Java_com_google_samples_gms_tflite_cc_TfLiteJni_resetStats(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  handle->invoke_latency.Reset();
+  if (handle->op_profiler) handle->op_profiler->Reset();
+}
+
+extern "C" jboolean
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_setOpProfilingEnabled(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle, jboolean enabled) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::lock_guard<std::mutex> lock(handle->mutex);
+  if (enabled && !handle->op_profiler) {
+    handle->op_profiler = std::make_unique<OpProfiler>();
+  }
+  handle->op_profiling_enabled = enabled;
+  if (handle->interpreter) {
+    handle->interpreter->SetProfiler(enabled ? handle->op_profiler.get()
+                                             : nullptr);
+  }
+  return JNI_TRUE;
+}
+
+// Returns (node index, invocations, total nanoseconds) triples, one for each
+// node that ran while op profiling was enabled.
+extern "C" jlongArray
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_getOpStats(JNIEnv* env,
+                                                           jobject tfliteJni,
+                                                           jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::vector<jlong> values;
+  {
+    std::lock_guard<std::mutex> lock(handle->mutex);
+    if (handle->op_profiler) {
+      const auto& stats = handle->op_profiler->stats();
+      for (size_t node = 0; node < stats.size(); ++node) {
+        if (stats[node].count == 0) continue;
+        values.push_back(node);
+        values.push_back(stats[node].count);
+        values.push_back(stats[node].total_nanos);
+      }
+    }
+  }
+  jlongArray result = env->NewLongArray(values.size());
+  env->SetLongArrayRegion(result, 0, values.size(), values.data());
+  return result;
+}
+
+// Returns the op names matching the triples returned by getOpStats().
+extern "C" jobjectArray
+Java_com_google_samples_gms_tflite_cc_TfLiteJni_getOpStatNames(
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  ASSERT_NE(env, handle, nullptr);
+  std::vector<std::string> names;
+  {
+    std::lock_guard<std::mutex> lock(handle->mutex);
+    if (handle->op_profiler) {
+      for (const auto& stat : handle->op_profiler->stats()) {
+        if (stat.count != 0) names.push_back(stat.name);
+      }
+    }
+  }
+  util::java::ScopedLocalRef<jclass> string_class(
+      env->FindClass("java/lang/String"), env);
+  jobjectArray result =
+      env->NewObjectArray(names.size(), string_class.get(), nullptr);
+  for (size_t i = 0; i < names.size(); ++i) {
+    auto name = util::java::NewStringUTF(env, names[i].c_str());
+    env->SetObjectArrayElement(result, i, name.get());
+  }
+  return result;
 }
 
 extern "C" void Java_com_google_samples_gms_tflite_cc_TfLiteJni_destroy(
-    JNIEnv* env, jobject tfliteJni) {
-  g_interpreter = nullptr;
-  // Some of the resources in the g_interpreter, e.g. the tensor names, are
-  // backed by the g_model_asset storage, so we should not close the
-  // g_model_asset until after we're done with the g_interpreter.
-  AAsset_close(g_model_asset);
-  g_model_asset = nullptr;
-  if (g_gpu_delegate) {
-    const auto pluginCApi = TfLiteGpuDelegatePluginCApi();
-    ASSERT_NE(env, pluginCApi, nullptr);
-    pluginCApi->destroy(g_gpu_delegate.release());
-    g_gpu_delegate = nullptr;
+    JNIEnv* env, jobject tfliteJni, jlong jhandle) {
+  TfLiteJniHandle* handle = FromJavaHandle(jhandle);
+  if (handle == nullptr) return;
+  {
+    std::lock_guard<std::mutex> lock(handle->mutex);
+    handle->interpreter = nullptr;
+    handle->op_profiler = nullptr;
+    // Some of the resources in the interpreter, e.g. the tensor names, are
+    // backed by the model_asset storage, so we should not close the
+    // model_asset until after we're done with the interpreter.
+    if (handle->model_asset) {
+      AAsset_close(handle->model_asset);
+      handle->model_asset = nullptr;
+    }
+    // Destroys the GPU delegate through its deleter.
+    handle->gpu_delegate = nullptr;
   }
+  delete handle;
 }
 
 namespace {
 
 std::unique_ptr<tflite::Interpreter> CreateInterpreterFromModel(
-    JNIEnv* env, jobject callback,
+    JNIEnv* env, jobject callback, TfLiteJniHandle* handle,
     std::unique_ptr<tflite::FlatBufferModel> model) {
   // Set up the interpreter builder.
 #if TFLITE_IN_GMSCORE
@@ -170,9 +608,9 @@ std::unique_ptr<tflite::Interpreter> CreateInterpreterFromModel(
   tflite::ops::builtin::BuiltinOpResolver resolver;
   tflite::InterpreterBuilder(*model, resolver);
 #endif
-  builder.SetNumThreads(2);
-  if (g_gpu_delegate) {
-    builder.AddDelegate(g_gpu_delegate.get());
+  builder.SetNumThreads(handle->num_threads);
+  if (handle->gpu_delegate) {
+    builder.AddDelegate(handle->gpu_delegate.get());
     LogToCallback(env, callback, "  GPU delegate added to InterpreterBuilder");
   }
   LogToCallback(env, callback, "  InterpreterBuilder created");
@@ -195,57 +633,93 @@ std::unique_ptr<tflite::Interpreter> CreateInterpreterFromModel(
   return interpreter;
 }
 
-TfLiteTensor* GetAndValidateInputTensor(JNIEnv* env, jobject tfliteJni,
+TfLiteTensor* GetAndValidateInputTensor(JNIEnv* env,
                                         tflite::Interpreter* interpreter,
                                         size_t input_size) {
-  ASSERT_EQ(env, interpreter->inputs().size(), 1);
+  QUIET_ASSERT_EQ(env, interpreter->inputs().size(), 1);
 
   std::vector<int> input_dims = {static_cast<int>(input_size)};
-  ASSERT_EQ(
+  QUIET_ASSERT_EQ(
       env, interpreter->ResizeInputTensor(interpreter->inputs()[0], input_dims),
       kTfLiteOk);
-  ASSERT_EQ(env, interpreter->AllocateTensors(), kTfLiteOk);
-  LogToCallback(env, tfliteJni, "  Input dims checked");
+  QUIET_ASSERT_EQ(env, interpreter->AllocateTensors(), kTfLiteOk);
 
   TfLiteTensor* input_tensor = interpreter->input_tensor(0);
-  ASSERT_NE(env, input_tensor, nullptr);
-  ASSERT_EQ(env, TfLiteTensorType(input_tensor), kTfLiteFloat32);
-  ASSERT_EQ(env, TfLiteTensorNumDims(input_tensor), 1);
-  ASSERT_EQ(env, TfLiteTensorDim(input_tensor, 0), input_size);
-  ASSERT_EQ(env, TfLiteTensorByteSize(input_tensor),
-            sizeof(float) * input_size);
-  ASSERT_NE(env, TfLiteTensorData(input_tensor), nullptr);
-  ASSERT_STREQ(env, TfLiteTensorName(input_tensor), "input");
-  LogToCallback(env, tfliteJni, "  Input tensor params checked");
+  QUIET_ASSERT_NE(env, input_tensor, nullptr);
+  QUIET_ASSERT_EQ(env, TfLiteTensorType(input_tensor), kTfLiteFloat32);
+  QUIET_ASSERT_EQ(env, TfLiteTensorNumDims(input_tensor), 1);
+  QUIET_ASSERT_EQ(env, TfLiteTensorDim(input_tensor, 0), input_size);
+  QUIET_ASSERT_EQ(env, TfLiteTensorByteSize(input_tensor),
+                  sizeof(float) * input_size);
+  QUIET_ASSERT_NE(env, TfLiteTensorData(input_tensor), nullptr);
+  QUIET_ASSERT_STREQ(env, TfLiteTensorName(input_tensor), "input");
 
   auto input_params = TfLiteTensorQuantizationParams(input_tensor);
-  ASSERT_EQ(env, input_params.scale, 0.f);
-  ASSERT_EQ(env, input_params.zero_point, 0);
-  LogToCallback(env, tfliteJni, "  Input quantization params checked");
+  QUIET_ASSERT_EQ(env, input_params.scale, 0.f);
+  QUIET_ASSERT_EQ(env, input_params.zero_point, 0);
 
   return input_tensor;
 }
 
 const TfLiteTensor* GetAndValidateOutputTensor(
-    JNIEnv* env, jobject tfliteJni, tflite::Interpreter* interpreter) {
-  ASSERT_EQ(env, interpreter->outputs().size(), 1);
+    JNIEnv* env, tflite::Interpreter* interpreter, size_t output_size) {
+  QUIET_ASSERT_EQ(env, interpreter->outputs().size(), 1);
 
   const TfLiteTensor* output_tensor = interpreter->output_tensor(0);
-  ASSERT_NE(env, output_tensor, nullptr);
-  ASSERT_EQ(env, TfLiteTensorType(output_tensor), kTfLiteFloat32);
-  ASSERT_EQ(env, TfLiteTensorNumDims(output_tensor), 1);
-  ASSERT_EQ(env, TfLiteTensorDim(output_tensor, 0), 2);
-  ASSERT_EQ(env, TfLiteTensorByteSize(output_tensor), sizeof(float) * 2);
-  ASSERT_NE(env, TfLiteTensorData(output_tensor), nullptr);
-  ASSERT_STREQ(env, TfLiteTensorName(output_tensor), "output");
-  LogToCallback(env, tfliteJni, "  Output tensor params checked");
+  QUIET_ASSERT_NE(env, output_tensor, nullptr);
+  QUIET_ASSERT_EQ(env, TfLiteTensorType(output_tensor), kTfLiteFloat32);
+  QUIET_ASSERT_EQ(env, TfLiteTensorNumDims(output_tensor), 1);
+  QUIET_ASSERT_EQ(env, TfLiteTensorDim(output_tensor, 0), output_size);
+  QUIET_ASSERT_EQ(env, TfLiteTensorByteSize(output_tensor),
+                  sizeof(float) * output_size);
+  QUIET_ASSERT_NE(env, TfLiteTensorData(output_tensor), nullptr);
+  QUIET_ASSERT_STREQ(env, TfLiteTensorName(output_tensor), "output");
 
   auto output_params = TfLiteTensorQuantizationParams(output_tensor);
-  ASSERT_EQ(env, output_params.scale, 0.f);
-  ASSERT_EQ(env, output_params.zero_point, 0);
-  LogToCallback(env, tfliteJni, "  Output quantization params checked");
+  QUIET_ASSERT_EQ(env, output_params.scale, 0.f);
+  QUIET_ASSERT_EQ(env, output_params.zero_point, 0);
 
   return output_tensor;
 }
 
+void AllocateTensorsIfNeeded(JNIEnv* env, TfLiteJniHandle* handle) {
+  if (!handle->needs_allocation) return;
+  ASSERT_EQ(env, handle->interpreter->AllocateTensors(), kTfLiteOk);
+  handle->needs_allocation = false;
+}
+
+TfLiteStatus InvokeAndRecordLatency(TfLiteJniHandle* handle) {
+  const auto start = std::chrono::steady_clock::now();
+  TfLiteStatus status = handle->interpreter->Invoke();
+  handle->invoke_latency.Record(
+      std::chrono::duration_cast<std::chrono::nanoseconds>(
+          std::chrono::steady_clock::now() - start)
+          .count());
+  return status;
+}
+
+jobject NewTensorInfo(JNIEnv* env, const TfLiteTensor* tensor) {
+  ASSERT_NE(env, tensor, nullptr);
+  util::java::ScopedLocalRef<jclass> clazz(
+      env->FindClass("com/google/samples/gms/tflite/cc/TfLiteJni$TensorInfo"),
+      env);
+  ASSERT_NE(env, clazz, nullptr);
+  jmethodID constructor = env->GetMethodID(clazz.get(), "<init>",
+                                           "(Ljava/lang/String;I[IFIJ)V");
+  ASSERT_NE(env, constructor, nullptr);
+
+  std::vector<jint> shape(TfLiteTensorNumDims(tensor));
+  for (size_t i = 0; i < shape.size(); ++i) {
+    shape[i] = TfLiteTensorDim(tensor, i);
+  }
+  auto name = util::java::NewStringUTF(env, TfLiteTensorName(tensor));
+  util::java::ScopedLocalRef<jintArray> jshape(
+      util::java::JintArrayFromIntArray(env, shape.data(), shape.size()), env);
+  TfLiteQuantizationParams params = TfLiteTensorQuantizationParams(tensor);
+  return env->NewObject(clazz.get(), constructor, name.get(),
+                        static_cast<jint>(TfLiteTensorType(tensor)),
+                        jshape.get(), params.scale, params.zero_point,
+                        static_cast<jlong>(TfLiteTensorByteSize(tensor)));
+}
+
 }  // namespace
@@ -0,0 +1,92 @@
+/* Copyright 2023 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+#ifndef LATENCY_HISTOGRAM_H_  // NOLINT(build/header_guard)
+#define LATENCY_HISTOGRAM_H_
+
+#include <algorithm>
+#include <cmath>
+#include <cstdint>
+
+namespace util {
+
+// Fixed-size, allocation-free histogram of latencies in nanoseconds, in the
+// spirit of HdrHistogram: values below kSubBuckets are recorded exactly, and
+// every power-of-two range above that is split into kSubBuckets linear
+// buckets, so any recorded value is reported within ~3% of its true value.
+// Recording is O(1) and cheap enough to do on every invoke.
+//
+// Not thread-safe; callers are expected to hold the owning handle's mutex.
+class LatencyHistogram {
+ public:
+  void Record(int64_t nanos) {
+    const uint64_t value = nanos < 0 ? 0 : static_cast<uint64_t>(nanos);
+    ++counts_[BucketIndex(value)];
+    ++count_;
+    total_ += value;
+    max_ = std::max(max_, value);
+  }
+
+  void Reset() { *this = LatencyHistogram(); }
+
+  int64_t count() const { return count_; }
+  int64_t max() const { return max_; }
+  int64_t mean() const { return count_ == 0 ? 0 : total_ / count_; }
+
+  // Returns the upper bound of the first bucket at which at least
+  // `percentile`% of the recorded values have been seen, capped at max().
+  int64_t ValueAtPercentile(double percentile) const {
+    if (count_ == 0) return 0;
+    const uint64_t target = std::max<uint64_t>(
+        1, static_cast<uint64_t>(std::ceil(percentile / 100.0 * count_)));
+    uint64_t seen = 0;
+    for (int i = 0; i < kBucketCount; ++i) {
+      seen += counts_[i];
+      if (seen >= target) return std::min(BucketUpperBound(i), max_);
+    }
+    return max_;
+  }
+
+ private:
+  static constexpr int kSubBucketBits = 5;
+  static constexpr int kSubBuckets = 1 << kSubBucketBits;
+  static constexpr int kBucketCount =
+      kSubBuckets + (64 - kSubBucketBits) * kSubBuckets;
+
+  static int BucketIndex(uint64_t value) {
+    if (value < kSubBuckets) return static_cast<int>(value);
+    const int exponent = 63 - __builtin_clzll(value);
+    const int shift = exponent - kSubBucketBits;
+    const int sub_bucket = static_cast<int>(value >> shift) - kSubBuckets;
+    return kSubBuckets + shift * kSubBuckets + sub_bucket;
+  }
+
+  // Largest value that maps to bucket `index`.
+  static uint64_t BucketUpperBound(int index) {
+    if (index < kSubBuckets) return index;
+    const int shift = (index - kSubBuckets) / kSubBuckets;
+    const uint64_t sub_bucket = (index - kSubBuckets) % kSubBuckets;
+    return ((kSubBuckets + sub_bucket + 1) << shift) - 1;
+  }
+
+  uint64_t counts_[kBucketCount] = {};
+  uint64_t count_ = 0;
+  uint64_t total_ = 0;
+  uint64_t max_ = 0;
+};
+
+}  // namespace util
+
+#endif  // LATENCY_HISTOGRAM_H_
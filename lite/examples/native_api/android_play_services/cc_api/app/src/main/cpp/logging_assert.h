@@ -40,6 +40,22 @@ limitations under the License.
 #define ASSERT_STREQ(jni_env, expected, actual) \
   ASSERT_EQ(jni_env, 0, strcmp((expected), (actual)))
 
+// Same as CHECK_CONDITION, but only logs when the check fails. For the checks
+// on per-inference paths, where logging every passing check would cost more
+// than the call itself.
+#define CHECK_CONDITION_QUIET(jni_env, condition)                    \
+  do {                                                               \
+    if (!(condition)) {                                              \
+      logging::CheckFailed(jni_env, STRINGIZE(condition), __func__); \
+    }                                                                \
+  } while (false)
+#define QUIET_ASSERT_EQ(jni_env, expected, actual) \
+  CHECK_CONDITION_QUIET(jni_env, (expected) == (actual))
+#define QUIET_ASSERT_NE(jni_env, expected, actual) \
+  CHECK_CONDITION_QUIET(jni_env, (expected) != (actual))
+#define QUIET_ASSERT_STREQ(jni_env, expected, actual) \
+  QUIET_ASSERT_EQ(jni_env, 0, strcmp((expected), (actual)))
+
 namespace logging {
 
 void CheckSucceeded(const char* expression, const char* function) {
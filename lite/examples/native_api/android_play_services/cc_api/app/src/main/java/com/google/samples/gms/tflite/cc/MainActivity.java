@@ -30,6 +30,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Locale;
 
 /** Sample activity to test the TFLite C API. */
 public class MainActivity extends Activity {
@@ -90,6 +91,13 @@ public class MainActivity extends Activity {
               float[] output = jni.runInference(new float[] {1.f, 3.f});
               logEvent(
                   "Ran inference, expected: [3.0, 9.0], got output: " + Arrays.toString(output));
+              long[] stats = jni.getStats();
+              logEvent(
+                  String.format(
+                      Locale.US,
+                      "Invoke latency: p50 %d µs, max %d µs",
+                      stats[TfLiteJni.STATS_P50_NANOS] / 1000,
+                      stats[TfLiteJni.STATS_MAX_NANOS] / 1000));
               jni.destroy();
               logEvent("TfLiteJni destroyed");
               return Tasks.forResult(output);
@@ -17,12 +17,75 @@
 package com.google.samples.gms.tflite.cc;
 
 import android.content.res.AssetManager;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-/** JNI bridge to forward the calls to the native code, where we can invoke the TFLite C API. */
+/**
+ * JNI bridge to forward the calls to the native code, where we can invoke the TFLite C API.
+ *
+ * <p>Each instance owns its own native interpreter, model and delegate, referenced through an
+ * opaque native handle, so several instances can be used at the same time. A single instance may be
+ * called from multiple threads; the native side serializes calls on the same handle.
+ */
 public class TfLiteJni {
 
   private final LoggingCallback loggingCallback;
 
+  /**
+   * Guards {@link #nativeHandle}: native calls hold the read lock, {@link #destroy} holds the write
+   * lock so the native state is never freed while a call is still using it.
+   */
+  private final ReadWriteLock handleLock = new ReentrantReadWriteLock();
+
+  /** Opaque pointer to the native state owned by this instance, or 0 once destroyed. */
+  private long nativeHandle;
+
+  /** Number of interpreter threads used by {@link #loadModel(AssetManager, String)}. */
+  public static final int DEFAULT_NUM_THREADS = 2;
+
+  /** Index in {@link #getStats()} of the number of recorded invocations. */
+  public static final int STATS_COUNT = 0;
+  /** Index in {@link #getStats()} of the mean invoke latency, in nanoseconds. */
+  public static final int STATS_MEAN_NANOS = 1;
+  /** Index in {@link #getStats()} of the median invoke latency, in nanoseconds. */
+  public static final int STATS_P50_NANOS = 2;
+  /** Index in {@link #getStats()} of the 90th percentile invoke latency, in nanoseconds. */
+  public static final int STATS_P90_NANOS = 3;
+  /** Index in {@link #getStats()} of the 99th percentile invoke latency, in nanoseconds. */
+  public static final int STATS_P99_NANOS = 4;
+  /** Index in {@link #getStats()} of the slowest invoke, in nanoseconds. */
+  public static final int STATS_MAX_NANOS = 5;
+
+  /** Stride of the (node index, invocations, total nanoseconds) entries in {@link #getOpStats}. */
+  public static final int OP_STATS_STRIDE = 3;
+
+  /** Describes one input or output tensor of the loaded model. */
+  public static final class TensorInfo {
+    /** Tensor name as stored in the model. */
+    public final String name;
+    /** The tensor element type, as a {@code TfLiteType} value, e.g. 1 for float32. */
+    public final int type;
+    /** Current dimensions of the tensor. */
+    public final int[] shape;
+    /** Quantization scale, or 0 if the tensor is not quantized. */
+    public final float scale;
+    /** Quantization zero point. */
+    public final int zeroPoint;
+    /** Size of the tensor data in bytes. */
+    public final long byteSize;
+
+    // Called from the native code.
+    TensorInfo(String name, int type, int[] shape, float scale, int zeroPoint, long byteSize) {
+      this.name = name;
+      this.type = type;
+      this.shape = shape;
+      this.scale = scale;
+      this.zeroPoint = zeroPoint;
+      this.byteSize = byteSize;
+    }
+  }
+
   /**
    * This interface gets called when the JNI wants to print a message (used for debugging purposes).
    */
@@ -36,6 +99,7 @@ public class TfLiteJni {
 
   public TfLiteJni(LoggingCallback loggingCallback) {
     this.loggingCallback = loggingCallback;
+    this.nativeHandle = createHandle();
   }
 
   private void sendLogMessage(String message) {
@@ -44,18 +108,297 @@ public class TfLiteJni {
     }
   }
 
+  /** Returns the native handle, failing if {@link TfLiteJni#destroy} was already called. */
+  private long checkedHandle() {
+    if (nativeHandle == 0) {
+      throw new IllegalStateException("TfLiteJni has already been destroyed");
+    }
+    return nativeHandle;
+  }
+
   /** Creates GPU delegate that will be used for the inference. */
-  public native void initGpuAcceleration();
+  public void initGpuAcceleration() {
+    handleLock.readLock().lock();
+    try {
+      initGpuAcceleration(checkedHandle());
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
 
   /**
    * Loads the model and creates the Interpreter. GPU delegate is applied if {@link
    * TfLiteJni#initGpuAcceleration} was previously called.
    */
-  public native void loadModel(AssetManager assetManager, String assetName);
+  public void loadModel(AssetManager assetManager, String assetName) {
+    loadModel(assetManager, assetName, DEFAULT_NUM_THREADS);
+  }
+
+  /**
+   * Loads the model and creates the Interpreter using {@code numThreads} threads. GPU delegate is
+   * applied if {@link TfLiteJni#initGpuAcceleration} was previously called.
+   */
+  public void loadModel(AssetManager assetManager, String assetName, int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+    }
+    handleLock.readLock().lock();
+    try {
+      loadModel(checkedHandle(), assetManager, assetName, numThreads);
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of input tensors of the loaded model. */
+  public int getInputTensorCount() {
+    handleLock.readLock().lock();
+    try {
+      return getInputTensorCount(checkedHandle());
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of output tensors of the loaded model. */
+  public int getOutputTensorCount() {
+    handleLock.readLock().lock();
+    try {
+      return getOutputTensorCount(checkedHandle());
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /** Returns the current name, type, shape and quantization of the input tensor at {@code index}. */
+  public TensorInfo getInputTensorInfo(int index) {
+    handleLock.readLock().lock();
+    try {
+      long handle = checkedHandle();
+      checkIndex(index, getInputTensorCount(handle));
+      return getInputTensorInfo(handle, index);
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the current name, type, shape and quantization of the output tensor at {@code index}.
+   * The shape reflects any input resized with {@link #resizeInput}.
+   */
+  public TensorInfo getOutputTensorInfo(int index) {
+    handleLock.readLock().lock();
+    try {
+      long handle = checkedHandle();
+      checkIndex(index, getOutputTensorCount(handle));
+      return getOutputTensorInfo(handle, index);
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Resizes the input tensor at {@code index}, e.g. to change the batch size. Resizing to the
+   * current shape is a no-op; otherwise the tensors are reallocated once, lazily, before the next
+   * inference or output introspection.
+   */
+  public void resizeInput(int index, int[] shape) {
+    handleLock.readLock().lock();
+    try {
+      long handle = checkedHandle();
+      checkIndex(index, getInputTensorCount(handle));
+      resizeInput(handle, index, shape);
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
 
   /** Runs the inference using the Interpreter created by {@link TfLiteJni#loadModel}. */
-  public native float[] runInference(float[] input);
+  public float[] runInference(float[] input) {
+    handleLock.readLock().lock();
+    try {
+      return runInference(checkedHandle(), input);
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Runs the inference reading the input from and writing the output to caller-owned direct
+   * buffers of native-order floats.
+   *
+   * <p>The input tensor is sized to {@code input.capacity()} and is only resized when that changes.
+   * Each call copies the input and output with a single memcpy and allocates nothing, so the buffers
+   * should be reused across calls.
+   *
+   * @param input direct buffer holding the input values
+   * @param output direct buffer at least as large as the output tensor
+   * @throws IllegalArgumentException if the buffers are not direct or don't fit the model
+   */
+  public void runInference(ByteBuffer input, ByteBuffer output) {
+    if (!input.isDirect() || !output.isDirect()) {
+      throw new IllegalArgumentException("Input and output must be direct ByteBuffers");
+    }
+    handleLock.readLock().lock();
+    try {
+      runInferenceDirect(checkedHandle(), input, output);
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Runs the inference on a model with any number of inputs and outputs, using caller-owned direct
+   * buffers in native byte order.
+   *
+   * <p>Each input buffer must have exactly the byte size of the matching input tensor, and each
+   * output buffer must be at least as large as the matching output tensor; see {@link
+   * #getInputTensorInfo} and {@link #getOutputTensorInfo}.
+   *
+   * @throws IllegalArgumentException if the buffers don't match the model's tensors
+   */
+  public void runInference(ByteBuffer[] inputs, ByteBuffer[] outputs) {
+    checkDirect(inputs);
+    checkDirect(outputs);
+    handleLock.readLock().lock();
+    try {
+      long handle = checkedHandle();
+      if (inputs.length != getInputTensorCount(handle)
+          || outputs.length != getOutputTensorCount(handle)) {
+        throw new IllegalArgumentException(
+            "Expected " + getInputTensorCount(handle) + " inputs and "
+                + getOutputTensorCount(handle) + " outputs");
+      }
+      runInferenceOnTensors(handle, inputs, outputs);
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns a summary of the latency of every interpreter invoke made through this instance since
+   * it was created or {@link #resetStats} was called, indexed by the {@code STATS_*} constants.
+   *
+   * <p>Latencies are measured natively around the invoke call only, so they exclude the JNI and
+   * tensor copy overhead. Percentiles come from a log-linear histogram and are accurate to ~3%.
+   */
+  public long[] getStats() {
+    handleLock.readLock().lock();
+    try {
+      return getStats(checkedHandle());
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /** Clears the invoke latency histogram and any per-op profile. */
+  public void resetStats() {
+    handleLock.readLock().lock();
+    try {
+      resetStats(checkedHandle());
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Enables or disables timing each op of the model. Profiling adds overhead to every op, so it is
+   * off by default.
+   *
+   * <p>Disabling profiling keeps the per-op profile collected so far, so it can still be read with
+   * {@link #getOpStats}; it is only cleared by {@link #resetStats}.
+   *
+   * @return whether per-op profiling is supported by the underlying API
+   */
+  public boolean setOpProfilingEnabled(boolean enabled) {
+    handleLock.readLock().lock();
+    try {
+      return setOpProfilingEnabled(checkedHandle(), enabled);
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the per-op profile as consecutive (node index, invocations, total nanoseconds) entries,
+   * {@link #OP_STATS_STRIDE} values each, for the nodes that ran while profiling was enabled.
+   */
+  public long[] getOpStats() {
+    handleLock.readLock().lock();
+    try {
+      return getOpStats(checkedHandle());
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  /** Returns the op names of the entries of {@link #getOpStats}, in the same order. */
+  public String[] getOpStatNames() {
+    handleLock.readLock().lock();
+    try {
+      return getOpStatNames(checkedHandle());
+    } finally {
+      handleLock.readLock().unlock();
+    }
+  }
+
+  private static void checkIndex(int index, int count) {
+    if (index < 0 || index >= count) {
+      throw new IllegalArgumentException("Invalid tensor index " + index + ", count " + count);
+    }
+  }
+
+  private static void checkDirect(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (buffer == null || !buffer.isDirect()) {
+        throw new IllegalArgumentException("All tensor buffers must be direct ByteBuffers");
+      }
+    }
+  }
 
   /** Unloads the assets and clears all the Interpreter's resources. */
-  public native void destroy();
+  public void destroy() {
+    handleLock.writeLock().lock();
+    try {
+      destroy(nativeHandle);
+      nativeHandle = 0;
+    } finally {
+      handleLock.writeLock().unlock();
+    }
+  }
+
+  private static native long createHandle();
+
+  private native void initGpuAcceleration(long handle);
+
+  private native void loadModel(
+      long handle, AssetManager assetManager, String assetName, int numThreads);
+
+  private native int getInputTensorCount(long handle);
+
+  private native int getOutputTensorCount(long handle);
+
+  private native TensorInfo getInputTensorInfo(long handle, int index);
+
+  private native TensorInfo getOutputTensorInfo(long handle, int index);
+
+  private native void resizeInput(long handle, int index, int[] shape);
+
+  private native float[] runInference(long handle, float[] input);
+
+  private native void runInferenceDirect(long handle, ByteBuffer input, ByteBuffer output);
+
+  private native void runInferenceOnTensors(long handle, ByteBuffer[] inputs, ByteBuffer[] outputs);
+
+  private native long[] getStats(long handle);
+
+  private native void resetStats(long handle);
+
+  private native boolean setOpProfilingEnabled(long handle, boolean enabled);
+
+  private native long[] getOpStats(long handle);
+
+  private native String[] getOpStatNames(long handle);
+
+  private native void destroy(long handle);
 }
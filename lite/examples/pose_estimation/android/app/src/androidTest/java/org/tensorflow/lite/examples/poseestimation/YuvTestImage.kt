@@ -0,0 +1,62 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation
+
+import android.graphics.ImageFormat
+import android.media.Image
+import android.media.ImageReader
+import android.media.ImageWriter
+import java.io.Closeable
+import kotlin.random.Random
+
+/**
+ * A writable YUV_420_888 [image], dequeued from an [ImageWriter] on an [ImageReader] so it has the
+ * plane layout of the device's camera and codec buffers.
+ */
+class YuvTestImage(width: Int, height: Int) : Closeable {
+    private val reader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, 1)
+    private val writer = ImageWriter.newInstance(reader.surface, 1)
+    val image: Image = writer.dequeueInputImage()
+
+    /** Fill the planes with [y], [u] and [v] values computed from the plane coordinates. */
+    fun fill(y: (Int, Int) -> Int, u: (Int, Int) -> Int, v: (Int, Int) -> Int) {
+        val planeFunctions = arrayOf(y, u, v)
+        image.planes.forEachIndexed { index, plane ->
+            val planeWidth = if (index == 0) image.width else (image.width + 1) / 2
+            val planeHeight = if (index == 0) image.height else (image.height + 1) / 2
+            for (row in 0 until planeHeight) {
+                for (col in 0 until planeWidth) {
+                    val value = planeFunctions[index](col, row).toByte()
+                    plane.buffer.put(row * plane.rowStride + col * plane.pixelStride, value)
+                }
+            }
+        }
+    }
+
+    /** Fill the planes with random values. */
+    fun fillRandom(random: Random) {
+        fill({ _, _ -> random.nextInt(256) }, { _, _ -> random.nextInt(256) }) { _, _ ->
+            random.nextInt(256)
+        }
+    }
+
+    override fun close() {
+        image.close()
+        writer.close()
+        reader.close()
+    }
+}
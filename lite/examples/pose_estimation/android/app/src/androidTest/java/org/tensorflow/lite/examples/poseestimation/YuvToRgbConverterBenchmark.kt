@@ -0,0 +1,79 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation
+
+import android.graphics.Bitmap
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.math.abs
+import kotlin.random.Random
+
+/**
+ * Measures the latency and the Java heap allocations per frame of [YuvToRgbConverter] against the
+ * previous RenderScript based converter, on camera preview sized images, and how far apart their
+ * outputs are. Results are written to logcat.
+ */
+@RunWith(AndroidJUnit4::class)
+class YuvToRgbConverterBenchmark {
+
+    companion object {
+        private const val TAG = "YuvToRgbBenchmark"
+        private const val WIDTH = 640
+        private const val HEIGHT = 480
+    }
+
+    private val benchmark = FrameBenchmark(TAG, warmUpFrames = 20, measuredFrames = 200)
+
+    @Test
+    fun benchmarkYuvToRgb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        YuvTestImage(WIDTH, HEIGHT).use { testImage ->
+            testImage.fillRandom(Random(0))
+            val image = testImage.image
+            val output = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+            val reference = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+
+            val renderScript = RenderScriptYuvToRgbConverter(context)
+            benchmark.measure("RenderScript") { renderScript.yuvToRgb(image, reference) }
+            for (bandCount in intArrayOf(1, 2, 4)) {
+                YuvToRgbConverter(bandCount).use { converter ->
+                    benchmark.measure("CPU, $bandCount bands") { converter.yuvToRgb(image, output) }
+                }
+            }
+            Log.i(TAG, "Largest channel difference: ${maxChannelDifference(output, reference)}")
+        }
+    }
+
+    private fun maxChannelDifference(first: Bitmap, second: Bitmap): Int {
+        val firstPixels = IntArray(WIDTH * HEIGHT)
+        val secondPixels = IntArray(WIDTH * HEIGHT)
+        first.getPixels(firstPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT)
+        second.getPixels(secondPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT)
+        var max = 0
+        for (i in firstPixels.indices) {
+            for (shift in intArrayOf(0, 8, 16)) {
+                val a = (firstPixels[i] shr shift) and 0xff
+                val b = (secondPixels[i] shr shift) and 0xff
+                max = maxOf(max, abs(a - b))
+            }
+        }
+        return max
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.Rect
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.nio.ByteBuffer
+import kotlin.math.abs
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class YuvToRgbConverterTest {
+
+    companion object {
+        private const val WIDTH = 64
+        private const val HEIGHT = 38
+
+        // RenderScript uses 8 bit fixed point coefficients, so the channels may differ slightly.
+        private const val TOLERANCE = 2
+    }
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val testImage = YuvTestImage(WIDTH, HEIGHT)
+    private val output = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+
+    @After
+    fun tearDown() {
+        testImage.close()
+    }
+
+    @Test
+    fun testUniformGray() {
+        testImage.fill({ _, _ -> 128 }, { _, _ -> 128 }) { _, _ -> 128 }
+        YuvToRgbConverter(1).use { it.yuvToRgb(testImage.image, output) }
+        // 1.164 * (128 - 16) = 130.4
+        assertEquals(Color.rgb(130, 130, 130), output.getPixel(0, 0))
+        assertEquals(Color.rgb(130, 130, 130), output.getPixel(WIDTH - 1, HEIGHT - 1))
+    }
+
+    @Test
+    fun testImageMatchesRenderScript() {
+        testImage.fillRandom(Random(0))
+        val expected = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+        RenderScriptYuvToRgbConverter(context).yuvToRgb(testImage.image, expected)
+        YuvToRgbConverter(1).use { it.yuvToRgb(testImage.image, output) }
+        assertSimilar(expected, 0, 0, output)
+    }
+
+    @Test
+    fun testSemiPlanarMatchesRenderScript() {
+        val nv21 = Nv21Frame(Random(1))
+        val expected = nv21.renderScriptReference()
+        YuvToRgbConverter(1).use { nv21.convert(it, Rect(0, 0, WIDTH, HEIGHT), output) }
+        assertSimilar(expected, 0, 0, output)
+    }
+
+    @Test
+    fun testOddCropMatchesRenderScript() {
+        val nv21 = Nv21Frame(Random(2))
+        val expected = nv21.renderScriptReference()
+        // Odd offset and size, so the crop starts and ends halfway through chroma samples.
+        val crop = Rect(3, 5, 3 + 37, 5 + 21)
+        val cropped = Bitmap.createBitmap(crop.width(), crop.height(), Bitmap.Config.ARGB_8888)
+        YuvToRgbConverter(1).use { nv21.convert(it, crop, cropped) }
+        assertSimilar(expected, crop.left, crop.top, cropped)
+    }
+
+    @Test
+    fun testBandsMatchSingleBand() {
+        val nv21 = Nv21Frame(Random(3))
+        val crop = Rect(1, 3, WIDTH - 2, HEIGHT - 1)
+        val expected = Bitmap.createBitmap(crop.width(), crop.height(), Bitmap.Config.ARGB_8888)
+        YuvToRgbConverter(1).use { nv21.convert(it, crop, expected) }
+        val actual = Bitmap.createBitmap(crop.width(), crop.height(), Bitmap.Config.ARGB_8888)
+        for (bandCount in 2..4) {
+            YuvToRgbConverter(bandCount).use { nv21.convert(it, crop, actual) }
+            assertTrue("$bandCount bands", expected.sameAs(actual))
+        }
+    }
+
+    /** Check that each channel of [actual] is within [TOLERANCE] of [expected] at the offset. */
+    private fun assertSimilar(expected: Bitmap, left: Int, top: Int, actual: Bitmap) {
+        for (row in 0 until actual.height) {
+            for (col in 0 until actual.width) {
+                val expectedPixel = expected.getPixel(left + col, top + row)
+                val actualPixel = actual.getPixel(col, row)
+                for (shift in intArrayOf(16, 8, 0)) {
+                    val difference =
+                        abs((expectedPixel shr shift and 0xff) - (actualPixel shr shift and 0xff))
+                    assertTrue(
+                        "pixel ($col, $row): expected ${Integer.toHexString(expectedPixel)}, " +
+                            "was ${Integer.toHexString(actualPixel)}",
+                        difference <= TOLERANCE
+                    )
+                }
+            }
+        }
+    }
+
+    /**
+     * A random NV21 frame: the Y plane followed by interleaved V and U samples. It's read as
+     * semi-planar U and V planes with a pixel stride of 2, as camera frames usually are.
+     */
+    private inner class Nv21Frame(random: Random) {
+        private val bytes = random.nextBytes(WIDTH * HEIGHT * 3 / 2)
+
+        fun convert(converter: YuvToRgbConverter, crop: Rect, output: Bitmap) {
+            val ySize = WIDTH * HEIGHT
+            val y = ByteBuffer.wrap(bytes, 0, ySize).slice()
+            val v = ByteBuffer.wrap(bytes, ySize, bytes.size - ySize).slice()
+            val u = ByteBuffer.wrap(bytes, ySize + 1, bytes.size - ySize - 1).slice()
+            converter.yuvToRgb(y, WIDTH, 1, u, v, WIDTH, 2, crop, output)
+        }
+
+        fun renderScriptReference(): Bitmap {
+            val reference = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+            RenderScriptYuvToRgbConverter(context).nv21ToRgb(bytes, reference)
+            return reference
+        }
+    }
+}
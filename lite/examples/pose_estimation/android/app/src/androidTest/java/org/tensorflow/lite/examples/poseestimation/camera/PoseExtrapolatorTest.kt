@@ -0,0 +1,69 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.camera
+
+import android.graphics.PointF
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import junit.framework.TestCase.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tensorflow.lite.examples.poseestimation.data.BodyPart
+import org.tensorflow.lite.examples.poseestimation.data.KeyPoint
+import org.tensorflow.lite.examples.poseestimation.data.Person
+
+@RunWith(AndroidJUnit4::class)
+class PoseExtrapolatorTest {
+    companion object {
+        private const val FRAME_NANOS = 33_000_000L
+    }
+
+    private val extrapolator = PoseExtrapolator(maxAheadNanos = 2 * FRAME_NANOS)
+
+    private fun person(id: Int, x: Float, y: Float) =
+        Person(id, listOf(KeyPoint(BodyPart.NOSE, PointF(x, y), 0.9f)), score = 0.9f)
+
+    @Test
+    fun testExtrapolatesMatchingIds() {
+        extrapolator.update(listOf(person(1, 10f, 20f), person(2, 50f, 50f)), 0)
+        extrapolator.update(listOf(person(2, 50f, 60f), person(1, 20f, 20f)), 2 * FRAME_NANOS)
+
+        val predicted = extrapolator.predict(3 * FRAME_NANOS)
+        assertEquals(2, predicted[0].id)
+        assertEquals(65f, predicted[0].keyPoints[0].coordinate.y, 0.001f)
+        assertEquals(1, predicted[1].id)
+        assertEquals(25f, predicted[1].keyPoints[0].coordinate.x, 0.001f)
+    }
+
+    @Test
+    fun testStopsAtMaxAhead() {
+        extrapolator.update(listOf(person(-1, 0f, 0f)), 0)
+        extrapolator.update(listOf(person(-1, 10f, 0f)), FRAME_NANOS)
+
+        // Ten frames after the last result, but only predicted two frames ahead.
+        val predicted = extrapolator.predict(11 * FRAME_NANOS)
+        assertEquals(30f, predicted[0].keyPoints[0].coordinate.x, 0.001f)
+    }
+
+    @Test
+    fun testKeepsUnmatchedPersons() {
+        extrapolator.update(listOf(person(1, 0f, 0f)), 0)
+        extrapolator.update(listOf(person(3, 10f, 10f)), FRAME_NANOS)
+
+        val predicted = extrapolator.predict(2 * FRAME_NANOS)
+        assertEquals(10f, predicted[0].keyPoints[0].coordinate.x, 0.001f)
+    }
+}
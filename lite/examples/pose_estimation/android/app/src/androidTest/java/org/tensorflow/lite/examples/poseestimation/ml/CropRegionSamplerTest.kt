@@ -0,0 +1,155 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.ml
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.RectF
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tensorflow.lite.DataType
+import org.tensorflow.lite.support.image.ImageProcessor
+import org.tensorflow.lite.support.image.TensorImage
+import org.tensorflow.lite.support.image.ops.ResizeOp
+import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp
+import java.nio.ByteBuffer
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Checks CropRegionSampler against the Canvas crop, ResizeWithCropOrPadOp and ResizeOp pipeline
+ * that MoveNet used before.
+ */
+@RunWith(AndroidJUnit4::class)
+class CropRegionSamplerTest {
+
+    companion object {
+        private const val INPUT_SIZE = 192
+        private const val IMAGE_WIDTH = 640
+        private const val IMAGE_HEIGHT = 480
+
+        // Both filters reproduce a smooth gradient, so they only differ by rounding.
+        private const val TOLERANCE = 3
+
+        // Output pixels this close to the edge of the image blend the image with the black
+        // outside of it, which the two filters weigh differently.
+        private const val EDGE_MARGIN = 2
+    }
+
+    private val image = gradientBitmap()
+    private val sampler = CropRegionSampler(INPUT_SIZE, INPUT_SIZE)
+    private val output = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3)
+
+    @Test
+    fun testDownscaledRegionInBounds() {
+        assertMatchesReference(RectF(100f, 40f, 484f, 424f))
+    }
+
+    @Test
+    fun testUpscaledRegionInBounds() {
+        assertMatchesReference(RectF(200f, 150f, 296f, 246f))
+    }
+
+    @Test
+    fun testRegionPartlyOutOfBounds() {
+        assertMatchesReference(RectF(-96f, -48f, 288f, 336f))
+    }
+
+    @Test
+    fun testRegionPartlyOutOfBoundsOnTheFarSide() {
+        assertMatchesReference(RectF(400f, 240f, 784f, 624f))
+    }
+
+    @Test
+    fun testOutsideOfTheImageIsBlack() {
+        val region = RectF(-96f, -48f, 288f, 336f)
+        sampler.sample(image, region, output)
+        // The top left output pixels all sample from outside of the image.
+        for (channel in 0 until 3) {
+            assertEquals(0, output.get(channel).toInt())
+        }
+    }
+
+    private fun assertMatchesReference(region: RectF) {
+        sampler.sample(image, region, output)
+        val expected = reference(region)
+
+        // Output pixel range that only samples from inside of the image.
+        val scale = INPUT_SIZE / region.width()
+        val firstX = max(0f, -region.left * scale).toInt() + EDGE_MARGIN
+        val firstY = max(0f, -region.top * scale).toInt() + EDGE_MARGIN
+        val lastX = min(INPUT_SIZE.toFloat(), (IMAGE_WIDTH - region.left) * scale).toInt() -
+                EDGE_MARGIN
+        val lastY = min(INPUT_SIZE.toFloat(), (IMAGE_HEIGHT - region.top) * scale).toInt() -
+                EDGE_MARGIN
+
+        var maxDifference = 0
+        for (y in firstY until lastY) {
+            for (x in firstX until lastX) {
+                for (channel in 0 until 3) {
+                    val index = (y * INPUT_SIZE + x) * 3 + channel
+                    val actual = output.get(index).toInt() and 0xff
+                    val difference = abs(actual - (expected[index].toInt() and 0xff))
+                    maxDifference = max(maxDifference, difference)
+                }
+            }
+        }
+        assertTrue(
+            "Max channel difference $maxDifference for $region exceeds $TOLERANCE",
+            maxDifference <= TOLERANCE
+        )
+    }
+
+    // The crop and resize MoveNet did before CropRegionSampler, as RGB bytes.
+    private fun reference(region: RectF): ByteArray {
+        val detectBitmap = Bitmap.createBitmap(
+            region.width().toInt(),
+            region.height().toInt(),
+            Bitmap.Config.ARGB_8888
+        )
+        Canvas(detectBitmap).drawBitmap(image, -region.left, -region.top, null)
+        val size = min(detectBitmap.width, detectBitmap.height)
+        val imageProcessor = ImageProcessor.Builder().apply {
+            add(ResizeWithCropOrPadOp(size, size))
+            add(ResizeOp(INPUT_SIZE, INPUT_SIZE, ResizeOp.ResizeMethod.BILINEAR))
+        }.build()
+        val tensorImage = TensorImage(DataType.UINT8)
+        tensorImage.load(detectBitmap)
+        val buffer = imageProcessor.process(tensorImage).buffer
+        buffer.rewind()
+        return ByteArray(buffer.remaining()).also { buffer.get(it) }
+    }
+
+    // Red grows to the right, green downwards and blue along the diagonal.
+    private fun gradientBitmap(): Bitmap {
+        val pixels = IntArray(IMAGE_WIDTH * IMAGE_HEIGHT) { index ->
+            val x = index % IMAGE_WIDTH
+            val y = index / IMAGE_WIDTH
+            Color.rgb(
+                x * 255 / (IMAGE_WIDTH - 1),
+                y * 255 / (IMAGE_HEIGHT - 1),
+                (x + y) * 255 / (IMAGE_WIDTH + IMAGE_HEIGHT - 2)
+            )
+        }
+        return Bitmap.createBitmap(pixels, IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888)
+    }
+}
@@ -0,0 +1,104 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.ml
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.RectF
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tensorflow.lite.DataType
+import org.tensorflow.lite.examples.poseestimation.FrameBenchmark
+import org.tensorflow.lite.examples.poseestimation.data.Device
+import org.tensorflow.lite.support.image.ImageProcessor
+import org.tensorflow.lite.support.image.TensorImage
+import org.tensorflow.lite.support.image.ops.ResizeOp
+import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Measures the latency and the Java heap allocations per frame of MoveNet single pose, and of its
+ * crop and resize step against the previous Canvas and ImageProcessor based one. Results are
+ * written to logcat.
+ */
+@RunWith(AndroidJUnit4::class)
+class MoveNetBenchmark {
+
+    companion object {
+        private const val TAG = "MoveNetBenchmark"
+        private const val TEST_INPUT_IMAGE = "image1.png"
+        private const val INPUT_SIZE = 192
+    }
+
+    private val benchmark = FrameBenchmark(TAG, warmUpFrames = 20, measuredFrames = 200)
+    private val input = EvaluationUtils.loadBitmapAssetByName(TEST_INPUT_IMAGE)
+
+    // A square region around the middle of the image, partly outside of it like MoveNet's crops.
+    private val region = RectF(
+        -input.width * 0.1f,
+        input.height * 0.1f,
+        input.width * 0.9f,
+        input.height * 0.1f + input.width
+    )
+
+    @Test
+    fun benchmarkEstimatePoses() {
+        val appContext = InstrumentationRegistry.getInstrumentation().targetContext
+        for (modelType in ModelType.values()) {
+            val poseDetector = MoveNet.create(appContext, Device.CPU, modelType)
+            benchmark.measure("estimatePoses, $modelType") { poseDetector.estimatePoses(input) }
+            benchmark.measure("estimatePosesPrimitive, $modelType") {
+                poseDetector.estimatePosesPrimitive(input)
+            }
+            poseDetector.close()
+        }
+    }
+
+    @Test
+    fun benchmarkCropAndResize() {
+        val sampler = CropRegionSampler(INPUT_SIZE, INPUT_SIZE)
+        val inputBuffer = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3)
+            .order(ByteOrder.nativeOrder())
+        benchmark.measure("crop and resize, CropRegionSampler") {
+            sampler.sample(input, region, inputBuffer)
+        }
+        benchmark.measure("crop and resize, Canvas and ImageProcessor") {
+            cropAndResizeWithBitmaps()
+        }
+    }
+
+    /** The previous MoveNet preprocessing: draw the crop into a new bitmap, then resize it. */
+    private fun cropAndResizeWithBitmaps(): ByteBuffer {
+        val detectBitmap = Bitmap.createBitmap(
+            region.width().toInt(),
+            region.height().toInt(),
+            Bitmap.Config.ARGB_8888
+        )
+        Canvas(detectBitmap).drawBitmap(input, -region.left, -region.top, null)
+        val size = minOf(detectBitmap.width, detectBitmap.height)
+        val imageProcessor = ImageProcessor.Builder().apply {
+            add(ResizeWithCropOrPadOp(size, size))
+            add(ResizeOp(INPUT_SIZE, INPUT_SIZE, ResizeOp.ResizeMethod.BILINEAR))
+        }.build()
+        val tensorImage = TensorImage(DataType.UINT8)
+        tensorImage.load(detectBitmap)
+        return imageProcessor.process(tensorImage).buffer
+    }
+}
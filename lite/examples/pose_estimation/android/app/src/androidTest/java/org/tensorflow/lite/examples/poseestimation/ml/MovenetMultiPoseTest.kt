@@ -21,6 +21,8 @@ import android.graphics.Bitmap
 import android.graphics.PointF
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -78,4 +80,43 @@ class MovenetMultiPoseTest {
                 ACCEPTABLE_ERROR
         )
     }
+
+    @Test
+    fun testPrimitivePosesWithTracker() {
+        poseDetector.setTracker(TrackerType.KEYPOINTS)
+        poseDetector.estimatePosesPrimitive(inputFinal)
+        val poses = poseDetector.estimatePosesPrimitive(inputFinal)
+        assertEquals(2, poses.count)
+
+        // The same person is linked to the same track across frames, and the lazily built
+        // persons hold the same values as the primitive poses.
+        assertEquals(setOf(1, 2), poses.ids.take(poses.count).toSet())
+        val persons = poses.asPersons()
+        for (pose in 0 until poses.count) {
+            assertEquals(poses.ids[pose], persons[pose].id)
+            assertEquals(poses.scores[pose], persons[pose].score, 0f)
+            persons[pose].keyPoints.forEachIndexed { k, keyPoint ->
+                val index = poses.keyPointIndex(pose, k)
+                assertEquals(poses.x[index], keyPoint.coordinate.x, 0f)
+                assertEquals(poses.y[index], keyPoint.coordinate.y, 0f)
+            }
+        }
+    }
+
+    @Test
+    fun testEstimatePosesReturnsCopies() {
+        val first = poseDetector.estimatePoses(inputFinal)
+        val firstCoordinates = first.map { person ->
+            person.keyPoints.map { PointF(it.coordinate.x, it.coordinate.y) }
+        }
+
+        // A call on another image doesn't change the persons returned by the previous one.
+        val second =
+            poseDetector.estimatePoses(EvaluationUtils.loadBitmapAssetByName(TEST_INPUT_IMAGE1))
+        assertNotSame(first, second)
+        assertEquals(
+            firstCoordinates,
+            first.map { person -> person.keyPoints.map { it.coordinate } }
+        )
+    }
 }
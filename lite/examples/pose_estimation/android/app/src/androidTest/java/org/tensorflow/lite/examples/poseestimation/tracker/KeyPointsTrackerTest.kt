@@ -26,8 +26,10 @@ import org.junit.runner.RunWith
 import org.tensorflow.lite.examples.poseestimation.data.BodyPart
 import org.tensorflow.lite.examples.poseestimation.data.KeyPoint
 import org.tensorflow.lite.examples.poseestimation.data.Person
+import org.tensorflow.lite.examples.poseestimation.data.Poses
 import kotlin.math.exp
 import kotlin.math.pow
+import kotlin.random.Random
 
 @RunWith(AndroidJUnit4::class)
 class KeyPointsTrackerTest {
@@ -305,4 +307,46 @@ class KeyPointsTrackerTest {
         assertEquals(5, track[3].person.id)
         assertEquals(1200000, track[3].lastTimestamp)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testGatedSimilarityMatchesOks() {
+        // Persons scattered over the image, so that most pairs are gated out.
+        val random = Random(0)
+        val persons = List(20) {
+            val centerX = random.nextFloat()
+            val centerY = random.nextFloat()
+            Person(
+                -1,
+                List(KEYPOINT_FALLOFF.size) { k ->
+                    KeyPoint(
+                        BodyPart.fromInt(k),
+                        PointF(
+                            centerX + (random.nextFloat() - 0.5f) * 0.1f,
+                            centerY + (random.nextFloat() - 0.5f) * 0.1f
+                        ),
+                        random.nextFloat()
+                    )
+                },
+                score = 1f
+            )
+        }
+        val poses = Poses.of(persons)
+        val tracks = TrackStore()
+        tracks.reserve(persons.size, poses)
+        for (index in persons.indices) tracks.add(poses, index, index, 0)
+
+        val simMatrix = FloatArray(persons.size * persons.size)
+        keyPointsTracker.computeSimilarity(poses, tracks, simMatrix)
+        for (detection in persons.indices) {
+            for (track in persons.indices) {
+                val oks = keyPointsTracker.oks(persons[detection], tracks.person(track))
+                val similarity = simMatrix[detection * persons.size + track]
+                if (oks >= MIN_SIMILARITY) {
+                    assertEquals(oks, similarity)
+                } else {
+                    Assert.assertTrue(similarity == 0f || similarity == oks)
+                }
+            }
+        }
+    }
+}
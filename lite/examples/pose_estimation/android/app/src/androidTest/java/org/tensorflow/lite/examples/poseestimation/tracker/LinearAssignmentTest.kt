@@ -0,0 +1,65 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.tracker
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class LinearAssignmentTest {
+    companion object {
+        private const val MIN_SIMILARITY = 0.15f
+    }
+
+    private val assignment = LinearAssignment()
+
+    // Detection 0 is most similar to track 0, but only detection 1 can be linked with track 0.
+    private val similarity = floatArrayOf(
+        0.6f, 0.5f,
+        0.55f, 0.1f,
+    )
+
+    @Test
+    fun testGreedy() {
+        val result = IntArray(2)
+        assignment.greedy(similarity, 2, 2, MIN_SIMILARITY, result)
+        assertArrayEquals(intArrayOf(0, -1), result)
+    }
+
+    @Test
+    fun testOptimal() {
+        val result = IntArray(2)
+        assignment.optimal(similarity, 2, 2, MIN_SIMILARITY, result)
+        assertArrayEquals(intArrayOf(1, 0), result)
+    }
+
+    @Test
+    fun testOptimalWithMoreDetectionsThanTracks() {
+        val result = IntArray(3)
+        assignment.optimal(floatArrayOf(0.2f, 0.9f, 0.1f), 3, 1, MIN_SIMILARITY, result)
+        assertArrayEquals(intArrayOf(-1, 0, -1), result)
+    }
+
+    @Test
+    fun testOptimalSkipsLinksBelowMinSimilarity() {
+        val result = IntArray(2)
+        assignment.optimal(floatArrayOf(0.1f, 0.9f, 0.05f, 0.8f), 2, 2, MIN_SIMILARITY, result)
+        assertArrayEquals(intArrayOf(1, -1), result)
+    }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.tracker
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tensorflow.lite.examples.poseestimation.FrameBenchmark
+import org.tensorflow.lite.examples.poseestimation.data.Poses
+import kotlin.random.Random
+
+/**
+ * Measures the latency and the Java heap allocations per frame of the trackers, with each
+ * assignment method, for 6, 50 and 500 persons moving slightly from frame to frame. Results are
+ * written to logcat.
+ */
+@RunWith(AndroidJUnit4::class)
+class TrackerBenchmark {
+
+    companion object {
+        private const val TAG = "TrackerBenchmark"
+        private val PERSON_COUNTS = intArrayOf(6, 50, 500)
+        private const val KEYPOINT_COUNT = 17
+        private const val FRAME_COUNT = 8
+        private const val FRAME_INTERVAL_US = 33_000L
+    }
+
+    private val benchmark = FrameBenchmark(TAG, warmUpFrames = 10, measuredFrames = 50)
+
+    @Test
+    fun benchmarkBoundingBoxTracker() {
+        for (personCount in PERSON_COUNTS) {
+            val frames = createFrames(personCount)
+            for (method in AssignmentMethod.values()) {
+                val config = TrackerConfig(maxTracks = personCount, assignmentMethod = method)
+                measure("BoundingBoxTracker, $personCount persons, $method", frames) {
+                    BoundingBoxTracker(config)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun benchmarkKeyPointsTracker() {
+        for (personCount in PERSON_COUNTS) {
+            val frames = createFrames(personCount)
+            for (method in AssignmentMethod.values()) {
+                val config = TrackerConfig(
+                    maxTracks = personCount,
+                    keyPointsTrackerParams = KeyPointsTrackerParams(),
+                    assignmentMethod = method
+                )
+                measure("KeyPointsTracker, $personCount persons, $method", frames) {
+                    KeyPointsTracker(config)
+                }
+            }
+        }
+    }
+
+    private fun measure(name: String, frames: List<Poses>, createTracker: () -> AbstractTracker) {
+        val tracker = createTracker()
+        var timestamp = 0L
+        benchmark.measure(name) { frame ->
+            timestamp += FRAME_INTERVAL_US
+            tracker.apply(frames[frame % frames.size], timestamp)
+        }
+    }
+
+    /**
+     * Creates [FRAME_COUNT] frames of [personCount] persons of random size, each moving by a
+     * small random step from one frame to the next, in normalized coordinates.
+     */
+    private fun createFrames(personCount: Int): List<Poses> {
+        val random = Random(personCount)
+        val centerX = FloatArray(personCount) { random.nextFloat() }
+        val centerY = FloatArray(personCount) { random.nextFloat() }
+        val size = FloatArray(personCount) { 0.02f + random.nextFloat() * 0.1f }
+        return List(FRAME_COUNT) {
+            val poses = Poses(personCount, KEYPOINT_COUNT)
+            poses.hasBoxes = true
+            for (person in 0 until personCount) {
+                centerX[person] += (random.nextFloat() - 0.5f) * size[person] * 0.1f
+                centerY[person] += (random.nextFloat() - 0.5f) * size[person] * 0.1f
+                val index = poses.add(0.5f + random.nextFloat() * 0.5f)
+                val box = index * 4
+                poses.boxes[box] = centerX[person] - size[person] / 2
+                poses.boxes[box + 1] = centerY[person] - size[person]
+                poses.boxes[box + 2] = centerX[person] + size[person] / 2
+                poses.boxes[box + 3] = centerY[person] + size[person]
+                for (k in 0 until KEYPOINT_COUNT) {
+                    val keyPoint = poses.keyPointIndex(index, k)
+                    poses.x[keyPoint] = centerX[person] + (random.nextFloat() - 0.5f) * size[person]
+                    poses.y[keyPoint] =
+                        centerY[person] + (random.nextFloat() - 0.5f) * size[person] * 2
+                    poses.keyPointScores[keyPoint] = random.nextFloat()
+                }
+            }
+            poses
+        }
+    }
+}
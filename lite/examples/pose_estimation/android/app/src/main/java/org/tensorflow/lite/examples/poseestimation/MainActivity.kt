@@ -67,9 +67,11 @@ class MainActivity : AppCompatActivity() {
     private lateinit var tvClassificationValue2: TextView
     private lateinit var tvClassificationValue3: TextView
     private lateinit var swClassification: SwitchCompat
+    private lateinit var swPrediction: SwitchCompat
     private lateinit var vClassificationOption: View
     private var cameraSource: CameraSource? = null
     private var isClassifyPose = false
+    private var isPredictPose = false
     private val requestPermissionLauncher =
         registerForActivityResult(
             ActivityResultContracts.RequestPermission()
@@ -130,6 +132,12 @@ class MainActivity : AppCompatActivity() {
             isPoseClassifier()
         }
 
+    private var setPredictionListener =
+        CompoundButton.OnCheckedChangeListener { _, isChecked ->
+            isPredictPose = isChecked
+            cameraSource?.setPredictionEnabled(isChecked)
+        }
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_main)
@@ -147,9 +155,11 @@ class MainActivity : AppCompatActivity() {
         tvClassificationValue3 = findViewById(R.id.tvClassificationValue3)
         swClassification = findViewById(R.id.swPoseClassification)
         vClassificationOption = findViewById(R.id.vClassificationOption)
+        swPrediction = findViewById(R.id.swPrediction)
         initSpinner()
         spnModel.setSelection(modelPos)
         swClassification.setOnCheckedChangeListener(setClassificationListener)
+        swPrediction.setOnCheckedChangeListener(setPredictionListener)
         if (!isCameraPermissionGranted()) {
             requestPermission()
         }
@@ -215,6 +225,7 @@ class MainActivity : AppCompatActivity() {
                         prepareCamera()
                     }
                 isPoseClassifier()
+                cameraSource?.setPredictionEnabled(isPredictPose)
                 lifecycleScope.launch(Dispatchers.Main) {
                     cameraSource?.initCamera()
                 }
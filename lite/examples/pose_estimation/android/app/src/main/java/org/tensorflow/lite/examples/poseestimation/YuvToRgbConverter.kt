@@ -1,151 +1,162 @@
 package org.tensorflow.lite.examples.poseestimation
 
-import android.content.Context
 import android.graphics.Bitmap
 import android.graphics.ImageFormat
 import android.graphics.Rect
 import android.media.Image
-import android.renderscript.Allocation
-import android.renderscript.Element
-import android.renderscript.RenderScript
-import android.renderscript.ScriptIntrinsicYuvToRGB
+import java.io.Closeable
 import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Converts YUV_420_888 camera images to ARGB bitmaps on the CPU.
+ *
+ * The planes are read in place, whatever their row and pixel strides, and the rows of the image
+ * are converted in [bandCount] bands in parallel into a reused ARGB array, which is then copied
+ * into the output bitmap. The calling thread converts one band itself, the others run on a pool
+ * of [bandCount] - 1 threads that is shut down by [close].
+ */
+class YuvToRgbConverter(
+    private val bandCount: Int = Runtime.getRuntime().availableProcessors().coerceIn(1, MAX_BANDS)
+) : Closeable {
+
+    private val executor: ExecutorService? = if (bandCount > 1) {
+        Executors.newFixedThreadPool(bandCount - 1) { runnable ->
+            Thread(runnable, "YuvToRgbConverter").apply { isDaemon = true }
+        }
+    } else null
+
+    // Band 0 runs on the calling thread, the others are submitted to the executor.
+    private val bands = Array(bandCount) { Band(it) }
+
+    // The frame being converted, only set while yuvToRgb runs.
+    private lateinit var yPlane: ByteBuffer
+    private lateinit var uPlane: ByteBuffer
+    private lateinit var vPlane: ByteBuffer
+    private var yRowStride = 0
+    private var yPixelStride = 0
+    private var uvRowStride = 0
+    private var uvPixelStride = 0
+    private var left = 0
+    private var top = 0
+    private var width = 0
+    private var height = 0
+    private var pixels = IntArray(0)
+    private var pendingBands: CountDownLatch? = null
+    @Volatile
+    private var bandError: Throwable? = null
 
-class YuvToRgbConverter(context: Context) {
-    private val rs = RenderScript.create(context)
-    private val scriptYuvToRgb = ScriptIntrinsicYuvToRGB.create(rs, Element.U8_4(rs))
-
-    private var pixelCount: Int = -1
-    private lateinit var yuvBuffer: ByteBuffer
-    private lateinit var inputAllocation: Allocation
-    private lateinit var outputAllocation: Allocation
-
-    @Synchronized
     fun yuvToRgb(image: Image, output: Bitmap) {
+        require(image.format == ImageFormat.YUV_420_888) { "Unsupported format ${image.format}" }
+        val planes = image.planes
+        yuvToRgb(
+            planes[0].buffer, planes[0].rowStride, planes[0].pixelStride,
+            planes[1].buffer, planes[2].buffer, planes[1].rowStride, planes[1].pixelStride,
+            image.cropRect, output
+        )
+    }
 
-        // Ensure that the intermediate output byte buffer is allocated
-        if (!::yuvBuffer.isInitialized) {
-            pixelCount = image.cropRect.width() * image.cropRect.height()
-            yuvBuffer = ByteBuffer.allocateDirect(
-                pixelCount * ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8)
+    /**
+     * Converts the [crop] of YUV 4:2:0 planes given by their buffers and strides, the U and V
+     * planes sharing the same strides as in YUV_420_888 images.
+     */
+    @Synchronized
+    internal fun yuvToRgb(
+        yPlane: ByteBuffer,
+        yRowStride: Int,
+        yPixelStride: Int,
+        uPlane: ByteBuffer,
+        vPlane: ByteBuffer,
+        uvRowStride: Int,
+        uvPixelStride: Int,
+        crop: Rect,
+        output: Bitmap
+    ) {
+        require(output.width == crop.width() && output.height == crop.height()) {
+            "Output is ${output.width}x${output.height}, crop is ${crop.width()}x${crop.height()}"
         }
 
-        // Get the YUV data in byte array form
-        imageToByteBuffer(image, yuvBuffer)
-
-        // Ensure that the RenderScript inputs and outputs are allocated
-        if (!::inputAllocation.isInitialized) {
-            inputAllocation = Allocation.createSized(rs, Element.U8(rs), yuvBuffer.array().size)
-        }
-        if (!::outputAllocation.isInitialized) {
-            outputAllocation = Allocation.createFromBitmap(rs, output)
+        this.yPlane = yPlane
+        this.uPlane = uPlane
+        this.vPlane = vPlane
+        this.yRowStride = yRowStride
+        this.yPixelStride = yPixelStride
+        this.uvRowStride = uvRowStride
+        this.uvPixelStride = uvPixelStride
+        left = crop.left
+        top = crop.top
+        width = crop.width()
+        height = crop.height()
+        if (pixels.size != width * height) pixels = IntArray(width * height)
+
+        bandError = null
+        if (executor != null) {
+            val latch = CountDownLatch(bandCount - 1)
+            pendingBands = latch
+            for (band in 1 until bandCount) executor.execute(bands[band])
+            bands[0].run()
+            latch.await()
+        } else {
+            bands[0].run()
         }
+        bandError?.let { throw IllegalStateException("YUV conversion failed", it) }
 
-        // Convert YUV to RGB
-        inputAllocation.copyFrom(yuvBuffer.array())
-        scriptYuvToRgb.setInput(inputAllocation)
-        scriptYuvToRgb.forEach(outputAllocation)
-        outputAllocation.copyTo(output)
+        output.setPixels(pixels, 0, width, 0, 0, width, height)
     }
 
-    private fun imageToByteBuffer(image: Image, outputBuffer: ByteBuffer) {
-        assert(image.format == ImageFormat.YUV_420_888)
-
-        val imageCrop = image.cropRect
-        val imagePlanes = image.planes
-        val rowData = ByteArray(imagePlanes.first().rowStride)
-
-        imagePlanes.forEachIndexed { planeIndex, plane ->
-
-            // How many values are read in input for each output value written
-            // Only the Y plane has a value for every pixel, U and V have half the resolution i.e.
-            //
-            // Y Plane            U Plane    V Plane
-            // ===============    =======    =======
-            // Y Y Y Y Y Y Y Y    U U U U    V V V V
-            // Y Y Y Y Y Y Y Y    U U U U    V V V V
-            // Y Y Y Y Y Y Y Y    U U U U    V V V V
-            // Y Y Y Y Y Y Y Y    U U U U    V V V V
-            // Y Y Y Y Y Y Y Y
-            // Y Y Y Y Y Y Y Y
-            // Y Y Y Y Y Y Y Y
-            val outputStride: Int
-
-            // The index in the output buffer the next value will be written at
-            // For Y it's zero, for U and V we start at the end of Y and interleave them i.e.
-            //
-            // First chunk        Second chunk
-            // ===============    ===============
-            // Y Y Y Y Y Y Y Y    U V U V U V U V
-            // Y Y Y Y Y Y Y Y    U V U V U V U V
-            // Y Y Y Y Y Y Y Y    U V U V U V U V
-            // Y Y Y Y Y Y Y Y    U V U V U V U V
-            // Y Y Y Y Y Y Y Y
-            // Y Y Y Y Y Y Y Y
-            // Y Y Y Y Y Y Y Y
-            var outputOffset: Int
-
-            when (planeIndex) {
-                0 -> {
-                    outputStride = 1
-                    outputOffset = 0
-                }
-                1 -> {
-                    outputStride = 2
-                    outputOffset = pixelCount + 1
-                }
-                2 -> {
-                    outputStride = 2
-                    outputOffset = pixelCount
-                }
-                else -> {
-                    // Image contains more than 3 planes, something strange is going on
-                    return@forEachIndexed
-                }
-            }
-
-            val buffer = plane.buffer
-            val rowStride = plane.rowStride
-            val pixelStride = plane.pixelStride
+    override fun close() {
+        executor?.shutdown()
+    }
 
-            // We have to divide the width and height by two if it's not the Y plane
-            val planeCrop = if (planeIndex == 0) {
-                imageCrop
-            } else {
-                Rect(
-                    imageCrop.left / 2,
-                    imageCrop.top / 2,
-                    imageCrop.right / 2,
-                    imageCrop.bottom / 2
+    /** Converts the output rows of band [index], split on even rows so chroma rows aren't shared. */
+    private inner class Band(private val index: Int) : Runnable {
+        override fun run() {
+            try {
+                val rowPairs = (height + 1) / 2
+                convertRows(
+                    rowPairs * index / bandCount * 2,
+                    minOf(height, rowPairs * (index + 1) / bandCount * 2)
                 )
+            } catch (e: Throwable) {
+                bandError = e
+            } finally {
+                if (index > 0) pendingBands?.countDown()
             }
+        }
+    }
 
-            val planeWidth = planeCrop.width()
-            val planeHeight = planeCrop.height()
-
-            buffer.position(rowStride * planeCrop.top + pixelStride * planeCrop.left)
-            for (row in 0 until planeHeight) {
-                val length: Int
-                if (pixelStride == 1 && outputStride == 1) {
-                    // When there is a single stride value for pixel and output, we can just copy
-                    // the entire row in a single step
-                    length = planeWidth
-                    buffer.get(outputBuffer.array(), outputOffset, length)
-                    outputOffset += length
-                } else {
-                    // When either pixel or output have a stride > 1 we must copy pixel by pixel
-                    length = (planeWidth - 1) * pixelStride + 1
-                    buffer.get(rowData, 0, length)
-                    for (col in 0 until planeWidth) {
-                        outputBuffer.array()[outputOffset] = rowData[col * pixelStride]
-                        outputOffset += outputStride
-                    }
-                }
-
-                if (row < planeHeight - 1) {
-                    buffer.position(buffer.position() + rowStride - length)
-                }
+    /**
+     * Converts output rows [startRow, endRow) with the BT.601 limited range equations, in 10 bit
+     * fixed point rounded to nearest.
+     */
+    private fun convertRows(startRow: Int, endRow: Int) {
+        val y = yPlane
+        val u = uPlane
+        val v = vPlane
+        for (row in startRow until endRow) {
+            val yRow = (top + row) * yRowStride
+            val uvRow = ((top + row) shr 1) * uvRowStride
+            var out = row * width
+            for (col in 0 until width) {
+                val x = left + col
+                val luma = 1192 * ((y.get(yRow + x * yPixelStride).toInt() and 0xff) - 16) + 512
+                val uvOffset = uvRow + (x shr 1) * uvPixelStride
+                val cb = (u.get(uvOffset).toInt() and 0xff) - 128
+                val cr = (v.get(uvOffset).toInt() and 0xff) - 128
+                val r = clamp((luma + 1634 * cr) shr 10)
+                val g = clamp((luma - 833 * cr - 400 * cb) shr 10)
+                val b = clamp((luma + 2066 * cb) shr 10)
+                pixels[out++] = (0xff shl 24) or (r shl 16) or (g shl 8) or b
             }
         }
     }
+
+    private fun clamp(value: Int) = if (value < 0) 0 else if (value > 255) 255 else value
+
+    companion object {
+        // More bands than this only add scheduling overhead for preview sized images.
+        private const val MAX_BANDS = 4
+    }
 }
@@ -36,11 +36,12 @@ import kotlinx.coroutines.suspendCancellableCoroutine
 import org.tensorflow.lite.examples.poseestimation.VisualizationUtils
 import org.tensorflow.lite.examples.poseestimation.YuvToRgbConverter
 import org.tensorflow.lite.examples.poseestimation.data.Person
+import org.tensorflow.lite.examples.poseestimation.ml.MoveNet
 import org.tensorflow.lite.examples.poseestimation.ml.MoveNetMultiPose
 import org.tensorflow.lite.examples.poseestimation.ml.PoseClassifier
 import org.tensorflow.lite.examples.poseestimation.ml.PoseDetector
 import org.tensorflow.lite.examples.poseestimation.ml.TrackerType
-import java.util.*
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
 
@@ -56,19 +57,41 @@ class CameraSource(
         /** Threshold for confidence score. */
         private const val MIN_CONFIDENCE = .2f
         private const val TAG = "Camera Source"
+        private const val FPS_REPORT_INTERVAL_NANOS = 1_000_000_000L
     }
 
     private val lock = Any()
     private var detector: PoseDetector? = null
     private var classifier: PoseClassifier? = null
     private var isTrackerEnabled = false
-    private var yuvConverter: YuvToRgbConverter = YuvToRgbConverter(surfaceView.context)
+    private var yuvConverter: YuvToRgbConverter = YuvToRgbConverter()
     private lateinit var imageBitmap: Bitmap
 
-    /** Frame count that have been processed so far in an one second interval to calculate FPS. */
-    private var fpsTimer: Timer? = null
-    private var frameProcessedInOneSecondInterval = 0
-    private var framesPerSecond = 0
+    /** A camera frame, rotated for display, with the sensor [timestampNanos] it was taken at. */
+    private class Frame(val bitmap: Bitmap, val timestampNanos: Long)
+
+    /** A frame to draw, with its detected persons, or null to draw predicted ones. */
+    private class RenderJob(val frame: Frame, val persons: List<Person>?)
+
+    /**
+     * Latest frame waiting for each stage. A stage only ever picks up the newest frame: an older
+     * one still waiting when a new one arrives is dropped.
+     */
+    private val pendingInference = AtomicReference<Frame?>()
+    private val pendingRender = AtomicReference<RenderJob?>()
+
+    private val frameScheduler = FrameScheduler()
+    private val poseExtrapolator = PoseExtrapolator()
+
+    @Volatile
+    private var isPredictionEnabled = false
+    private var lastRenderedNanos = Long.MIN_VALUE
+
+    /** Frames handled per second by each stage: camera, inference and rendering. */
+    private val cameraFps = FpsCounter()
+    private val inferenceFps = FpsCounter()
+    private val renderFps = FpsCounter()
+    private var lastFpsReportNanos = 0L
 
     /** Detects, characterizes, and connects to a CameraDevice (used for all camera operations) */
     private val cameraManager: CameraManager by lazy {
@@ -90,6 +113,12 @@ class CameraSource(
 
     /** [Handler] corresponding to [imageReaderThread] */
     private var imageReaderHandler: Handler? = null
+
+    /** [HandlerThread]s where pose estimation and drawing run, and their [Handler]s */
+    private var inferenceThread: HandlerThread? = null
+    private var inferenceHandler: Handler? = null
+    private var renderThread: HandlerThread? = null
+    private var renderHandler: Handler? = null
     private var cameraId: String = ""
 
     suspend fun initCamera() {
@@ -116,8 +145,9 @@ class CameraSource(
                     imageBitmap, 0, 0, PREVIEW_WIDTH, PREVIEW_HEIGHT,
                     rotateMatrix, false
                 )
-                processImage(rotatedBitmap)
+                val frame = Frame(rotatedBitmap, image.timestamp)
                 image.close()
+                onCameraFrame(frame)
             }
         }, imageReaderHandler)
 
@@ -205,20 +235,21 @@ class CameraSource(
         (this.detector as? MoveNetMultiPose)?.setTracker(trackerType)
     }
 
+    /**
+     * Set whether camera frames that skip inference are drawn too, with the keypoints extrapolated
+     * from the last two results. Otherwise only the frames that went through inference are drawn.
+     */
+    fun setPredictionEnabled(isEnabled: Boolean) {
+        isPredictionEnabled = isEnabled
+    }
+
     fun resume() {
         imageReaderThread = HandlerThread("imageReaderThread").apply { start() }
         imageReaderHandler = Handler(imageReaderThread!!.looper)
-        fpsTimer = Timer()
-        fpsTimer?.scheduleAtFixedRate(
-            object : TimerTask() {
-                override fun run() {
-                    framesPerSecond = frameProcessedInOneSecondInterval
-                    frameProcessedInOneSecondInterval = 0
-                }
-            },
-            0,
-            1000
-        )
+        inferenceThread = HandlerThread("inferenceThread").apply { start() }
+        inferenceHandler = Handler(inferenceThread!!.looper)
+        renderThread = HandlerThread("renderThread").apply { start() }
+        renderHandler = Handler(renderThread!!.looper)
     }
 
     fun close() {
@@ -229,44 +260,124 @@ class CameraSource(
         imageReader?.close()
         imageReader = null
         stopImageReaderThread()
-        detector?.close()
-        detector = null
-        classifier?.close()
-        classifier = null
-        fpsTimer?.cancel()
-        fpsTimer = null
-        frameProcessedInOneSecondInterval = 0
-        framesPerSecond = 0
+        yuvConverter.close()
+        stopStageThreads()
+        pendingInference.set(null)
+        pendingRender.set(null)
+        synchronized(lock) {
+            detector?.close()
+            detector = null
+            classifier?.close()
+            classifier = null
+        }
+        frameScheduler.reset()
+        poseExtrapolator.reset()
+        cameraFps.reset()
+        inferenceFps.reset()
+        renderFps.reset()
     }
 
-    // process image
-    private fun processImage(bitmap: Bitmap) {
+    /**
+     * Hand a new camera frame to the inference stage, unless the frame scheduler skips it. Skipped
+     * frames go straight to the render stage when prediction is enabled.
+     */
+    private fun onCameraFrame(frame: Frame) {
+        cameraFps.tick(System.nanoTime())
+        if (frameScheduler.onCameraFrame(frame.timestampNanos)) {
+            if (pendingInference.getAndSet(frame) == null) {
+                // Without the stage threads, i.e. before resume(), run on the camera thread.
+                inferenceHandler?.post { runInference() } ?: runInference()
+            }
+        } else if (isPredictionEnabled) {
+            submitRender(RenderJob(frame, null))
+        }
+    }
+
+    /** Run pose estimation on the latest frame waiting for it, then hand it on for drawing. */
+    private fun runInference() {
+        val frame = pendingInference.getAndSet(null) ?: return
+        frameScheduler.onInferenceStart(System.nanoTime())
+        val persons = processImage(frame.bitmap)
+        val now = System.nanoTime()
+        frameScheduler.onInferenceEnd(now)
+        inferenceFps.tick(now)
+        poseExtrapolator.update(persons, frame.timestampNanos)
+        submitRender(RenderJob(frame, persons))
+        reportFps(now)
+    }
+
+    private fun submitRender(job: RenderJob) {
+        if (pendingRender.getAndSet(job) == null) {
+            renderHandler?.post { runRender() } ?: runRender()
+        }
+    }
+
+    /** Draw the latest frame waiting for it, unless a newer one was drawn already. */
+    private fun runRender() {
+        val job = pendingRender.getAndSet(null) ?: return
+        // A frame coming back from inference can be older than a skipped one drawn meanwhile.
+        if (job.frame.timestampNanos <= lastRenderedNanos) return
+        lastRenderedNanos = job.frame.timestampNanos
+        val persons = job.persons ?: poseExtrapolator.predict(job.frame.timestampNanos)
+        visualize(persons, job.frame.bitmap)
+        renderFps.tick(System.nanoTime())
+    }
+
+    /** Send the frame rates to the listener, once a second. */
+    private fun reportFps(now: Long) {
+        if (now - lastFpsReportNanos < FPS_REPORT_INTERVAL_NANOS) return
+        lastFpsReportNanos = now
+        listener?.onFPSListener(inferenceFps.fps(now))
+        listener?.onStageFps(cameraFps.fps(now), inferenceFps.fps(now), renderFps.fps(now))
+        Log.d(
+            TAG, "FPS camera: ${cameraFps.fps(now)}, inference: ${inferenceFps.fps(now)}, " +
+                    "render: ${renderFps.fps(now)}, skipped frames: ${frameScheduler.skippedFrames}"
+        )
+    }
+
+    // process image, returning the persons to draw
+    private fun processImage(bitmap: Bitmap): List<Person> {
         val persons = mutableListOf<Person>()
+        var firstPersonScore: Float? = null
         var classificationResult: List<Pair<String, Float>>? = null
 
         synchronized(lock) {
-            detector?.estimatePoses(bitmap)?.let {
-                persons.addAll(it)
-
-                // if the model only returns one item, allow running the Pose classifier.
-                if (persons.isNotEmpty()) {
+            val detector = detector
+            val poses = when (detector) {
+                is MoveNet -> detector.estimatePosesPrimitive(bitmap)
+                is MoveNetMultiPose -> detector.estimatePosesPrimitive(bitmap)
+                else -> null
+            }
+            if (poses != null) {
+                // Only build Person objects for the poses that are drawn.
+                for (pose in 0 until poses.count) {
+                    if (poses.scores[pose] > MIN_CONFIDENCE) persons.add(poses.person(pose))
+                }
+                if (poses.count > 0) {
+                    firstPersonScore = poses.scores[0]
                     classifier?.run {
-                        classificationResult = classify(persons[0])
+                        classificationResult = classify(poses.asPersons()[0])
+                    }
+                }
+            } else {
+                detector?.estimatePoses(bitmap)?.let {
+                    persons.addAll(it)
+
+                    // if the model only returns one item, allow running the Pose classifier.
+                    if (persons.isNotEmpty()) {
+                        firstPersonScore = persons[0].score
+                        classifier?.run {
+                            classificationResult = classify(persons[0])
+                        }
                     }
                 }
             }
         }
-        frameProcessedInOneSecondInterval++
-        if (frameProcessedInOneSecondInterval == 1) {
-            // send fps to view
-            listener?.onFPSListener(framesPerSecond)
-        }
-
         // if the model returns only one item, show that item's score.
-        if (persons.isNotEmpty()) {
-            listener?.onDetectedInfo(persons[0].score, classificationResult)
+        firstPersonScore?.let {
+            listener?.onDetectedInfo(it, classificationResult)
         }
-        visualize(persons, bitmap)
+        return persons
     }
 
     private fun visualize(persons: List<Person>, bitmap: Bitmap) {
@@ -319,9 +430,28 @@ class CameraSource(
         }
     }
 
+    private fun stopStageThreads() {
+        for (thread in listOf(inferenceThread, renderThread)) {
+            thread?.quitSafely()
+            try {
+                thread?.join()
+            } catch (e: InterruptedException) {
+                Log.d(TAG, e.message.toString())
+            }
+        }
+        inferenceThread = null
+        inferenceHandler = null
+        renderThread = null
+        renderHandler = null
+    }
+
     interface CameraSourceListener {
+        /** Called once a second with the number of frames that went through pose estimation. */
         fun onFPSListener(fps: Int)
 
+        /** Called once a second with the frames per second handled by each stage. */
+        fun onStageFps(cameraFps: Int, inferenceFps: Int, renderFps: Int) {}
+
         fun onDetectedInfo(personScore: Float?, poseLabels: List<Pair<String, Float>>?)
     }
 }
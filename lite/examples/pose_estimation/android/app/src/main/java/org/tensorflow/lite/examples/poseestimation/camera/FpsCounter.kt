@@ -0,0 +1,57 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.camera
+
+/**
+ * Counts the frames a pipeline stage handled over the last second. The times of the most recent
+ * frames are kept in a fixed ring, so counting a frame never allocates.
+ */
+class FpsCounter {
+
+    private val times = LongArray(MAX_FPS)
+    private var next = 0
+    private var size = 0
+
+    /** Record a frame handled at [timeNanos]. */
+    @Synchronized
+    fun tick(timeNanos: Long) {
+        times[next] = timeNanos
+        next = (next + 1) % MAX_FPS
+        if (size < MAX_FPS) size++
+    }
+
+    /** Return the number of frames handled in the second before [timeNanos]. */
+    @Synchronized
+    fun fps(timeNanos: Long): Int {
+        var count = 0
+        for (i in 0 until size) {
+            if (timeNanos - times[i] <= WINDOW_NANOS) count++
+        }
+        return count
+    }
+
+    @Synchronized
+    fun reset() {
+        next = 0
+        size = 0
+    }
+
+    companion object {
+        private const val MAX_FPS = 120
+        private const val WINDOW_NANOS = 1_000_000_000L
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.camera
+
+/**
+ * Decides which camera frames are sent to inference, skipping more of them as inference lags.
+ *
+ * A frame is sent when the detector is idle, or when it's expected to finish before the next
+ * camera frame arrives, so the frame would be the freshest one it could pick up. Otherwise the
+ * frame is skipped, since a newer one will be waiting by the time the detector is free. Both the
+ * inference latency and the camera frame interval are smoothed running averages.
+ *
+ * [clock] gives the current time in nanoseconds, in the time base of [onInferenceStart] and
+ * [onInferenceEnd].
+ */
+class FrameScheduler(private val clock: () -> Long = System::nanoTime) {
+
+    private var isInferring = false
+    private var inferenceStartNanos = 0L
+    private var meanLatencyNanos = 0.0
+    private var lastFrameNanos = -1L
+    private var meanFrameIntervalNanos = 0.0
+
+    /** Number of camera frames skipped since the last [reset]. */
+    @get:Synchronized
+    var skippedFrames = 0L
+        private set
+
+    /** Record a camera frame taken at [timestampNanos] and return whether to infer on it. */
+    @Synchronized
+    fun onCameraFrame(timestampNanos: Long): Boolean {
+        if (lastFrameNanos >= 0 && timestampNanos > lastFrameNanos) {
+            meanFrameIntervalNanos =
+                smooth(meanFrameIntervalNanos, (timestampNanos - lastFrameNanos).toDouble())
+        }
+        lastFrameNanos = timestampNanos
+
+        // The camera timestamps may use another clock, so only their intervals are compared.
+        val nextFrameNanos = clock() + meanFrameIntervalNanos
+        val send = !isInferring || nextFrameNanos >= inferenceStartNanos + meanLatencyNanos
+        if (!send) skippedFrames++
+        return send
+    }
+
+    /** Record that inference started on a frame at [timeNanos], in [clock] time. */
+    @Synchronized
+    fun onInferenceStart(timeNanos: Long) {
+        isInferring = true
+        inferenceStartNanos = timeNanos
+    }
+
+    /** Record that the inference started last finished at [timeNanos]. */
+    @Synchronized
+    fun onInferenceEnd(timeNanos: Long) {
+        isInferring = false
+        meanLatencyNanos = smooth(meanLatencyNanos, (timeNanos - inferenceStartNanos).toDouble())
+    }
+
+    @Synchronized
+    fun reset() {
+        isInferring = false
+        meanLatencyNanos = 0.0
+        lastFrameNanos = -1L
+        meanFrameIntervalNanos = 0.0
+        skippedFrames = 0L
+    }
+
+    private fun smooth(mean: Double, value: Double) =
+        if (mean == 0.0) value else mean + SMOOTHING * (value - mean)
+
+    companion object {
+        // Weight of the newest sample in the running averages.
+        private const val SMOOTHING = 0.2
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.camera
+
+import android.graphics.PointF
+import android.graphics.RectF
+import org.tensorflow.lite.examples.poseestimation.data.KeyPoint
+import org.tensorflow.lite.examples.poseestimation.data.Person
+
+/**
+ * Predicts where the detected persons are on camera frames that skipped inference, by moving
+ * each keypoint on at the velocity it had between the last two inference results.
+ *
+ * Persons are matched between results by their tracking id. Without ids they are only matched
+ * when both results hold a single person, as with the single pose models, since the list order of
+ * several untracked persons can change from one result to the next. Unmatched persons are drawn
+ * where they were last detected. Predictions never reach further than [maxAheadNanos] past
+ * the last result, so a stalled detector doesn't send the keypoints off the screen.
+ */
+class PoseExtrapolator(private val maxAheadNanos: Long = DEFAULT_MAX_AHEAD_NANOS) {
+
+    private var previous: List<Person> = emptyList()
+    private var previousNanos = 0L
+    private var latest: List<Person> = emptyList()
+    private var latestNanos = 0L
+
+    /** Record the [persons] detected on the frame taken at [timestampNanos]. */
+    @Synchronized
+    fun update(persons: List<Person>, timestampNanos: Long) {
+        previous = latest
+        previousNanos = latestNanos
+        latest = persons
+        latestNanos = timestampNanos
+    }
+
+    /** Return the persons predicted for the frame taken at [timestampNanos]. */
+    @Synchronized
+    fun predict(timestampNanos: Long): List<Person> {
+        val interval = latestNanos - previousNanos
+        val ahead = minOf(timestampNanos - latestNanos, maxAheadNanos)
+        if (previous.isEmpty() || interval <= 0 || ahead <= 0) return latest
+        val factor = ahead.toFloat() / interval
+        return latest.map { person ->
+            val match = if (person.id >= 0) {
+                previous.firstOrNull { it.id == person.id }
+            } else {
+                previous.singleOrNull()?.takeIf { latest.size == 1 }
+            }
+            match?.let { extrapolate(it, person, factor) } ?: person
+        }
+    }
+
+    @Synchronized
+    fun reset() {
+        previous = emptyList()
+        latest = emptyList()
+    }
+
+    /** Move [to] on by [factor] times its move from [from]. */
+    private fun extrapolate(from: Person, to: Person, factor: Float): Person {
+        if (from.keyPoints.size != to.keyPoints.size) return to
+        val keyPoints = to.keyPoints.mapIndexed { index, keyPoint ->
+            val start = from.keyPoints[index].coordinate
+            val end = keyPoint.coordinate
+            KeyPoint(
+                keyPoint.bodyPart,
+                PointF(end.x + (end.x - start.x) * factor, end.y + (end.y - start.y) * factor),
+                keyPoint.score
+            )
+        }
+        val boundingBox = if (from.boundingBox != null && to.boundingBox != null) {
+            RectF(
+                to.boundingBox.left + (to.boundingBox.left - from.boundingBox.left) * factor,
+                to.boundingBox.top + (to.boundingBox.top - from.boundingBox.top) * factor,
+                to.boundingBox.right + (to.boundingBox.right - from.boundingBox.right) * factor,
+                to.boundingBox.bottom + (to.boundingBox.bottom - from.boundingBox.bottom) * factor
+            )
+        } else to.boundingBox
+        return Person(to.id, keyPoints, boundingBox, to.score)
+    }
+
+    companion object {
+        // A few frames at 30 FPS.
+        private const val DEFAULT_MAX_AHEAD_NANOS = 150_000_000L
+    }
+}
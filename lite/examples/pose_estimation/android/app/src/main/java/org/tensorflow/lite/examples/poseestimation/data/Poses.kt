@@ -0,0 +1,137 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.data
+
+import android.graphics.PointF
+import android.graphics.RectF
+
+/**
+ * Poses of up to [capacity] persons with [keyPointCount] keypoints each, stored as primitive
+ * arrays so they can be refilled frame after frame without allocating.
+ *
+ * Keypoint k of pose i is at index i * keyPointCount + k of [x], [y] and [keyPointScores]. Bounding
+ * boxes, when there are any, are stored as left, top, right, bottom at index i * 4 of [boxes].
+ * [Person] objects are only built on demand, by [person] or by the views of [asPersons].
+ */
+class Poses(val capacity: Int, val keyPointCount: Int) {
+
+    val x = FloatArray(capacity * keyPointCount)
+    val y = FloatArray(capacity * keyPointCount)
+    val keyPointScores = FloatArray(capacity * keyPointCount)
+    val scores = FloatArray(capacity)
+    val boxes = FloatArray(capacity * 4)
+    val ids = IntArray(capacity) { -1 }
+
+    /** Number of poses currently stored. */
+    var count = 0
+        private set
+
+    /** Whether the poses have bounding boxes. */
+    var hasBoxes = false
+
+    /** Body part of each keypoint index. */
+    var bodyParts: List<BodyPart> = BodyPart.values().asList()
+        private set
+
+    // Persons built for the current poses by asPersons(), dropped whenever the poses change.
+    private val personCache = arrayOfNulls<Person>(capacity)
+
+    /** Remove all poses. */
+    fun clear() {
+        count = 0
+        personCache.fill(null)
+    }
+
+    /**
+     * Add a pose with no id and no keypoints yet, and return its index. Its keypoints and box are
+     * then written into the arrays.
+     */
+    fun add(score: Float): Int {
+        check(count < capacity) { "Can't hold more than $capacity poses." }
+        val index = count++
+        scores[index] = score
+        ids[index] = -1
+        personCache[index] = null
+        return index
+    }
+
+    /** Index of keypoint [keyPoint] of pose [pose] in [x], [y] and [keyPointScores]. */
+    fun keyPointIndex(pose: Int, keyPoint: Int): Int = pose * keyPointCount + keyPoint
+
+    /** Build a [Person] holding a copy of pose [index]. */
+    fun person(index: Int): Person {
+        val offset = index * keyPointCount
+        val keyPoints = List(keyPointCount) { k ->
+            KeyPoint(bodyParts[k], PointF(x[offset + k], y[offset + k]), keyPointScores[offset + k])
+        }
+        val boundingBox = if (hasBoxes) {
+            val box = index * 4
+            RectF(boxes[box], boxes[box + 1], boxes[box + 2], boxes[box + 3])
+        } else null
+        return Person(ids[index], keyPoints, boundingBox, scores[index])
+    }
+
+    /** Build a list of [Person]s holding a copy of every pose. */
+    fun toPersons(): List<Person> = List(count) { person(it) }
+
+    /**
+     * Return the poses as a list of [Person]s, each built the first time it is read. The list reads
+     * the current poses, so it's only valid until they change, e.g. on the next frame.
+     */
+    fun asPersons(): List<Person> = object : AbstractList<Person>() {
+        override val size: Int
+            get() = count
+
+        override fun get(index: Int): Person {
+            if (index !in 0 until count) throw IndexOutOfBoundsException("$index of $count")
+            return personCache[index] ?: person(index).also { personCache[index] = it }
+        }
+    }
+
+    companion object {
+        /** Copy [persons], which must all have the same number of keypoints, into new Poses. */
+        fun of(persons: List<Person>): Poses {
+            val keyPointCount = persons.firstOrNull()?.keyPoints?.size ?: 0
+            val poses = Poses(persons.size, keyPointCount)
+            persons.firstOrNull()?.let { first ->
+                poses.bodyParts = first.keyPoints.map { it.bodyPart }
+            }
+            poses.hasBoxes = persons.isNotEmpty() && persons.all { it.boundingBox != null }
+            for (person in persons) {
+                require(person.keyPoints.size == keyPointCount) {
+                    "All persons must have $keyPointCount keypoints."
+                }
+                val index = poses.add(person.score)
+                poses.ids[index] = person.id
+                person.keyPoints.forEachIndexed { k, keyPoint ->
+                    val i = poses.keyPointIndex(index, k)
+                    poses.x[i] = keyPoint.coordinate.x
+                    poses.y[i] = keyPoint.coordinate.y
+                    poses.keyPointScores[i] = keyPoint.score
+                }
+                if (poses.hasBoxes) {
+                    val box = person.boundingBox!!
+                    poses.boxes[index * 4] = box.left
+                    poses.boxes[index * 4 + 1] = box.top
+                    poses.boxes[index * 4 + 2] = box.right
+                    poses.boxes[index * 4 + 3] = box.bottom
+                }
+            }
+            return poses
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.ml
+
+import android.graphics.Bitmap
+import android.graphics.RectF
+import java.nio.ByteBuffer
+import kotlin.math.ceil
+import kotlin.math.floor
+
+/**
+ * Samples a region of a bitmap into an RGB uint8 model input of outputWidth x outputHeight, with
+ * bilinear filtering.
+ *
+ * This fuses cropping and resizing into a single pass, without intermediate bitmaps. Parts of the
+ * region outside of the bitmap are black. Only the pixels under the region are copied out of the
+ * bitmap, into an array that is reused from call to call, so sampling doesn't allocate once that
+ * array is large enough. Not thread safe.
+ */
+class CropRegionSampler(private val outputWidth: Int, private val outputHeight: Int) {
+
+    private var pixels = IntArray(0)
+
+    // For each output column, the left source column and the weight of the right one.
+    private val columnIndices = IntArray(outputWidth)
+    private val columnWeights = FloatArray(outputWidth)
+
+    /**
+     * Sample [region], in pixel coordinates of [bitmap], into [output] from its position 0.
+     */
+    fun sample(bitmap: Bitmap, region: RectF, output: ByteBuffer) {
+        val imageWidth = bitmap.width
+        val imageHeight = bitmap.height
+        val scaleX = region.width() / outputWidth
+        val scaleY = region.height() / outputHeight
+
+        // Source pixels that samples can read, as pixel centers are half a pixel off the corners.
+        val left = (floor(region.left - 0.5f).toInt()).coerceIn(0, imageWidth)
+        val top = (floor(region.top - 0.5f).toInt()).coerceIn(0, imageHeight)
+        val right = (ceil(region.right + 0.5f).toInt()).coerceIn(0, imageWidth)
+        val bottom = (ceil(region.bottom + 0.5f).toInt()).coerceIn(0, imageHeight)
+        val copyWidth = right - left
+        val copyHeight = bottom - top
+        if (copyWidth > 0 && copyHeight > 0) {
+            if (pixels.size < copyWidth * copyHeight) pixels = IntArray(copyWidth * copyHeight)
+            bitmap.getPixels(pixels, 0, copyWidth, left, top, copyWidth, copyHeight)
+        }
+
+        for (x in 0 until outputWidth) {
+            val sourceX = region.left + (x + 0.5f) * scaleX - 0.5f
+            val column = floor(sourceX)
+            columnIndices[x] = column.toInt()
+            columnWeights[x] = sourceX - column
+        }
+
+        output.rewind()
+        for (y in 0 until outputHeight) {
+            val sourceY = region.top + (y + 0.5f) * scaleY - 0.5f
+            val row = floor(sourceY)
+            val topRow = row.toInt()
+            val bottomWeight = sourceY - row
+            val topWeight = 1f - bottomWeight
+            for (x in 0 until outputWidth) {
+                val column = columnIndices[x]
+                val rightWeight = columnWeights[x]
+                val leftWeight = 1f - rightWeight
+                val topLeft = pixelAt(column, topRow, left, top, right, bottom, copyWidth)
+                val topRight = pixelAt(column + 1, topRow, left, top, right, bottom, copyWidth)
+                val bottomLeft = pixelAt(column, topRow + 1, left, top, right, bottom, copyWidth)
+                val bottomRight =
+                    pixelAt(column + 1, topRow + 1, left, top, right, bottom, copyWidth)
+                val w00 = topWeight * leftWeight
+                val w01 = topWeight * rightWeight
+                val w10 = bottomWeight * leftWeight
+                val w11 = bottomWeight * rightWeight
+                for (shift in CHANNEL_SHIFTS) {
+                    val value = w00 * (topLeft shr shift and 0xff) +
+                            w01 * (topRight shr shift and 0xff) +
+                            w10 * (bottomLeft shr shift and 0xff) +
+                            w11 * (bottomRight shr shift and 0xff)
+                    output.put((value + 0.5f).toInt().coerceAtMost(255).toByte())
+                }
+            }
+        }
+        output.rewind()
+    }
+
+    // Color of a source pixel, or black outside of the copied pixels.
+    private fun pixelAt(
+        x: Int, y: Int, left: Int, top: Int, right: Int, bottom: Int, copyWidth: Int
+    ): Int = if (x < left || x >= right || y < top || y >= bottom) 0
+    else pixels[(y - top) * copyWidth + (x - left)]
+
+    companion object {
+        // Red, green and blue, in the order the model takes them.
+        private val CHANNEL_SHIFTS = intArrayOf(16, 8, 0)
+    }
+}
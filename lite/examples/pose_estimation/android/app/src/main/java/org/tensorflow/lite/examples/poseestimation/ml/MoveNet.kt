@@ -19,16 +19,12 @@ package org.tensorflow.lite.examples.poseestimation.ml
 import android.content.Context
 import android.graphics.*
 import android.os.SystemClock
-import org.tensorflow.lite.DataType
 import org.tensorflow.lite.Interpreter
 import org.tensorflow.lite.examples.poseestimation.data.*
 import org.tensorflow.lite.gpu.GpuDelegate
 import org.tensorflow.lite.support.common.FileUtil
-import org.tensorflow.lite.support.image.ImageProcessor
-import org.tensorflow.lite.support.image.TensorImage
-import org.tensorflow.lite.support.image.ops.ResizeOp
-import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import kotlin.math.abs
 import kotlin.math.max
 import kotlin.math.min
@@ -49,6 +45,12 @@ class MoveNet(private val interpreter: Interpreter, private var gpuDelegate: Gpu
         // body keypoints.
         private const val TORSO_EXPANSION_RATIO = 1.9f
         private const val BODY_EXPANSION_RATIO = 1.2f
+        private val TORSO_JOINTS = intArrayOf(
+            BodyPart.LEFT_SHOULDER.position,
+            BodyPart.RIGHT_SHOULDER.position,
+            BodyPart.LEFT_HIP.position,
+            BodyPart.RIGHT_HIP.position
+        )
 
         // TFLite file names.
         private const val LIGHTNING_FILENAME = "movenet_lightning.tflite"
@@ -87,86 +89,75 @@ class MoveNet(private val interpreter: Interpreter, private var gpuDelegate: Gpu
 
     private var cropRegion: RectF? = null
     private var lastInferenceTimeNanos: Long = -1
-    private val inputWidth = interpreter.getInputTensor(0).shape()[1]
-    private val inputHeight = interpreter.getInputTensor(0).shape()[2]
+    // The input tensor is [1, height, width, 3].
+    private val inputHeight = interpreter.getInputTensor(0).shape()[1]
+    private val inputWidth = interpreter.getInputTensor(0).shape()[2]
     private var outputShape: IntArray = interpreter.getOutputTensor(0).shape()
+    private val numKeyPoints = outputShape[2]
+
+    // Buffers reused from frame to frame, so that running the model doesn't allocate.
+    private val inputBuffer = ByteBuffer.allocateDirect(inputWidth * inputHeight * 3)
+        .order(ByteOrder.nativeOrder())
+    private val outputBuffer = ByteBuffer.allocateDirect(interpreter.getOutputTensor(0).numBytes())
+        .order(ByteOrder.nativeOrder())
+    private val output = outputBuffer.asFloatBuffer()
+    private val cropSampler = CropRegionSampler(inputWidth, inputHeight)
+    private val cropRect = RectF()
+
+    // The detected pose, reused from frame to frame. It's the only pose, so its keypoints are the
+    // first numKeyPoints values of the arrays.
+    private val poses = Poses(1, numKeyPoints)
+    private val keyPointX = poses.x
+    private val keyPointY = poses.y
+    private val keyPointScore = poses.keyPointScores
+
+    /**
+     * Run TFlite model and Returns a list of "Person" corresponding to the input image. The
+     * person is a copy; use [estimatePosesPrimitive] to avoid building it.
+     */
+    override fun estimatePoses(bitmap: Bitmap): List<Person> =
+        estimatePosesPrimitive(bitmap).toPersons()
 
-    override fun estimatePoses(bitmap: Bitmap): List<Person> {
+    /**
+     * Run TFlite model and return the pose in the input image. The returned poses are reused, so
+     * they're only valid until the next frame.
+     */
+    fun estimatePosesPrimitive(bitmap: Bitmap): Poses {
         val inferenceStartTimeNanos = SystemClock.elapsedRealtimeNanos()
-        if (cropRegion == null) {
-            cropRegion = initRectF(bitmap.width, bitmap.height)
+        val region = cropRegion ?: RectF().also {
+            initRectF(bitmap.width, bitmap.height, it)
+            cropRegion = it
         }
-        var totalScore = 0f
 
-        val numKeyPoints = outputShape[2]
-        val keyPoints = mutableListOf<KeyPoint>()
-
-        cropRegion?.run {
-            val rect = RectF(
-                (left * bitmap.width),
-                (top * bitmap.height),
-                (right * bitmap.width),
-                (bottom * bitmap.height)
-            )
-            val detectBitmap = Bitmap.createBitmap(
-                rect.width().toInt(),
-                rect.height().toInt(),
-                Bitmap.Config.ARGB_8888
-            )
-            Canvas(detectBitmap).drawBitmap(
-                bitmap,
-                -rect.left,
-                -rect.top,
-                null
-            )
-            val inputTensor = processInputImage(detectBitmap, inputWidth, inputHeight)
-            val outputTensor = TensorBuffer.createFixedSize(outputShape, DataType.FLOAT32)
-            val widthRatio = detectBitmap.width.toFloat() / inputWidth
-            val heightRatio = detectBitmap.height.toFloat() / inputHeight
+        // Crop and resize the region straight into the model input.
+        cropRect.set(
+            region.left * bitmap.width,
+            region.top * bitmap.height,
+            region.right * bitmap.width,
+            region.bottom * bitmap.height
+        )
+        cropSampler.sample(bitmap, cropRect, inputBuffer)
+        outputBuffer.rewind()
+        interpreter.run(inputBuffer, outputBuffer)
 
-            val positions = mutableListOf<Float>()
+        // The model outputs (y, x, score) for each keypoint, relative to the crop region.
+        poses.clear()
+        var totalScore = 0f
+        for (idx in 0 until numKeyPoints) {
+            keyPointY[idx] = cropRect.top + output.get(idx * 3 + 0) * cropRect.height()
+            keyPointX[idx] = cropRect.left + output.get(idx * 3 + 1) * cropRect.width()
+            keyPointScore[idx] = output.get(idx * 3 + 2)
+            totalScore += keyPointScore[idx]
+        }
 
-            inputTensor?.let { input ->
-                interpreter.run(input.buffer, outputTensor.buffer.rewind())
-                val output = outputTensor.floatArray
-                for (idx in 0 until numKeyPoints) {
-                    val x = output[idx * 3 + 1] * inputWidth * widthRatio
-                    val y = output[idx * 3 + 0] * inputHeight * heightRatio
+        poses.add(totalScore / numKeyPoints)
 
-                    positions.add(x)
-                    positions.add(y)
-                    val score = output[idx * 3 + 2]
-                    keyPoints.add(
-                        KeyPoint(
-                            BodyPart.fromInt(idx),
-                            PointF(
-                                x,
-                                y
-                            ),
-                            score
-                        )
-                    )
-                    totalScore += score
-                }
-            }
-            val matrix = Matrix()
-            val points = positions.toFloatArray()
+        // new crop region
+        determineRectF(bitmap.width, bitmap.height, region)
 
-            matrix.postTranslate(rect.left, rect.top)
-            matrix.mapPoints(points)
-            keyPoints.forEachIndexed { index, keyPoint ->
-                keyPoint.coordinate =
-                    PointF(
-                        points[index * 2],
-                        points[index * 2 + 1]
-                    )
-            }
-            // new crop region
-            cropRegion = determineRectF(keyPoints, bitmap.width, bitmap.height)
-        }
         lastInferenceTimeNanos =
             SystemClock.elapsedRealtimeNanos() - inferenceStartTimeNanos
-        return listOf(Person(keyPoints = keyPoints, score = totalScore / numKeyPoints))
+        return poses
     }
 
     override fun lastInferenceTimeNanos(): Long = lastInferenceTimeNanos
@@ -177,30 +168,13 @@ class MoveNet(private val interpreter: Interpreter, private var gpuDelegate: Gpu
         cropRegion = null
     }
 
-    /**
-     * Prepare input image for detection
-     */
-    private fun processInputImage(bitmap: Bitmap, inputWidth: Int, inputHeight: Int): TensorImage? {
-        val width: Int = bitmap.width
-        val height: Int = bitmap.height
-
-        val size = if (height > width) width else height
-        val imageProcessor = ImageProcessor.Builder().apply {
-            add(ResizeWithCropOrPadOp(size, size))
-            add(ResizeOp(inputWidth, inputHeight, ResizeOp.ResizeMethod.BILINEAR))
-        }.build()
-        val tensorImage = TensorImage(DataType.UINT8)
-        tensorImage.load(bitmap)
-        return imageProcessor.process(tensorImage)
-    }
-
     /**
      * Defines the default crop region.
      * The function provides the initial crop region (pads the full image from both
      * sides to make it a square image) when the algorithm cannot reliably determine
      * the crop region from the previous frame.
      */
-    private fun initRectF(imageWidth: Int, imageHeight: Int): RectF {
+    private fun initRectF(imageWidth: Int, imageHeight: Int, out: RectF) {
         val xMin: Float
         val yMin: Float
         val width: Float
@@ -216,7 +190,7 @@ class MoveNet(private val interpreter: Interpreter, private var gpuDelegate: Gpu
             yMin = 0f
             xMin = (imageWidth / 2f - imageHeight / 2) / imageWidth
         }
-        return RectF(
+        out.set(
             xMin,
             yMin,
             xMin + width,
@@ -229,12 +203,12 @@ class MoveNet(private val interpreter: Interpreter, private var gpuDelegate: Gpu
      * This function checks whether the model is confident at predicting one of the
      * shoulders/hips which is required to determine a good crop region.
      */
-    private fun torsoVisible(keyPoints: List<KeyPoint>): Boolean {
-        return ((keyPoints[BodyPart.LEFT_HIP.position].score > MIN_CROP_KEYPOINT_SCORE).or(
-            keyPoints[BodyPart.RIGHT_HIP.position].score > MIN_CROP_KEYPOINT_SCORE
+    private fun torsoVisible(): Boolean {
+        return ((keyPointScore[BodyPart.LEFT_HIP.position] > MIN_CROP_KEYPOINT_SCORE).or(
+            keyPointScore[BodyPart.RIGHT_HIP.position] > MIN_CROP_KEYPOINT_SCORE
         )).and(
-            (keyPoints[BodyPart.LEFT_SHOULDER.position].score > MIN_CROP_KEYPOINT_SCORE).or(
-                keyPoints[BodyPart.RIGHT_SHOULDER.position].score > MIN_CROP_KEYPOINT_SCORE
+            (keyPointScore[BodyPart.LEFT_SHOULDER.position] > MIN_CROP_KEYPOINT_SCORE).or(
+                keyPointScore[BodyPart.RIGHT_SHOULDER.position] > MIN_CROP_KEYPOINT_SCORE
             )
         )
     }
@@ -247,107 +221,59 @@ class MoveNet(private val interpreter: Interpreter, private var gpuDelegate: Gpu
      * the distances between each joints and the center point.
      * When the model is not confident with the four torso joint predictions, the
      * function returns a default crop which is the full image padded to square.
+     * The region is written into [out].
      */
-    private fun determineRectF(
-        keyPoints: List<KeyPoint>,
-        imageWidth: Int,
-        imageHeight: Int
-    ): RectF {
-        val targetKeyPoints = mutableListOf<KeyPoint>()
-        keyPoints.forEach {
-            targetKeyPoints.add(
-                KeyPoint(
-                    it.bodyPart,
-                    PointF(
-                        it.coordinate.x,
-                        it.coordinate.y
-                    ),
-                    it.score
-                )
-            )
+    private fun determineRectF(imageWidth: Int, imageHeight: Int, out: RectF) {
+        if (!torsoVisible()) {
+            initRectF(imageWidth, imageHeight, out)
+            return
         }
-        if (torsoVisible(keyPoints)) {
-            val centerX =
-                (targetKeyPoints[BodyPart.LEFT_HIP.position].coordinate.x +
-                        targetKeyPoints[BodyPart.RIGHT_HIP.position].coordinate.x) / 2f
-            val centerY =
-                (targetKeyPoints[BodyPart.LEFT_HIP.position].coordinate.y +
-                        targetKeyPoints[BodyPart.RIGHT_HIP.position].coordinate.y) / 2f
-
-            val torsoAndBodyDistances =
-                determineTorsoAndBodyDistances(keyPoints, targetKeyPoints, centerX, centerY)
-
-            val list = listOf(
-                torsoAndBodyDistances.maxTorsoXDistance * TORSO_EXPANSION_RATIO,
-                torsoAndBodyDistances.maxTorsoYDistance * TORSO_EXPANSION_RATIO,
-                torsoAndBodyDistances.maxBodyXDistance * BODY_EXPANSION_RATIO,
-                torsoAndBodyDistances.maxBodyYDistance * BODY_EXPANSION_RATIO
-            )
-
-            var cropLengthHalf = list.maxOrNull() ?: 0f
-            val tmp = listOf(centerX, imageWidth - centerX, centerY, imageHeight - centerY)
-            cropLengthHalf = min(cropLengthHalf, tmp.maxOrNull() ?: 0f)
-            val cropCorner = Pair(centerY - cropLengthHalf, centerX - cropLengthHalf)
-
-            return if (cropLengthHalf > max(imageWidth, imageHeight) / 2f) {
-                initRectF(imageWidth, imageHeight)
-            } else {
-                val cropLength = cropLengthHalf * 2
-                RectF(
-                    cropCorner.second / imageWidth,
-                    cropCorner.first / imageHeight,
-                    (cropCorner.second + cropLength) / imageWidth,
-                    (cropCorner.first + cropLength) / imageHeight,
-                )
-            }
-        } else {
-            return initRectF(imageWidth, imageHeight)
-        }
-    }
-
-    /**
-     * Calculates the maximum distance from each keypoints to the center location.
-     * The function returns the maximum distances from the two sets of keypoints:
-     * full 17 keypoints and 4 torso keypoints. The returned information will be
-     * used to determine the crop size. See determineRectF for more detail.
-     */
-    private fun determineTorsoAndBodyDistances(
-        keyPoints: List<KeyPoint>,
-        targetKeyPoints: List<KeyPoint>,
-        centerX: Float,
-        centerY: Float
-    ): TorsoAndBodyDistance {
-        val torsoJoints = listOf(
-            BodyPart.LEFT_SHOULDER.position,
-            BodyPart.RIGHT_SHOULDER.position,
-            BodyPart.LEFT_HIP.position,
-            BodyPart.RIGHT_HIP.position
-        )
+        val leftHip = BodyPart.LEFT_HIP.position
+        val rightHip = BodyPart.RIGHT_HIP.position
+        val centerX = (keyPointX[leftHip] + keyPointX[rightHip]) / 2f
+        val centerY = (keyPointY[leftHip] + keyPointY[rightHip]) / 2f
 
+        // Calculates the maximum distance from the 4 torso keypoints and from all confident
+        // keypoints to the center location, to determine the crop size.
         var maxTorsoYRange = 0f
         var maxTorsoXRange = 0f
-        torsoJoints.forEach { joint ->
-            val distY = abs(centerY - targetKeyPoints[joint].coordinate.y)
-            val distX = abs(centerX - targetKeyPoints[joint].coordinate.x)
+        for (joint in TORSO_JOINTS) {
+            val distY = abs(centerY - keyPointY[joint])
+            val distX = abs(centerX - keyPointX[joint])
             if (distY > maxTorsoYRange) maxTorsoYRange = distY
             if (distX > maxTorsoXRange) maxTorsoXRange = distX
         }
-
         var maxBodyYRange = 0f
         var maxBodyXRange = 0f
-        for (joint in keyPoints.indices) {
-            if (keyPoints[joint].score < MIN_CROP_KEYPOINT_SCORE) continue
-            val distY = abs(centerY - keyPoints[joint].coordinate.y)
-            val distX = abs(centerX - keyPoints[joint].coordinate.x)
-
+        for (joint in 0 until numKeyPoints) {
+            if (keyPointScore[joint] < MIN_CROP_KEYPOINT_SCORE) continue
+            val distY = abs(centerY - keyPointY[joint])
+            val distX = abs(centerX - keyPointX[joint])
             if (distY > maxBodyYRange) maxBodyYRange = distY
             if (distX > maxBodyXRange) maxBodyXRange = distX
         }
-        return TorsoAndBodyDistance(
-            maxTorsoYRange,
-            maxTorsoXRange,
-            maxBodyYRange,
-            maxBodyXRange
+
+        var cropLengthHalf = max(
+            max(maxTorsoXRange * TORSO_EXPANSION_RATIO, maxTorsoYRange * TORSO_EXPANSION_RATIO),
+            max(maxBodyXRange * BODY_EXPANSION_RATIO, maxBodyYRange * BODY_EXPANSION_RATIO)
+        )
+        cropLengthHalf = min(
+            cropLengthHalf,
+            max(max(centerX, imageWidth - centerX), max(centerY, imageHeight - centerY))
         )
+
+        if (cropLengthHalf > max(imageWidth, imageHeight) / 2f) {
+            initRectF(imageWidth, imageHeight, out)
+        } else {
+            val cropLength = cropLengthHalf * 2
+            val cropTop = centerY - cropLengthHalf
+            val cropLeft = centerX - cropLengthHalf
+            out.set(
+                cropLeft / imageWidth,
+                cropTop / imageHeight,
+                (cropLeft + cropLength) / imageWidth,
+                (cropTop + cropLength) / imageHeight
+            )
+        }
     }
 }
@@ -18,15 +18,12 @@ package org.tensorflow.lite.examples.poseestimation.ml
 
 import android.content.Context
 import android.graphics.Bitmap
-import android.graphics.PointF
-import android.graphics.RectF
 import android.os.SystemClock
 import org.tensorflow.lite.DataType
 import org.tensorflow.lite.Interpreter
-import org.tensorflow.lite.examples.poseestimation.data.BodyPart
 import org.tensorflow.lite.examples.poseestimation.data.Device
-import org.tensorflow.lite.examples.poseestimation.data.KeyPoint
 import org.tensorflow.lite.examples.poseestimation.data.Person
+import org.tensorflow.lite.examples.poseestimation.data.Poses
 import org.tensorflow.lite.examples.poseestimation.tracker.*
 import org.tensorflow.lite.gpu.GpuDelegate
 import org.tensorflow.lite.support.common.FileUtil
@@ -35,7 +32,8 @@ import org.tensorflow.lite.support.image.ImageProcessor
 import org.tensorflow.lite.support.image.TensorImage
 import org.tensorflow.lite.support.image.ops.ResizeOp
 import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import kotlin.math.ceil
 
 class MoveNetMultiPose(
@@ -54,6 +52,13 @@ class MoveNetMultiPose(
     private var lastInferenceTimeNanos: Long = -1
     private var tracker: AbstractTracker? = null
 
+    // Output buffer and poses, reused from frame to frame.
+    private val outputBuffer = ByteBuffer.allocateDirect(
+        interpreter.getOutputTensor(0).numBytes()
+    ).order(ByteOrder.nativeOrder())
+    private val output = outputBuffer.asFloatBuffer()
+    private val poses = Poses(outputShape[1], KEYPOINT_COUNT)
+
     companion object {
         private const val DYNAMIC_MODEL_TARGET_INPUT_SIZE = 256
         private const val SHAPE_MULTIPLE = 32.0
@@ -103,14 +108,6 @@ class MoveNetMultiPose(
         }
     }
 
-    /**
-     * Convert x and y coordinates ([0-1]) returns from the TFlite model
-     * to the coordinates corresponding to the input image.
-     */
-    private fun resizeKeypoint(x: Float, y: Float): PointF {
-        return PointF(resizeX(x), resizeY(y))
-    }
-
     private fun resizeX(x: Float): Float {
         return if (imageWidth > imageHeight) {
             val ratioWidth = imageWidth.toFloat() / targetWidth
@@ -182,70 +179,46 @@ class MoveNetMultiPose(
     }
 
     /**
-     * Run tracker (if available) and process the output.
+     * Run tracker (if available) and process the output into [poses].
      */
-    private fun postProcess(modelOutput: FloatArray): List<Person> {
-        val persons = mutableListOf<Person>()
-        for (idx in modelOutput.indices step outputShape[2]) {
-            val personScore = modelOutput[idx + DETECTION_SCORE_INDEX]
+    private fun postProcess() {
+        poses.clear()
+        poses.hasBoxes = true
+        val outputStride = outputShape[2]
+        for (row in 0 until outputShape[1]) {
+            val idx = row * outputStride
+            val personScore = output.get(idx + DETECTION_SCORE_INDEX)
             if (personScore < DETECTION_THRESHOLD) continue
-            val positions = modelOutput.copyOfRange(idx, idx + 51)
-            val keyPoints = mutableListOf<KeyPoint>()
+            val pose = poses.add(personScore)
             for (i in 0 until KEYPOINT_COUNT) {
-                val y = positions[i * OUTPUTS_COUNT_PER_KEYPOINT]
-                val x = positions[i * OUTPUTS_COUNT_PER_KEYPOINT + 1]
-                val score = positions[i * OUTPUTS_COUNT_PER_KEYPOINT + 2]
-                keyPoints.add(KeyPoint(BodyPart.fromInt(i), PointF(x, y), score))
+                val keyPoint = poses.keyPointIndex(pose, i)
+                poses.y[keyPoint] = output.get(idx + i * OUTPUTS_COUNT_PER_KEYPOINT)
+                poses.x[keyPoint] = output.get(idx + i * OUTPUTS_COUNT_PER_KEYPOINT + 1)
+                poses.keyPointScores[keyPoint] =
+                    output.get(idx + i * OUTPUTS_COUNT_PER_KEYPOINT + 2)
             }
-            val yMin = modelOutput[idx + BOUNDING_BOX_Y_MIN_INDEX]
-            val xMin = modelOutput[idx + BOUNDING_BOX_X_MIN_INDEX]
-            val yMax = modelOutput[idx + BOUNDING_BOX_Y_MAX_INDEX]
-            val xMax = modelOutput[idx + BOUNDING_BOX_X_MAX_INDEX]
-            val boundingBox = RectF(xMin, yMin, xMax, yMax)
-            persons.add(
-                Person(
-                    keyPoints = keyPoints,
-                    boundingBox = boundingBox,
-                    score = personScore
-                )
-            )
+            poses.boxes[pose * 4] = output.get(idx + BOUNDING_BOX_X_MIN_INDEX)
+            poses.boxes[pose * 4 + 1] = output.get(idx + BOUNDING_BOX_Y_MIN_INDEX)
+            poses.boxes[pose * 4 + 2] = output.get(idx + BOUNDING_BOX_X_MAX_INDEX)
+            poses.boxes[pose * 4 + 3] = output.get(idx + BOUNDING_BOX_Y_MAX_INDEX)
         }
 
-        if (persons.isEmpty()) return emptyList()
+        if (poses.count == 0) return
 
-        if (tracker == null) {
-            persons.forEach {
-                it.keyPoints.forEach { key ->
-                    key.coordinate = resizeKeypoint(key.coordinate.x, key.coordinate.y)
-                }
-            }
-            return persons
-        } else {
-            val trackPersons = mutableListOf<Person>()
-            tracker?.apply(persons, System.currentTimeMillis() * 1000)?.forEach {
-                val resizeKeyPoint = mutableListOf<KeyPoint>()
-                it.keyPoints.forEach { key ->
-                    resizeKeyPoint.add(
-                        KeyPoint(
-                            key.bodyPart,
-                            resizeKeypoint(key.coordinate.x, key.coordinate.y),
-                            key.score
-                        )
-                    )
-                }
+        // The tracker works on the normalized coordinates returned by the model.
+        tracker?.apply(poses, System.currentTimeMillis() * 1000)
 
-                var resizeBoundingBox: RectF? = null
-                it.boundingBox?.let { boundingBox ->
-                    resizeBoundingBox = RectF(
-                        resizeX(boundingBox.left),
-                        resizeY(boundingBox.top),
-                        resizeX(boundingBox.right),
-                        resizeY(boundingBox.bottom)
-                    )
-                }
-                trackPersons.add(Person(it.id, resizeKeyPoint, resizeBoundingBox, it.score))
-            }
-            return trackPersons
+        // Convert x and y coordinates ([0-1]) returned from the TFlite model to the
+        // coordinates corresponding to the input image.
+        for (i in 0 until poses.count * KEYPOINT_COUNT) {
+            poses.x[i] = resizeX(poses.x[i])
+            poses.y[i] = resizeY(poses.y[i])
+        }
+        for (box in 0 until poses.count * 4 step 4) {
+            poses.boxes[box] = resizeX(poses.boxes[box])
+            poses.boxes[box + 1] = resizeY(poses.boxes[box + 1])
+            poses.boxes[box + 2] = resizeX(poses.boxes[box + 2])
+            poses.boxes[box + 3] = resizeY(poses.boxes[box + 3])
         }
     }
 
@@ -267,12 +240,20 @@ class MoveNetMultiPose(
     }
 
     /**
-     * Run TFlite model and Returns a list of "Person" corresponding to the input image.
+     * Run TFlite model and Returns a list of "Person" corresponding to the input image. The
+     * persons are copies, so they stay valid after the next frame; use [estimatePosesPrimitive] to
+     * avoid building them.
+     */
+    override fun estimatePoses(bitmap: Bitmap): List<Person> =
+        estimatePosesPrimitive(bitmap).toPersons()
+
+    /**
+     * Run TFlite model and return the poses in the input image. The returned poses are reused, so
+     * they're only valid until the next frame.
      */
-    override fun estimatePoses(bitmap: Bitmap): List<Person> {
+    fun estimatePosesPrimitive(bitmap: Bitmap): Poses {
         val inferenceStartTimeNanos = SystemClock.elapsedRealtimeNanos()
         val inputTensor = processInputTensor(bitmap)
-        val outputTensor = TensorBuffer.createFixedSize(outputShape, DataType.FLOAT32)
 
         // if model is dynamic, resize input before run interpreter
         if (type == Type.Dynamic) {
@@ -280,12 +261,12 @@ class MoveNetMultiPose(
             interpreter.resizeInput(0, inputShape, true)
             interpreter.allocateTensors()
         }
-        interpreter.run(inputTensor.buffer, outputTensor.buffer.rewind())
+        interpreter.run(inputTensor.buffer, outputBuffer.rewind())
 
-        val processedPerson = postProcess(outputTensor.floatArray)
+        postProcess()
         lastInferenceTimeNanos =
             SystemClock.elapsedRealtimeNanos() - inferenceStartTimeNanos
-        return processedPerson
+        return poses
     }
 
     override fun lastInferenceTimeNanos(): Long = lastInferenceTimeNanos
@@ -21,6 +21,10 @@ import org.tensorflow.lite.examples.poseestimation.data.Person
 
 interface PoseDetector : AutoCloseable {
 
+    /**
+     * Returns the persons detected in [bitmap]. The list and persons belong to the caller: they
+     * aren't reused or modified by later calls.
+     */
     fun estimatePoses(bitmap: Bitmap): List<Person>
 
     fun lastInferenceTimeNanos(): Long
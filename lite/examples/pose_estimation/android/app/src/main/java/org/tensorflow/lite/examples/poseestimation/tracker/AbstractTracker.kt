@@ -17,22 +17,54 @@ limitations under the License.
 package org.tensorflow.lite.examples.poseestimation.tracker
 
 import org.tensorflow.lite.examples.poseestimation.data.Person
+import org.tensorflow.lite.examples.poseestimation.data.Poses
 
 abstract class AbstractTracker(val config: TrackerConfig) {
 
     private val maxAge = config.maxAge * 1000 // convert milliseconds to microseconds
     private var nextTrackId = 0
-    var tracks = mutableListOf<Track>()
-        private set
+    private val assignment = LinearAssignment()
+
+    // Reused from frame to frame, grown when there are more detections or tracks than fit.
+    private var simMatrix = FloatArray(0)
+    private var trackForDetection = IntArray(0)
+
+    /** The current tracks. Linked tracks are updated in place. */
+    protected val trackStore = TrackStore()
+
+    /** A copy of the current tracks, newest first. */
+    val tracks: List<Track>
+        get() = List(trackStore.count) {
+            Track(trackStore.person(it), trackStore.lastTimestamps[it])
+        }
 
     /**
      * Computes pairwise similarity scores between detections and tracks, based
      * on detected features.
-     * @param persons A list of detected person.
-     * @returns A list of shape [num_det, num_tracks] with pairwise
-     * similarity scores between detections and tracks.
+     * @param poses The detected poses.
+     * @param tracks The current tracks.
+     * @param simMatrix Receives the similarity scores between detections and tracks, as a
+     * row-major matrix of shape [num_det, num_tracks].
+     */
+    abstract fun computeSimilarity(poses: Poses, tracks: TrackStore, simMatrix: FloatArray)
+
+    /**
+     * Tracks pose instances across frames based on detections.
+     * @param poses The detected poses. Their ids are updated in place.
+     * @param timestamp The current timestamp in microseconds
      */
-    abstract fun computeSimilarity(persons: List<Person>): List<List<Float>>
+    fun apply(poses: Poses, timestamp: Long) {
+        trackStore.removeOlderThan(timestamp - maxAge)
+        if (poses.count > 0) {
+            // Every detection may spawn a new track.
+            trackStore.reserve(poses.count, poses)
+            val size = poses.count * trackStore.count
+            if (simMatrix.size < size) simMatrix = FloatArray(size)
+            computeSimilarity(poses, trackStore, simMatrix)
+            assignTrack(poses, timestamp)
+        }
+        trackStore.sortAndTrim(config.maxTracks)
+    }
 
     /**
      * Tracks person instances across frames based on detections.
@@ -41,10 +73,9 @@ abstract class AbstractTracker(val config: TrackerConfig) {
      * @return An updated list of persons with tracking id.
      */
     fun apply(persons: List<Person>, timestamp: Long): List<Person> {
-        tracks = filterOldTrack(timestamp).toMutableList()
-        val simMatrix = computeSimilarity(persons)
-        assignTrack(persons, simMatrix, timestamp)
-        tracks = updateTrack().toMutableList()
+        val poses = Poses.of(persons)
+        apply(poses, timestamp)
+        persons.forEachIndexed { index, person -> person.id = poses.ids[index] }
         return persons
     }
 
@@ -52,7 +83,7 @@ abstract class AbstractTracker(val config: TrackerConfig) {
      * Clear all track in list of tracks
      */
     fun reset() {
-        tracks.clear()
+        trackStore.clear()
     }
 
     /**
@@ -61,98 +92,42 @@ abstract class AbstractTracker(val config: TrackerConfig) {
     private fun nextTrackID() = ++nextTrackId
 
     /**
-     * Performs a greedy optimization to link detections with tracks. The person
-     * list is updated in place by providing an `id` property. If incoming
-     * detections are not linked with existing tracks, new tracks will be created.
-     * @param persons A list of detected person. It's assumed that persons are
+     * Links detections with tracks, with the method of [TrackerConfig.assignmentMethod]. The poses
+     * are updated in place by providing their ids, and linked tracks are overwritten with their
+     * detection. If incoming detections are not linked with existing tracks, new tracks will be
+     * created.
+     * @param poses The detected poses. It's assumed that poses are
      * sorted from most confident to least confident.
-     * @param simMatrix A list of shape [num_det, num_tracks] with pairwise
-     * similarity scores between detections and tracks.
      * @param timestamp The current timestamp in microseconds.
      */
-    private fun assignTrack(persons: List<Person>, simMatrix: List<List<Float>>, timestamp: Long) {
-        if ((simMatrix.size != persons.size) != (simMatrix[0].size != tracks.size)) {
-            throw IllegalArgumentException(
-                "Size of person array and similarity matrix does not match.")
+    private fun assignTrack(poses: Poses, timestamp: Long) {
+        val numTracks = trackStore.count
+        if (trackForDetection.size < poses.count) trackForDetection = IntArray(poses.capacity)
+        when (config.assignmentMethod) {
+            AssignmentMethod.GREEDY -> assignment.greedy(
+                simMatrix, poses.count, numTracks, config.minSimilarity, trackForDetection
+            )
+            AssignmentMethod.OPTIMAL -> assignment.optimal(
+                simMatrix, poses.count, numTracks, config.minSimilarity, trackForDetection
+            )
         }
 
-        val unmatchedTrackIndices = MutableList(tracks.size) { it }
-        val unmatchedDetectionIndices = mutableListOf<Int>()
-
-        for (detectionIndex in persons.indices) {
-            // If the track list is empty, add the person's index
-            // to unmatched detections to create a new track later.
-            if (unmatchedTrackIndices.isEmpty()) {
-                unmatchedDetectionIndices.add(detectionIndex)
-                continue
-            }
-
-            // Assign the detection to the track which produces the highest pairwise
-            // similarity score, assuming the score exceeds the minimum similarity
-            // threshold.
-            var maxTrackIndex = -1
-            var maxSimilarity = -1f
-            unmatchedTrackIndices.forEach { trackIndex ->
-                val similarity = simMatrix[detectionIndex][trackIndex]
-                if (similarity >= config.minSimilarity && similarity > maxSimilarity) {
-                    maxTrackIndex = trackIndex
-                    maxSimilarity = similarity
-                }
-            }
-            if (maxTrackIndex >= 0) {
-                val linkedTrack = tracks[maxTrackIndex]
-                tracks[maxTrackIndex] =
-                    createTrack(persons[detectionIndex], linkedTrack.person.id, timestamp)
-                persons[detectionIndex].id = linkedTrack.person.id
-                val index = unmatchedTrackIndices.indexOf(maxTrackIndex)
-                unmatchedTrackIndices.removeAt(index)
-            } else {
-                unmatchedDetectionIndices.add(detectionIndex)
+        for (detection in 0 until poses.count) {
+            val track = trackForDetection[detection]
+            if (track >= 0) {
+                val id = trackStore.ids[track]
+                trackStore.update(track, poses, detection, id, timestamp)
+                poses.ids[detection] = id
             }
         }
 
         // Spawn new tracks for all unmatched detections.
-        unmatchedDetectionIndices.forEach { detectionIndex ->
-            val newTrack = createTrack(persons[detectionIndex], timestamp = timestamp)
-            tracks.add(newTrack)
-            persons[detectionIndex].id = newTrack.person.id
-        }
-    }
-
-    /**
-     * Filters tracks based on their age.
-     * @param timestamp The timestamp in microseconds
-     */
-    private fun filterOldTrack(timestamp: Long): List<Track> {
-        return tracks.filter {
-            timestamp - it.lastTimestamp <= maxAge
+        for (detection in 0 until poses.count) {
+            if (trackForDetection[detection] < 0) {
+                val id = nextTrackID()
+                trackStore.add(poses, detection, id, timestamp)
+                poses.ids[detection] = id
+            }
         }
     }
-
-    /**
-     *  Sort the track list by timestamp (newer first)
-     *  and return the track list with size equal to config.maxTracks
-     */
-    private fun updateTrack(): List<Track> {
-        tracks.sortByDescending { it.lastTimestamp }
-        return tracks.take(config.maxTracks)
-    }
-
-    /**
-     * Create a new track from person's information.
-     * @param person A person
-     * @param id The Id assign to the new track. If it is null, assign the next track id.
-     * @param timestamp The timestamp in microseconds
-     */
-    private fun createTrack(person: Person, id: Int? = null, timestamp: Long): Track {
-        return Track(
-            person = Person(
-                id = id ?: nextTrackID(),
-                keyPoints = person.keyPoints,
-                boundingBox = person.boundingBox,
-                score = person.score
-            ),
-            lastTimestamp = timestamp
-        )
-    }
 }
@@ -18,6 +18,7 @@ package org.tensorflow.lite.examples.poseestimation.tracker
 
 import androidx.annotation.VisibleForTesting
 import org.tensorflow.lite.examples.poseestimation.data.Person
+import org.tensorflow.lite.examples.poseestimation.data.Poses
 import kotlin.math.max
 import kotlin.math.min
 
@@ -31,11 +32,13 @@ class BoundingBoxTracker(config: TrackerConfig = TrackerConfig()) : AbstractTrac
      * Computes similarity based on intersection-over-union (IoU). See `AbstractTracker`
      * for more details.
      */
-    override fun computeSimilarity(persons: List<Person>): List<List<Float>> {
-        if (persons.isEmpty() && tracks.isEmpty()) {
-            return emptyList()
+    override fun computeSimilarity(poses: Poses, tracks: TrackStore, simMatrix: FloatArray) {
+        for (detection in 0 until poses.count) {
+            val row = detection * tracks.count
+            for (track in 0 until tracks.count) {
+                simMatrix[row + track] = iou(poses, detection, tracks, track)
+            }
         }
-        return persons.map { person -> tracks.map { track -> iou(person, track.person) } }
     }
 
     /**
@@ -47,15 +50,36 @@ class BoundingBoxTracker(config: TrackerConfig = TrackerConfig()) : AbstractTrac
      */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     fun iou(person1: Person, person2: Person): Float {
-        if (person1.boundingBox != null && person2.boundingBox != null) {
-            val xMin = max(person1.boundingBox.left, person2.boundingBox.left)
-            val yMin = max(person1.boundingBox.top, person2.boundingBox.top)
-            val xMax = min(person1.boundingBox.right, person2.boundingBox.right)
-            val yMax = min(person1.boundingBox.bottom, person2.boundingBox.bottom)
+        val track = TrackStore()
+        val trackPoses = Poses.of(listOf(person2))
+        track.reserve(1, trackPoses)
+        track.add(trackPoses, 0, person2.id, 0)
+        return iou(Poses.of(listOf(person1)), 0, track, 0)
+    }
+
+    /**
+     * Computes the IoU between detected pose [detection] of [poses] and track [track], see above.
+     */
+    private fun iou(poses: Poses, detection: Int, tracks: TrackStore, track: Int): Float {
+        if (poses.hasBoxes && tracks.hasBox[track]) {
+            val box = detection * 4
+            val left = poses.boxes[box]
+            val top = poses.boxes[box + 1]
+            val right = poses.boxes[box + 2]
+            val bottom = poses.boxes[box + 3]
+            val trackBox = track * 4
+            val trackLeft = tracks.boxes[trackBox]
+            val trackTop = tracks.boxes[trackBox + 1]
+            val trackRight = tracks.boxes[trackBox + 2]
+            val trackBottom = tracks.boxes[trackBox + 3]
+            val xMin = max(left, trackLeft)
+            val yMin = max(top, trackTop)
+            val xMax = min(right, trackRight)
+            val yMax = min(bottom, trackBottom)
             if (xMin >= xMax || yMin >= yMax) return 0f
             val intersection = (xMax - xMin) * (yMax - yMin)
-            val areaPerson = person1.boundingBox.width() * person1.boundingBox.height()
-            val areaTrack = person2.boundingBox.width() * person2.boundingBox.height()
+            val areaPerson = (right - left) * (bottom - top)
+            val areaTrack = (trackRight - trackLeft) * (trackBottom - trackTop)
             return intersection / (areaPerson + areaTrack - intersection)
         }
         return 0f
@@ -19,10 +19,13 @@ package org.tensorflow.lite.examples.poseestimation.tracker
 import androidx.annotation.VisibleForTesting
 import org.tensorflow.lite.examples.poseestimation.data.KeyPoint
 import org.tensorflow.lite.examples.poseestimation.data.Person
+import org.tensorflow.lite.examples.poseestimation.data.Poses
 import kotlin.math.exp
+import kotlin.math.ln
 import kotlin.math.max
 import kotlin.math.min
 import kotlin.math.pow
+import kotlin.math.sqrt
 
 /**
  * KeypointTracker, which tracks poses based on keypoint similarity. This
@@ -34,25 +37,101 @@ class KeyPointsTracker(
         keyPointsTrackerParams = KeyPointsTrackerParams()
     )
 ) : AbstractTracker(trackerConfig) {
+
+    // (2 * keypointFalloff[i])^2, the falloff term of each keypoint in the OKS.
+    private val falloffSquared: FloatArray =
+        config.keyPointsTrackerParams?.keypointFalloff
+            ?.map { (2f * it).pow(2) }?.toFloatArray() ?: FloatArray(0)
+
+    // A keypoint term of the OKS is at least minSimilarity only if the keypoints are at most
+    // gateScale * sqrt(boxArea) apart, and so is the OKS, an average of such terms. The scale is
+    // padded a little so that rounding never gates out a pair that would pass.
+    private val gateScale: Double = if (config.minSimilarity > 0f) {
+        val maxFalloff = 2.0 * (config.keyPointsTrackerParams?.keypointFalloff?.maxOrNull() ?: 0f)
+        sqrt(max(0.0, -2.0 * ln(config.minSimilarity.toDouble()))) * maxFalloff * GATE_PADDING
+    } else {
+        Double.POSITIVE_INFINITY
+    }
+
+    // Per track data of the current frame, reused and grown as needed: the box area used by the
+    // OKS, the box around the valid keypoints padded by the gate distance as left, top, right,
+    // bottom, and the tracks sorted by the left of that box, packed as (sortable left, index).
+    private var trackBoxAreas = DoubleArray(0)
+    private var trackGates = FloatArray(0)
+    private var tracksByLeft = LongArray(0)
+
+    // Box around the valid keypoints of the detection being scored, as left, top, right, bottom.
+    private val detectionBounds = FloatArray(4)
+
     /**
      * Computes similarity based on Object Keypoint Similarity (OKS). It's
      * assumed that the keypoints within each person are in normalized image
      * coordinates. See `AbstractTracker` for more details.
+     *
+     * The area of each track is computed once per frame rather than once per detection. Pairs
+     * whose keypoints are too far apart for the OKS to reach the minimum similarity, found by
+     * sweeping the tracks sorted by the left of their padded box, are skipped and scored 0.
      */
-    override fun computeSimilarity(persons: List<Person>): List<List<Float>> {
-        if (persons.isEmpty() && tracks.isEmpty()) {
-            return emptyList()
+    override fun computeSimilarity(poses: Poses, tracks: TrackStore, simMatrix: FloatArray) {
+        val params = config.keyPointsTrackerParams
+        val numTracks = tracks.count
+        if (params == null) {
+            simMatrix.fill(0f, 0, poses.count * numTracks)
+            return
+        }
+        if (trackBoxAreas.size < numTracks) {
+            trackBoxAreas = DoubleArray(tracks.capacity)
+            trackGates = FloatArray(tracks.capacity * 4)
+            tracksByLeft = LongArray(tracks.capacity)
+        }
+
+        val threshold = params.keypointThreshold
+        val keyPointCount = tracks.keyPointCount
+        for (track in 0 until numTracks) {
+            val offset = track * keyPointCount
+            val boxArea = area(
+                tracks.x, tracks.y, tracks.keyPointScores, offset, keyPointCount
+            ) + 1e-6
+            trackBoxAreas[track] = boxArea
+            val gate = track * 4
+            validBounds(
+                tracks.x, tracks.y, tracks.keyPointScores, offset, keyPointCount, threshold,
+                trackGates, gate
+            )
+            val padding = (gateScale * sqrt(boxArea)).toFloat()
+            trackGates[gate] -= padding
+            trackGates[gate + 1] -= padding
+            trackGates[gate + 2] += padding
+            trackGates[gate + 3] += padding
+            tracksByLeft[track] = (sortableBits(trackGates[gate]).toLong() shl 32) or track.toLong()
         }
-        val simMatrix = mutableListOf<MutableList<Float>>()
-        persons.forEach { person ->
-            val row = mutableListOf<Float>()
-            tracks.forEach { track ->
-                val oksValue = oks(person, track.person)
-                row.add(oksValue)
+        tracksByLeft.sort(0, numTracks)
+
+        val bounds = detectionBounds
+        for (detection in 0 until poses.count) {
+            val row = detection * numTracks
+            simMatrix.fill(0f, row, row + numTracks)
+            val offset = poses.keyPointIndex(detection, 0)
+            validBounds(
+                poses.x, poses.y, poses.keyPointScores, offset, poses.keyPointCount, threshold,
+                bounds, 0
+            )
+            // No valid keypoint, so no OKS either.
+            if (bounds[0] > bounds[2]) continue
+            for (i in 0 until numTracks) {
+                val track = tracksByLeft[i].toInt()
+                val gate = track * 4
+                if (trackGates[gate] > bounds[2]) break
+                if (trackGates[gate + 2] < bounds[0] ||
+                    trackGates[gate + 1] > bounds[3] ||
+                    trackGates[gate + 3] < bounds[1]
+                ) {
+                    continue
+                }
+                simMatrix[row + track] =
+                    oks(poses, detection, tracks, track, trackBoxAreas[track])
             }
-            simMatrix.add(row)
         }
-        return simMatrix
     }
 
     /**
@@ -77,32 +156,58 @@ class KeyPointsTracker(
      */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     fun oks(person1: Person, person2: Person): Float {
+        val track = TrackStore()
+        val trackPoses = Poses.of(listOf(person2))
+        track.reserve(1, trackPoses)
+        track.add(trackPoses, 0, person2.id, 0)
+        return oks(Poses.of(listOf(person1)), 0, track, 0)
+    }
+
+    /**
+     * Computes the OKS between detected pose [detection] of [poses] and track [track], see above.
+     */
+    private fun oks(poses: Poses, detection: Int, tracks: TrackStore, track: Int): Float {
         if (config.keyPointsTrackerParams == null) return 0f
-        person2.keyPoints.let { keyPoints ->
-            val boxArea = area(keyPoints) + 1e-6
-            var oksTotal = 0f
-            var numValidKeyPoints = 0
-
-            person1.keyPoints.forEachIndexed { index, _ ->
-                val poseKpt = person1.keyPoints[index]
-                val trackKpt = person2.keyPoints[index]
-                val threshold = config.keyPointsTrackerParams.keypointThreshold
-                if (poseKpt.score < threshold || trackKpt.score < threshold) {
-                    return@forEachIndexed
-                }
-                numValidKeyPoints += 1
-                val dSquared: Float =
-                    (poseKpt.coordinate.x - trackKpt.coordinate.x).pow(2) + (poseKpt.coordinate.y - trackKpt.coordinate.y).pow(
-                        2
-                    )
-                val x = 2f * config.keyPointsTrackerParams.keypointFalloff[index]
-                oksTotal += exp(-1f * dSquared / (2f * boxArea * x.pow(2))).toFloat()
-            }
-            if (numValidKeyPoints < config.keyPointsTrackerParams.minNumKeyPoints) {
-                return 0f
+        val boxArea = area(
+            tracks.x, tracks.y, tracks.keyPointScores, track * tracks.keyPointCount,
+            tracks.keyPointCount
+        ) + 1e-6
+        return oks(poses, detection, tracks, track, boxArea)
+    }
+
+    /** Computes the OKS as above, given the [boxArea] of the track. */
+    private fun oks(
+        poses: Poses,
+        detection: Int,
+        tracks: TrackStore,
+        track: Int,
+        boxArea: Double
+    ): Float {
+        val params = config.keyPointsTrackerParams ?: return 0f
+        val threshold = params.keypointThreshold
+        val poseOffset = poses.keyPointIndex(detection, 0)
+        val trackOffset = track * tracks.keyPointCount
+        var oksTotal = 0f
+        var numValidKeyPoints = 0
+
+        for (index in 0 until poses.keyPointCount) {
+            val pose = poseOffset + index
+            val trackKpt = trackOffset + index
+            if (poses.keyPointScores[pose] < threshold ||
+                tracks.keyPointScores[trackKpt] < threshold
+            ) {
+                continue
             }
-            return oksTotal / numValidKeyPoints
+            numValidKeyPoints += 1
+            val dx = poses.x[pose] - tracks.x[trackKpt]
+            val dy = poses.y[pose] - tracks.y[trackKpt]
+            val dSquared: Float = dx * dx + dy * dy
+            oksTotal += exp(-1f * dSquared / (2f * boxArea * falloffSquared[index])).toFloat()
         }
+        if (numValidKeyPoints < params.minNumKeyPoints) {
+            return 0f
+        }
+        return oksTotal / numValidKeyPoints
     }
 
     /**
@@ -112,14 +217,80 @@ class KeyPointsTracker(
      */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     fun area(keyPoints: List<KeyPoint>): Float {
-        val validKeypoint = keyPoints.filter {
-            it.score > config.keyPointsTrackerParams?.keypointThreshold ?: 0f
+        val x = FloatArray(keyPoints.size) { keyPoints[it].coordinate.x }
+        val y = FloatArray(keyPoints.size) { keyPoints[it].coordinate.y }
+        val scores = FloatArray(keyPoints.size) { keyPoints[it].score }
+        return area(x, y, scores, 0, keyPoints.size)
+    }
+
+    /**
+     * Computes the area covering the [count] keypoints starting at [offset] of [x], [y] and
+     * [scores], see above.
+     */
+    private fun area(
+        x: FloatArray,
+        y: FloatArray,
+        scores: FloatArray,
+        offset: Int,
+        count: Int
+    ): Float {
+        val threshold = config.keyPointsTrackerParams?.keypointThreshold ?: 0f
+        var minX = Float.MAX_VALUE
+        var maxX = -Float.MAX_VALUE
+        var minY = Float.MAX_VALUE
+        var maxY = -Float.MAX_VALUE
+        var numValid = 0
+        for (index in offset until offset + count) {
+            if (scores[index] <= threshold) continue
+            numValid++
+            minX = min(minX, x[index])
+            maxX = max(maxX, x[index])
+            minY = min(minY, y[index])
+            maxY = max(maxY, y[index])
         }
-        if (validKeypoint.isEmpty()) return 0f
-        val minX = min(1f, validKeypoint.minOf { it.coordinate.x })
-        val maxX = max(0f, validKeypoint.maxOf { it.coordinate.x })
-        val minY = min(1f, validKeypoint.minOf { it.coordinate.y })
-        val maxY = max(0f, validKeypoint.maxOf { it.coordinate.y })
-        return (maxX - minX) * (maxY - minY)
+        if (numValid == 0) return 0f
+        return (max(0f, maxX) - min(1f, minX)) * (max(0f, maxY) - min(1f, minY))
+    }
+
+    /**
+     * Writes the box around the [count] keypoints starting at [offset] whose score is at least
+     * [threshold] into [bounds] at [at], as left, top, right, bottom. Left is greater than right
+     * if there are none.
+     */
+    private fun validBounds(
+        x: FloatArray,
+        y: FloatArray,
+        scores: FloatArray,
+        offset: Int,
+        count: Int,
+        threshold: Float,
+        bounds: FloatArray,
+        at: Int
+    ) {
+        var minX = Float.POSITIVE_INFINITY
+        var minY = Float.POSITIVE_INFINITY
+        var maxX = Float.NEGATIVE_INFINITY
+        var maxY = Float.NEGATIVE_INFINITY
+        for (index in offset until offset + count) {
+            if (scores[index] < threshold) continue
+            minX = min(minX, x[index])
+            minY = min(minY, y[index])
+            maxX = max(maxX, x[index])
+            maxY = max(maxY, y[index])
+        }
+        bounds[at] = minX
+        bounds[at + 1] = minY
+        bounds[at + 2] = maxX
+        bounds[at + 3] = maxY
+    }
+
+    /** Maps [value] to an Int that sorts like the float, for packing it into a sort key. */
+    private fun sortableBits(value: Float): Int {
+        val bits = value.toRawBits()
+        return if (bits < 0) bits xor Int.MAX_VALUE else bits
+    }
+
+    companion object {
+        private const val GATE_PADDING = 1.001
     }
 }
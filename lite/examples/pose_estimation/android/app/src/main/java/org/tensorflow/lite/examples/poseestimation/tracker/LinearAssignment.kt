@@ -0,0 +1,173 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.tracker
+
+/**
+ * Links detections with tracks from a row-major [num_det, num_tracks] similarity matrix. The
+ * working arrays are kept between calls, so assigning frame after frame doesn't allocate once
+ * they are large enough.
+ */
+class LinearAssignment {
+
+    // Hungarian method state, 1-based as in the textbook formulation; index 0 is a sentinel.
+    private var rowPotential = FloatArray(0)
+    private var columnPotential = FloatArray(0)
+    private var columnRow = IntArray(0)
+    private var way = IntArray(0)
+    private var minSlack = FloatArray(0)
+    private var used = BooleanArray(0)
+    private var trackUsed = BooleanArray(0)
+
+    /**
+     * Links each detection, in order, with the unmatched track of highest similarity, provided it
+     * is at least [minSimilarity]. Ties go to the track with the lowest index.
+     * @param similarity The [numDetections, numTracks] similarity matrix.
+     * @param assignment Receives the track linked with each detection, or -1 if there is none.
+     */
+    fun greedy(
+        similarity: FloatArray,
+        numDetections: Int,
+        numTracks: Int,
+        minSimilarity: Float,
+        assignment: IntArray
+    ) {
+        if (trackUsed.size < numTracks) trackUsed = BooleanArray(numTracks)
+        trackUsed.fill(false, 0, numTracks)
+        for (detection in 0 until numDetections) {
+            var maxTrack = -1
+            var maxSimilarity = -1f
+            val row = detection * numTracks
+            for (track in 0 until numTracks) {
+                if (trackUsed[track]) continue
+                val value = similarity[row + track]
+                if (value >= minSimilarity && value > maxSimilarity) {
+                    maxTrack = track
+                    maxSimilarity = value
+                }
+            }
+            if (maxTrack >= 0) trackUsed[maxTrack] = true
+            assignment[detection] = maxTrack
+        }
+    }
+
+    /**
+     * Links detections with tracks so that the total similarity of the links is the highest
+     * possible, using the Hungarian method in O(n^3). Pairs below [minSimilarity] are never linked.
+     * @param similarity The [numDetections, numTracks] similarity matrix.
+     * @param assignment Receives the track linked with each detection, or -1 if there is none.
+     */
+    fun optimal(
+        similarity: FloatArray,
+        numDetections: Int,
+        numTracks: Int,
+        minSimilarity: Float,
+        assignment: IntArray
+    ) {
+        assignment.fill(-1, 0, numDetections)
+        if (numDetections == 0 || numTracks == 0) return
+
+        // The method needs no more rows than columns, so transpose when there are more detections.
+        val transposed = numDetections > numTracks
+        val rows = if (transposed) numTracks else numDetections
+        val columns = if (transposed) numDetections else numTracks
+        ensureCapacity(rows, columns)
+        rowPotential.fill(0f, 0, rows + 1)
+        columnPotential.fill(0f, 0, columns + 1)
+        columnRow.fill(0, 0, columns + 1)
+
+        for (row in 1..rows) {
+            columnRow[0] = row
+            var column0 = 0
+            minSlack.fill(Float.MAX_VALUE, 0, columns + 1)
+            used.fill(false, 0, columns + 1)
+            do {
+                used[column0] = true
+                val row0 = columnRow[column0]
+                var delta = Float.MAX_VALUE
+                var column1 = 0
+                for (column in 1..columns) {
+                    if (used[column]) continue
+                    val slack = cost(
+                        similarity, numTracks, minSimilarity, transposed, row0 - 1, column - 1
+                    ) - rowPotential[row0] - columnPotential[column]
+                    if (slack < minSlack[column]) {
+                        minSlack[column] = slack
+                        way[column] = column0
+                    }
+                    if (minSlack[column] < delta) {
+                        delta = minSlack[column]
+                        column1 = column
+                    }
+                }
+                for (column in 0..columns) {
+                    if (used[column]) {
+                        rowPotential[columnRow[column]] += delta
+                        columnPotential[column] -= delta
+                    } else {
+                        minSlack[column] -= delta
+                    }
+                }
+                column0 = column1
+            } while (columnRow[column0] != 0)
+            // Flip the augmenting path back to the root.
+            do {
+                val column1 = way[column0]
+                columnRow[column0] = columnRow[column1]
+                column0 = column1
+            } while (column0 != 0)
+        }
+
+        for (column in 1..columns) {
+            val row = columnRow[column]
+            if (row == 0) continue
+            val detection = if (transposed) column - 1 else row - 1
+            val track = if (transposed) row - 1 else column - 1
+            // Links below the threshold only fill the square matrix; drop them.
+            if (similarity[detection * numTracks + track] >= minSimilarity) {
+                assignment[detection] = track
+            }
+        }
+    }
+
+    /** Cost of linking a row with a column: minus their similarity, or 0 below the threshold. */
+    private fun cost(
+        similarity: FloatArray,
+        numTracks: Int,
+        minSimilarity: Float,
+        transposed: Boolean,
+        row: Int,
+        column: Int
+    ): Float {
+        val value = if (transposed) {
+            similarity[column * numTracks + row]
+        } else {
+            similarity[row * numTracks + column]
+        }
+        return if (value >= minSimilarity) -value else 0f
+    }
+
+    private fun ensureCapacity(rows: Int, columns: Int) {
+        if (rowPotential.size < rows + 1) rowPotential = FloatArray(rows + 1)
+        if (columnPotential.size < columns + 1) {
+            columnPotential = FloatArray(columns + 1)
+            columnRow = IntArray(columns + 1)
+            way = IntArray(columns + 1)
+            minSlack = FloatArray(columns + 1)
+            used = BooleanArray(columns + 1)
+        }
+    }
+}
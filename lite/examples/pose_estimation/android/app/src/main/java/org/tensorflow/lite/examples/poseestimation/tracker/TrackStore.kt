@@ -0,0 +1,205 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.tracker
+
+import android.graphics.PointF
+import android.graphics.RectF
+import org.tensorflow.lite.examples.poseestimation.data.BodyPart
+import org.tensorflow.lite.examples.poseestimation.data.KeyPoint
+import org.tensorflow.lite.examples.poseestimation.data.Person
+import org.tensorflow.lite.examples.poseestimation.data.Poses
+
+/**
+ * The tracks of a tracker, stored as primitive arrays laid out like [Poses] so a linked track is
+ * updated by copying the detected pose into it rather than building a new [Person].
+ *
+ * Keypoint k of track i is at index i * keyPointCount + k of [x], [y] and [keyPointScores], and its
+ * bounding box, if [hasBox], at index i * 4 of [boxes]. The arrays grow when more tracks than fit
+ * are added, which only happens for the first frames or when the detections outnumber them.
+ */
+class TrackStore {
+
+    var keyPointCount = 0
+        private set
+    var capacity = 0
+        private set
+
+    var ids = IntArray(0)
+        private set
+    var lastTimestamps = LongArray(0)
+        private set
+    var scores = FloatArray(0)
+        private set
+    var hasBox = BooleanArray(0)
+        private set
+    var boxes = FloatArray(0)
+        private set
+    var x = FloatArray(0)
+        private set
+    var y = FloatArray(0)
+        private set
+    var keyPointScores = FloatArray(0)
+        private set
+
+    /** Number of tracks currently stored. */
+    var count = 0
+        private set
+
+    // Body part of each keypoint index, taken from the last poses copied in.
+    private var bodyParts: List<BodyPart> = BodyPart.values().asList()
+
+    /** Remove all tracks. */
+    fun clear() {
+        count = 0
+    }
+
+    /**
+     * Make room for [extra] more tracks of [poses]' keypoint count. The tracks are dropped if the
+     * keypoint count changed, since they can't be compared with the new poses anyway.
+     */
+    fun reserve(extra: Int, poses: Poses) {
+        if (poses.keyPointCount != keyPointCount) {
+            keyPointCount = poses.keyPointCount
+            count = 0
+            allocate(capacity)
+        }
+        bodyParts = poses.bodyParts
+        if (count + extra > capacity) {
+            allocate(maxOf(count + extra, capacity * 2))
+        }
+    }
+
+    /** Add a track holding pose [detection] of [poses], and return its index. */
+    fun add(poses: Poses, detection: Int, id: Int, timestamp: Long): Int {
+        if (count == capacity) reserve(1, poses)
+        val index = count++
+        update(index, poses, detection, id, timestamp)
+        return index
+    }
+
+    /** Overwrite track [index] with pose [detection] of [poses]. */
+    fun update(index: Int, poses: Poses, detection: Int, id: Int, timestamp: Long) {
+        ids[index] = id
+        lastTimestamps[index] = timestamp
+        scores[index] = poses.scores[detection]
+        hasBox[index] = poses.hasBoxes
+        if (poses.hasBoxes) {
+            System.arraycopy(poses.boxes, detection * 4, boxes, index * 4, 4)
+        }
+        val from = poses.keyPointIndex(detection, 0)
+        val to = index * keyPointCount
+        System.arraycopy(poses.x, from, x, to, keyPointCount)
+        System.arraycopy(poses.y, from, y, to, keyPointCount)
+        System.arraycopy(poses.keyPointScores, from, keyPointScores, to, keyPointCount)
+    }
+
+    /** Remove the tracks last seen before [timestamp], keeping the others in order. */
+    fun removeOlderThan(timestamp: Long) {
+        var kept = 0
+        for (index in 0 until count) {
+            if (lastTimestamps[index] >= timestamp) {
+                if (kept != index) move(index, kept)
+                kept++
+            }
+        }
+        count = kept
+    }
+
+    /**
+     * Sort the tracks by timestamp, newer first, keeping tracks with the same timestamp in order,
+     * and keep the first [maxTracks].
+     */
+    fun sortAndTrim(maxTracks: Int) {
+        // Insertion sort: the tracks are sorted already except for the ones just updated.
+        for (index in 1 until count) {
+            var position = index
+            while (position > 0 && lastTimestamps[position - 1] < lastTimestamps[position]) {
+                swap(position - 1, position)
+                position--
+            }
+        }
+        if (count > maxTracks) count = maxTracks
+    }
+
+    /** Build a [Person] holding a copy of track [index]. */
+    fun person(index: Int): Person {
+        val offset = index * keyPointCount
+        val keyPoints = List(keyPointCount) { k ->
+            KeyPoint(bodyParts[k], PointF(x[offset + k], y[offset + k]), keyPointScores[offset + k])
+        }
+        val boundingBox = if (hasBox[index]) {
+            val box = index * 4
+            RectF(boxes[box], boxes[box + 1], boxes[box + 2], boxes[box + 3])
+        } else null
+        return Person(ids[index], keyPoints, boundingBox, scores[index])
+    }
+
+    private fun allocate(newCapacity: Int) {
+        val newKeyPoints = newCapacity * keyPointCount
+        ids = ids.copyOf(newCapacity)
+        lastTimestamps = lastTimestamps.copyOf(newCapacity)
+        scores = scores.copyOf(newCapacity)
+        hasBox = hasBox.copyOf(newCapacity)
+        boxes = boxes.copyOf(newCapacity * 4)
+        x = x.copyOf(newKeyPoints)
+        y = y.copyOf(newKeyPoints)
+        keyPointScores = keyPointScores.copyOf(newKeyPoints)
+        capacity = newCapacity
+    }
+
+    private fun move(from: Int, to: Int) {
+        ids[to] = ids[from]
+        lastTimestamps[to] = lastTimestamps[from]
+        scores[to] = scores[from]
+        hasBox[to] = hasBox[from]
+        System.arraycopy(boxes, from * 4, boxes, to * 4, 4)
+        System.arraycopy(x, from * keyPointCount, x, to * keyPointCount, keyPointCount)
+        System.arraycopy(y, from * keyPointCount, y, to * keyPointCount, keyPointCount)
+        System.arraycopy(
+            keyPointScores, from * keyPointCount, keyPointScores, to * keyPointCount, keyPointCount
+        )
+    }
+
+    private fun swap(i: Int, j: Int) {
+        ids.swap(i, j)
+        lastTimestamps.swap(i, j)
+        scores.swap(i, j)
+        hasBox.swap(i, j)
+        for (k in 0 until 4) boxes.swap(i * 4 + k, j * 4 + k)
+        for (k in 0 until keyPointCount) {
+            x.swap(i * keyPointCount + k, j * keyPointCount + k)
+            y.swap(i * keyPointCount + k, j * keyPointCount + k)
+            keyPointScores.swap(i * keyPointCount + k, j * keyPointCount + k)
+        }
+    }
+
+    private fun IntArray.swap(i: Int, j: Int) {
+        val t = this[i]; this[i] = this[j]; this[j] = t
+    }
+
+    private fun LongArray.swap(i: Int, j: Int) {
+        val t = this[i]; this[i] = this[j]; this[j] = t
+    }
+
+    private fun FloatArray.swap(i: Int, j: Int) {
+        val t = this[i]; this[i] = this[j]; this[j] = t
+    }
+
+    private fun BooleanArray.swap(i: Int, j: Int) {
+        val t = this[i]; this[i] = this[j]; this[j] = t
+    }
+}
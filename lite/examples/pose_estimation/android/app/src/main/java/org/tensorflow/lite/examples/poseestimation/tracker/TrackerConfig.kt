@@ -20,7 +20,8 @@ data class TrackerConfig(
     val maxTracks: Int = MAX_TRACKS,
     val maxAge: Int = MAX_AGE,
     val minSimilarity: Float = MIN_SIMILARITY,
-    val keyPointsTrackerParams: KeyPointsTrackerParams? = null
+    val keyPointsTrackerParams: KeyPointsTrackerParams? = null,
+    val assignmentMethod: AssignmentMethod = AssignmentMethod.GREEDY
 ) {
     companion object {
         private const val MAX_TRACKS = 18
@@ -29,6 +30,15 @@ data class TrackerConfig(
     }
 }
 
+/** How a tracker links detections with tracks, see [LinearAssignment]. */
+enum class AssignmentMethod {
+    // Each detection, from most to least confident, takes the most similar unmatched track.
+    GREEDY,
+
+    // The links maximize the total similarity, at O(n^3) in the number of detections and tracks.
+    OPTIMAL
+}
+
 data class KeyPointsTrackerParams(
     val keypointThreshold: Float = KEYPOINT_THRESHOLD,
     // List of per-keypoint standard deviation `σ`, keypoints on a person's body (shoulders, knees, hips, etc.)
@@ -0,0 +1,97 @@
+/* Copyright 2021 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================
+*/
+
+package org.tensorflow.lite.examples.poseestimation.camera
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameSchedulerTest {
+
+    companion object {
+        private const val FRAME_INTERVAL_NANOS = 33_000_000L
+        private const val FAST_INFERENCE_NANOS = 10_000_000L
+        private const val SLOW_INFERENCE_NANOS = 100_000_000L
+    }
+
+    private var now = 0L
+    private val scheduler = FrameScheduler { now }
+
+    // The simulated detector: like CameraSource, a frame sent while it's busy waits for it.
+    private var inferring = false
+    private var inferenceEndNanos = 0L
+    private var hasPendingFrame = false
+
+    @Test
+    fun testIdleDetectorGetsEveryFrame() {
+        assertEquals(0L, runFrames(100, FAST_INFERENCE_NANOS))
+        assertEquals(0L, scheduler.skippedFrames)
+    }
+
+    @Test
+    fun testLaggingDetectorSkipsFrames() {
+        // Each inference takes about three frame intervals, so about half the frames, those that
+        // would only be replaced while waiting, are skipped.
+        val skipped = runFrames(100, SLOW_INFERENCE_NANOS)
+        assertTrue("skipped $skipped frames", skipped in 40L..70L)
+        assertEquals(skipped, scheduler.skippedFrames)
+    }
+
+    @Test
+    fun testRecoveringDetectorStopsSkipping() {
+        runFrames(100, SLOW_INFERENCE_NANOS)
+        // The smoothed latency takes a few inferences to catch up with the faster detector.
+        runFrames(20, FAST_INFERENCE_NANOS)
+        assertEquals(0L, runFrames(100, FAST_INFERENCE_NANOS))
+    }
+
+    @Test
+    fun testResetClearsSkippedFrames() {
+        runFrames(100, SLOW_INFERENCE_NANOS)
+        scheduler.reset()
+        assertEquals(0L, scheduler.skippedFrames)
+    }
+
+    /**
+     * Deliver [count] camera frames to a detector that takes [latencyNanos] per inference, and
+     * return how many of them the scheduler skipped.
+     */
+    private fun runFrames(count: Int, latencyNanos: Long): Long {
+        val skippedBefore = scheduler.skippedFrames
+        repeat(count) {
+            now += FRAME_INTERVAL_NANOS
+            while (inferring && now >= inferenceEndNanos) {
+                scheduler.onInferenceEnd(inferenceEndNanos)
+                inferring = false
+                if (hasPendingFrame) {
+                    hasPendingFrame = false
+                    startInference(inferenceEndNanos, latencyNanos)
+                }
+            }
+            if (scheduler.onCameraFrame(now)) {
+                if (inferring) hasPendingFrame = true else startInference(now, latencyNanos)
+            }
+        }
+        return scheduler.skippedFrames - skippedBefore
+    }
+
+    private fun startInference(startNanos: Long, latencyNanos: Long) {
+        scheduler.onInferenceStart(startNanos)
+        inferring = true
+        inferenceEndNanos = startNanos + latencyNanos
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification
+
+import android.os.Debug
+import android.os.SystemClock
+import android.util.Log
+
+/**
+ * Measures code run once per frame: after [warmUpFrames] unmeasured runs, it times each of
+ * [measuredFrames] runs and counts the Java heap bytes they allocate and the GCs they cause, then
+ * logs the mean, p50, p90 and max latencies and the allocations under [tag].
+ *
+ * When [frameIntervalNanos] is set, the measured runs are paced as if frames arrived at that
+ * interval; a run that ends late makes the next one start right away.
+ */
+class FrameBenchmark(
+    val tag: String,
+    val warmUpFrames: Int,
+    val measuredFrames: Int,
+    val frameIntervalNanos: Long = 0L
+) {
+
+    /** Measure [frame], which is given the index of the run, and log the results as [name]. */
+    inline fun measure(name: String, frame: (index: Int) -> Unit) {
+        repeat(warmUpFrames) { frame(it) }
+        val latenciesNanos = LongArray(measuredFrames)
+        val bytesBefore = runtimeStat(BYTES_ALLOCATED_STAT)
+        val gcCountBefore = runtimeStat(GC_COUNT_STAT)
+        val start = SystemClock.elapsedRealtimeNanos()
+        for (i in 0 until measuredFrames) {
+            if (frameIntervalNanos > 0) waitUntil(start + i * frameIntervalNanos)
+            val frameStart = SystemClock.elapsedRealtimeNanos()
+            frame(i)
+            latenciesNanos[i] = SystemClock.elapsedRealtimeNanos() - frameStart
+        }
+        val elapsedNanos = SystemClock.elapsedRealtimeNanos() - start
+        report(
+            name,
+            latenciesNanos,
+            runtimeStat(BYTES_ALLOCATED_STAT) - bytesBefore,
+            runtimeStat(GC_COUNT_STAT) - gcCountBefore,
+            elapsedNanos
+        )
+    }
+
+    fun runtimeStat(name: String): Long = Debug.getRuntimeStat(name)?.toLong() ?: 0L
+
+    fun waitUntil(timeNanos: Long) {
+        val waitMillis = (timeNanos - SystemClock.elapsedRealtimeNanos()) / 1_000_000
+        if (waitMillis > 0) SystemClock.sleep(waitMillis)
+    }
+
+    fun report(
+        name: String,
+        latenciesNanos: LongArray,
+        allocatedBytes: Long,
+        gcCount: Long,
+        elapsedNanos: Long
+    ) {
+        latenciesNanos.sort()
+        val count = latenciesNanos.size
+        Log.i(
+            tag,
+            "$name: mean ${latenciesNanos.average() / 1e6} ms, " +
+                    "p50 ${latenciesNanos[count / 2] / 1e6} ms, " +
+                    "p90 ${latenciesNanos[count * 9 / 10] / 1e6} ms, " +
+                    "max ${latenciesNanos[count - 1] / 1e6} ms, " +
+                    "allocated ${allocatedBytes / count} bytes/frame " +
+                    "(${allocatedBytes / 1024 * 1e9 / elapsedNanos} KiB/s), $gcCount GCs"
+        )
+    }
+
+    companion object {
+        const val BYTES_ALLOCATED_STAT = "art.gc.bytes-allocated"
+        const val GC_COUNT_STAT = "art.gc.gc-count"
+    }
+}
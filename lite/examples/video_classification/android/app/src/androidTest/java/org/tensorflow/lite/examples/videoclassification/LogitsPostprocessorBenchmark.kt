@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tensorflow.lite.examples.videoclassification.ml.LogitsPostprocessor
+import org.tensorflow.lite.support.common.FileUtil
+import org.tensorflow.lite.support.label.Category
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import kotlin.random.Random
+
+/**
+ * Compares [LogitsPostprocessor] with converting every logit to a [Category] and sorting them all,
+ * on the 600 Kinetics classes. Results are written to logcat.
+ */
+@RunWith(AndroidJUnit4::class)
+class LogitsPostprocessorBenchmark {
+
+    companion object {
+        private const val TAG = "LogitsPostprocessorBenchmark"
+        private const val LABEL_FILE = "kinetics600_label_map.txt"
+        private const val LOGITS_SETS = 64
+        private const val WARM_UP_ITERATIONS = 1_000
+        private const val ITERATIONS = 10_000
+        private val RESULT_COUNTS = listOf(3, 5, null)
+    }
+
+    private lateinit var labels: List<String>
+    private lateinit var logitsSets: List<FloatBuffer>
+
+    @Before
+    fun setup() {
+        val appContext = InstrumentationRegistry.getInstrumentation().targetContext
+        labels = FileUtil.loadLabels(appContext, LABEL_FILE)
+        val random = Random(0)
+        logitsSets = List(LOGITS_SETS) {
+            val buffer = ByteBuffer.allocateDirect(labels.size * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer()
+            repeat(labels.size) { buffer.put(random.nextFloat() * 20f - 10f) }
+            buffer
+        }
+    }
+
+    @Test
+    fun testMatchesFullSort() {
+        for (maxResults in RESULT_COUNTS) {
+            val postprocessor = LogitsPostprocessor(labels, maxResults)
+            for (logits in logitsSets) {
+                val expected = sortAll(logits, maxResults)
+                val actual = postprocessor.process(logits)
+                assertEquals(expected.size, actual.size)
+                for (i in expected.indices) {
+                    assertEquals(expected[i].label, actual[i].label)
+                    assertEquals(expected[i].score, actual[i].score, 1e-6f)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun benchmark() {
+        for (maxResults in RESULT_COUNTS) {
+            val postprocessor = LogitsPostprocessor(labels, maxResults)
+            val sortNanos = measure { sortAll(it, maxResults) }
+            val topKNanos = measure { postprocessor.process(it) }
+            Log.i(
+                TAG,
+                "${labels.size} classes, top ${maxResults ?: "all"}: " +
+                        "full sort ${sortNanos / 1000f} us, top-K ${topKNanos / 1000f} us"
+            )
+        }
+    }
+
+    /** Returns the mean time of [block] over all logits sets, in nanoseconds. */
+    private inline fun measure(block: (FloatBuffer) -> List<Category>): Long {
+        repeat(WARM_UP_ITERATIONS) { block(logitsSets[it % LOGITS_SETS]) }
+        val start = SystemClock.elapsedRealtimeNanos()
+        repeat(ITERATIONS) { block(logitsSets[it % LOGITS_SETS]) }
+        return (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS
+    }
+
+    /** The previous post-processing: a Category for every class, all of them sorted. */
+    private fun sortAll(logitsBuffer: FloatBuffer, maxResults: Int?): List<Category> {
+        val logits = FloatArray(labels.size)
+        logitsBuffer.rewind()
+        logitsBuffer.get(logits)
+        val probabilities = CalculateUtils.softmax(logits)
+        val categories = mutableListOf<Category>()
+        probabilities.forEachIndexed { index, probability ->
+            categories.add(Category(labels[index], probability))
+        }
+        categories.sortByDescending { it.score }
+        return maxResults?.let { categories.subList(0, it) } ?: categories
+    }
+}
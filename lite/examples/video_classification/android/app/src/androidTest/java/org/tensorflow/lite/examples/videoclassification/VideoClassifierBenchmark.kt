@@ -0,0 +1,108 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.media.MediaMetadataRetriever
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tensorflow.lite.examples.videoclassification.ml.VideoClassifier
+import java.io.File
+
+/**
+ * Measures the latency and the Java heap allocation rate of [VideoClassifier.classify] when frames
+ * arrive at a fixed rate, as they do from the camera. Results are written to logcat.
+ */
+@RunWith(AndroidJUnit4::class)
+class VideoClassifierBenchmark {
+
+    companion object {
+        private const val TAG = "VideoClassifierBenchmark"
+        private const val INPUT_FILE_NAME = "carving_ice.mp4"
+        private const val DISTINCT_FRAME_COUNT = 16
+        private const val WARM_UP_FRAME_COUNT = 10
+        private const val MEASURED_FRAME_COUNT = 90
+    }
+
+    private lateinit var videoClassifier: VideoClassifier
+    private lateinit var frames: List<Bitmap>
+
+    @Before
+    fun setup() {
+        val appContext = InstrumentationRegistry.getInstrumentation().targetContext
+        val testContext = InstrumentationRegistry.getInstrumentation().context
+        val options =
+            VideoClassifier.VideoClassifierOptions.builder().setMaxResult(5)
+                .setNumThreads(1)
+                .build()
+        videoClassifier = VideoClassifier.createFromFileAndLabelsAndOptions(
+            appContext,
+            "movinet_a0_stream_int8.tflite",
+            "kinetics600_label_map.txt",
+            options
+        )
+        frames = loadFrames(appContext, testContext)
+    }
+
+    @After
+    fun tearDown() {
+        videoClassifier.close()
+    }
+
+    @Test
+    fun benchmarkAt8Fps() = runAtFps(8)
+
+    @Test
+    fun benchmarkAt15Fps() = runAtFps(15)
+
+    @Test
+    fun benchmarkAt30Fps() = runAtFps(30)
+
+    private fun runAtFps(fps: Int) {
+        assertTrue("Test video has frames.", frames.isNotEmpty())
+        repeat(WARM_UP_FRAME_COUNT) { videoClassifier.classify(frames[it % frames.size]) }
+        videoClassifier.reset()
+
+        // Frames that are late are classified right away.
+        FrameBenchmark(
+            TAG,
+            warmUpFrames = 0,
+            measuredFrames = MEASURED_FRAME_COUNT,
+            frameIntervalNanos = 1_000_000_000L / fps
+        ).measure("$fps FPS") { videoClassifier.classify(frames[it % frames.size]) }
+    }
+
+    private fun loadFrames(appContext: Context, testContext: Context): List<Bitmap> {
+        val file = File("${appContext.cacheDir}/$INPUT_FILE_NAME")
+        testContext.assets.open(INPUT_FILE_NAME).use { input ->
+            file.outputStream().use { output -> input.copyTo(output) }
+        }
+        val media = MediaMetadataRetriever()
+        media.setDataSource(file.path)
+        val frames = (0 until DISTINCT_FRAME_COUNT).mapNotNull { i ->
+            media.getFrameAtIndex(i)?.copy(Bitmap.Config.ARGB_8888, true)
+        }
+        media.release()
+        return frames
+    }
+}
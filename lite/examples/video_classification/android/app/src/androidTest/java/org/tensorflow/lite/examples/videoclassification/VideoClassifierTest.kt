@@ -29,14 +29,18 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.tensorflow.lite.examples.videoclassification.ml.VideoClassifier
+import org.tensorflow.lite.examples.videoclassification.ml.VideoStreamScheduler
 import org.tensorflow.lite.support.label.Category
 import java.io.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 
 @RunWith(AndroidJUnit4::class)
 class VideoClassificationTest {
 
     companion object {
         private const val INPUT_FILE_NAME = "carving_ice.mp4"
+        private const val RESET_TEST_FRAME_COUNT = 5
     }
 
     private lateinit var videoClassifier: VideoClassifier
@@ -87,6 +91,135 @@ class VideoClassificationTest {
         assertThat("Score is larger than threshold.", categories[0].score, greaterThan(0.6f))
     }
 
+    @Test
+    fun testResetRestartsFromInitialState() {
+        val frames = loadFrames(RESET_TEST_FRAME_COUNT)
+
+        // Classifying the same frames after a reset must give exactly the same results, which
+        // only holds if the state buffers were cleared back to zero.
+        val firstRun = frames.map { videoClassifier.classify(it) }
+        videoClassifier.reset()
+        val secondRun = frames.map { videoClassifier.classify(it) }
+        for (i in frames.indices) {
+            assertEquals("Frame $i label matches.", firstRun[i][0].label, secondRun[i][0].label)
+            assertEquals("Frame $i score matches.", firstRun[i][0].score, secondRun[i][0].score, 0f)
+        }
+    }
+
+    @Test
+    fun testStreamsKeepIndependentState() {
+        val frames = loadFrames(RESET_TEST_FRAME_COUNT)
+        val expected = frames.map { videoClassifier.classify(it) }
+
+        // Two streams fed the same frames through the scheduler must each give the results of
+        // a single stream, however their frames are interleaved across the interpreters.
+        val options = VideoClassifier.VideoClassifierOptions.builder().setMaxResult(5)
+            .setNumThreads(1)
+            .setInterpreterCount(2)
+            .build()
+        val classifier = VideoClassifier.createFromFileAndLabelsAndOptions(
+            appContext,
+            "movinet_a0_stream_int8.tflite",
+            "kinetics600_label_map.txt",
+            options
+        )
+        val scheduler = VideoStreamScheduler(classifier, maxPendingFrames = frames.size)
+        val streams = List(2) { classifier.openStream() }
+        val results = streams.associateWith { mutableListOf<List<Category>>() }
+        val done = CountDownLatch(streams.size * frames.size)
+        val listener = object : VideoStreamScheduler.Listener {
+            override fun onResult(
+                stream: VideoClassifier.Stream, frame: Bitmap, categories: List<Category>
+            ) {
+                synchronized(results) { results.getValue(stream).add(categories) }
+                done.countDown()
+            }
+
+            override fun onError(stream: VideoClassifier.Stream, frame: Bitmap, e: Exception) {
+                throw AssertionError("Classification failed.", e)
+            }
+        }
+        for (frame in frames) {
+            streams.forEach { scheduler.submit(it, frame, listener) }
+        }
+        assertTrue("All frames classified.", done.await(60, TimeUnit.SECONDS))
+        scheduler.shutdown()
+        classifier.close()
+
+        for (stream in streams) {
+            val actual = results.getValue(stream)
+            assertEquals("Frame count matches.", frames.size, actual.size)
+            for (i in frames.indices) {
+                assertEquals("Frame $i label matches.", expected[i][0].label, actual[i][0].label)
+                assertEquals("Frame $i score matches.", expected[i][0].score, actual[i][0].score, 0f)
+            }
+            assertEquals(frames.size.toLong(), stream.metrics.getClassifiedFrames())
+        }
+    }
+
+    @Test
+    fun testFramesSubmittedAfterCancelStayInOrder() {
+        val frames = loadFrames(RESET_TEST_FRAME_COUNT)
+        val scheduler = VideoStreamScheduler(videoClassifier, maxPendingFrames = frames.size)
+        val stream = videoClassifier.openStream()
+        val received = mutableListOf<Bitmap>()
+        val lastFrameDone = CountDownLatch(1)
+        val listener = object : VideoStreamScheduler.Listener {
+            override fun onResult(
+                stream: VideoClassifier.Stream, frame: Bitmap, categories: List<Category>
+            ) {
+                synchronized(received) { received.add(frame) }
+                if (frame === frames.last()) lastFrameDone.countDown()
+            }
+
+            override fun onError(stream: VideoClassifier.Stream, frame: Bitmap, e: Exception) {
+                throw AssertionError("Classification failed.", e)
+            }
+        }
+
+        // Cancelling while the first frame may still be classified must not let the frames
+        // submitted next run on a second worker ahead of it.
+        scheduler.submit(stream, frames[0], listener)
+        scheduler.cancel(stream)
+        for (frame in frames.drop(1)) scheduler.submit(stream, frame, listener)
+        assertTrue("All frames classified.", lastFrameDone.await(60, TimeUnit.SECONDS))
+        scheduler.shutdown()
+
+        val order = synchronized(received) { received.map { frames.indexOf(it) } }
+        assertEquals("Frames arrive in submission order.", order.sorted(), order)
+        assertEquals(frames.indices.drop(1), order.filter { it > 0 })
+    }
+
+    @Test
+    fun testSubmitAfterShutdownIsDiscarded() {
+        val frame = loadFrames(1)[0]
+        val scheduler = VideoStreamScheduler(videoClassifier)
+        scheduler.shutdown()
+        scheduler.submit(videoClassifier.openStream(), frame, object : VideoStreamScheduler.Listener {
+            override fun onResult(
+                stream: VideoClassifier.Stream, frame: Bitmap, categories: List<Category>
+            ) {
+                throw AssertionError("Frame classified after shutdown.")
+            }
+
+            override fun onError(stream: VideoClassifier.Stream, frame: Bitmap, e: Exception) {
+                throw AssertionError("Frame submitted after shutdown.", e)
+            }
+        })
+    }
+
+    private fun loadFrames(count: Int): List<Bitmap> {
+        val inputStream = testContext.assets.open(INPUT_FILE_NAME)
+        val file = createFileFromInputStream(inputStream)
+        val media = MediaMetadataRetriever()
+        media.setDataSource(file.path)
+        val frames = (0 until count).mapNotNull { i ->
+            media.getFrameAtIndex(i)?.copy(Bitmap.Config.ARGB_8888, true)
+        }
+        media.release()
+        return frames
+    }
+
     private fun createFileFromInputStream(inputStream: InputStream): File {
         val f = File("${appContext.cacheDir}/$INPUT_FILE_NAME")
         val outputStream: OutputStream = FileOutputStream(f)
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.media.MediaMetadataRetriever
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.greaterThan
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tensorflow.lite.examples.videoclassification.ml.VideoClassifier
+import org.tensorflow.lite.examples.videoclassification.offline.FrameDirectorySource
+import org.tensorflow.lite.examples.videoclassification.offline.MediaCodecFrameSource
+import org.tensorflow.lite.examples.videoclassification.offline.VideoFileClassifier
+import java.io.File
+
+@RunWith(AndroidJUnit4::class)
+class VideoFileClassifierTest {
+
+    companion object {
+        private const val INPUT_FILE_NAME = "carving_ice.mp4"
+        private const val MODEL_FPS = 5f
+        private const val DIRECTORY_FRAME_COUNT = 20
+        private const val DIRECTORY_FPS = 10f
+    }
+
+    private lateinit var appContext: Context
+    private lateinit var videoClassifier: VideoClassifier
+    private lateinit var videoFile: File
+
+    @Before
+    fun setup() {
+        appContext = InstrumentationRegistry.getInstrumentation().targetContext
+        val testContext = InstrumentationRegistry.getInstrumentation().context
+        val options =
+            VideoClassifier.VideoClassifierOptions.builder().setMaxResult(5)
+                .setNumThreads(1)
+                .build()
+        videoClassifier = VideoClassifier.createFromFileAndLabelsAndOptions(
+            appContext,
+            "movinet_a0_stream_int8.tflite",
+            "kinetics600_label_map.txt",
+            options
+        )
+        videoFile = File("${appContext.cacheDir}/$INPUT_FILE_NAME")
+        testContext.assets.open(INPUT_FILE_NAME).use { input ->
+            videoFile.outputStream().use { output -> input.copyTo(output) }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        videoClassifier.close()
+    }
+
+    @Test
+    fun testClassifyVideoFile() {
+        val fileClassifier = VideoFileClassifier(videoClassifier, MODEL_FPS)
+        val timeline = MediaCodecFrameSource(videoFile.path).use { fileClassifier.classify(it) }
+
+        // The whole video is seen at the model FPS, and ends on the ground truth.
+        assertTrue("Timeline isn't empty.", timeline.entries.isNotEmpty())
+        assertThat("Frames are resampled.", timeline.sourceFrames, greaterThan(0))
+        val last = timeline.entries.last().categories[0]
+        assertEquals("Top1 category matches.", "carving ice", last.label)
+        assertThat("Score is larger than threshold.", last.score, greaterThan(0.6f))
+        assertTicks(timeline)
+    }
+
+    @Test
+    fun testClassifyFrameDirectory() {
+        // Frames at twice the model FPS, so every other one is fed to the model.
+        val directory = File(appContext.cacheDir, "frames").apply {
+            deleteRecursively()
+            mkdirs()
+        }
+        val media = MediaMetadataRetriever()
+        media.setDataSource(videoFile.path)
+        for (i in 0 until DIRECTORY_FRAME_COUNT) {
+            val frame = media.getFrameAtIndex(i) ?: break
+            File(directory, String.format("%05d.png", i)).outputStream().use {
+                frame.compress(Bitmap.CompressFormat.PNG, 100, it)
+            }
+        }
+        media.release()
+
+        val fileClassifier = VideoFileClassifier(videoClassifier, MODEL_FPS)
+        val timeline = FrameDirectorySource(directory, DIRECTORY_FPS).use {
+            fileClassifier.classify(it)
+        }
+        assertEquals(DIRECTORY_FRAME_COUNT, timeline.sourceFrames)
+        assertEquals(DIRECTORY_FRAME_COUNT / 2, timeline.classifiedFrames)
+        assertTicks(timeline)
+    }
+
+    private fun assertTicks(timeline: VideoFileClassifier.Timeline) {
+        val tickUs = (1_000_000 / MODEL_FPS).toLong()
+        val start = timeline.entries[0].timestampUs
+        timeline.entries.forEachIndexed { i, entry ->
+            assertEquals("Entry $i is on a model tick.", start + i * tickUs, entry.timestampUs)
+        }
+    }
+}
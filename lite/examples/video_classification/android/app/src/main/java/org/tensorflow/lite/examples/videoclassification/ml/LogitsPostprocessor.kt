@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification.ml
+
+import org.tensorflow.lite.support.label.Category
+import java.nio.FloatBuffer
+import kotlin.math.exp
+
+/**
+ * Converts the output logits of the model to the [maxResults] most likely categories, or to all of
+ * them if [maxResults] is null.
+ *
+ * The logits are read in place and only the top results are kept while scanning them, so the
+ * only objects created are the returned categories. The probabilities are the softmax of the
+ * logits. An instance keeps scratch arrays, so it must not be used from several threads at once.
+ */
+class LogitsPostprocessor(private val labels: List<String>, maxResults: Int?) {
+
+    init {
+        require(maxResults == null || maxResults > 0) { "maxResults must be positive: $maxResults" }
+    }
+
+    private val resultCount = maxResults?.coerceAtMost(labels.size) ?: labels.size
+
+    // Indices and logits of the best classes seen so far, in descending order of logit.
+    private val topIndices = IntArray(resultCount)
+    private val topLogits = FloatArray(resultCount)
+
+    /**
+     * Return the most likely categories from [logits], one logit per label starting at index 0, in
+     * descending order of score. Classes with the same score keep the order of the labels.
+     */
+    fun process(logits: FloatBuffer): MutableList<Category> {
+        val classCount = labels.size
+        var maxLogit = Float.NEGATIVE_INFINITY
+        for (i in 0 until classCount) {
+            val logit = logits.get(i)
+            if (logit > maxLogit) maxLogit = logit
+        }
+
+        var count = 0
+        var expSum = 0f
+        for (i in 0 until classCount) {
+            val logit = logits.get(i)
+            // Shifted by the largest logit so exp() can't overflow.
+            expSum += exp(logit - maxLogit)
+
+            // Insert into the top list if it's better than its last entry.
+            if (count == resultCount && logit <= topLogits[count - 1]) continue
+            var position = if (count < resultCount) count++ else count - 1
+            while (position > 0 && topLogits[position - 1] < logit) {
+                topLogits[position] = topLogits[position - 1]
+                topIndices[position] = topIndices[position - 1]
+                position--
+            }
+            topLogits[position] = logit
+            topIndices[position] = i
+        }
+
+        val categories = ArrayList<Category>(count)
+        for (i in 0 until count) {
+            val probability = exp(topLogits[i] - maxLogit) / expSum
+            categories.add(Category(labels[topIndices[i]], probability))
+        }
+        return categories
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification.ml
+
+import java.util.Locale
+
+/**
+ * Throughput and latency of one [VideoClassifier.Stream] over its last [windowSize] frames.
+ *
+ * Frames are kept in fixed ring buffers, so recording one never allocates. Frames are recorded
+ * from the thread classifying them and read from any thread.
+ */
+class StreamMetrics(private val windowSize: Int = DEFAULT_WINDOW_SIZE) {
+
+    init {
+        require(windowSize >= 2) { "windowSize must be at least 2: $windowSize" }
+    }
+
+    private val latencies = LongArray(windowSize)
+    private val interpreterWaits = LongArray(windowSize)
+    private val completionTimes = LongArray(windowSize)
+    private var latencySum = 0L
+    private var interpreterWaitSum = 0L
+    private var next = 0
+    private var size = 0
+    private var classifiedFrames = 0L
+    private var droppedFrames = 0L
+
+    /**
+     * Record one classified frame. [latencyNanos] covers inference and post-processing, including
+     * the [interpreterWaitNanos] spent waiting for a free interpreter.
+     */
+    @Synchronized
+    fun recordFrame(latencyNanos: Long, interpreterWaitNanos: Long, completionTimeNanos: Long) {
+        if (size == windowSize) {
+            latencySum -= latencies[next]
+            interpreterWaitSum -= interpreterWaits[next]
+        } else {
+            size++
+        }
+        latencies[next] = latencyNanos
+        interpreterWaits[next] = interpreterWaitNanos
+        completionTimes[next] = completionTimeNanos
+        latencySum += latencyNanos
+        interpreterWaitSum += interpreterWaitNanos
+        next = (next + 1) % windowSize
+        classifiedFrames++
+    }
+
+    /** Record a frame that was skipped without being classified. */
+    @Synchronized
+    fun recordDroppedFrame() {
+        droppedFrames++
+    }
+
+    /** Number of frames classified since the stream was opened. */
+    @Synchronized
+    fun getClassifiedFrames(): Long = classifiedFrames
+
+    /** Number of frames skipped since the stream was opened. */
+    @Synchronized
+    fun getDroppedFrames(): Long = droppedFrames
+
+    /** Frames classified per second over the window. */
+    @Synchronized
+    fun getFps(): Float {
+        if (size < 2) return 0f
+        val newest = (next - 1 + windowSize) % windowSize
+        val oldest = if (size == windowSize) next else 0
+        val elapsed = completionTimes[newest] - completionTimes[oldest]
+        return if (elapsed <= 0) 0f else (size - 1) * 1e9f / elapsed
+    }
+
+    /** Mean time to classify a frame over the window, in milliseconds. */
+    @Synchronized
+    fun getMeanLatencyMillis(): Float = if (size == 0) 0f else latencySum / (size * 1e6f)
+
+    /** Mean time spent waiting for a free interpreter over the window, in milliseconds. */
+    @Synchronized
+    fun getMeanInterpreterWaitMillis(): Float =
+        if (size == 0) 0f else interpreterWaitSum / (size * 1e6f)
+
+    @Synchronized
+    override fun toString(): String = String.format(
+        Locale.US,
+        "FPS: %.1f, classified: %d, dropped: %d, latency: %.1f ms, interpreter wait: %.1f ms",
+        getFps(),
+        classifiedFrames,
+        droppedFrames,
+        getMeanLatencyMillis(),
+        getMeanInterpreterWaitMillis()
+    )
+
+    companion object {
+        private const val DEFAULT_WINDOW_SIZE = 30
+    }
+}
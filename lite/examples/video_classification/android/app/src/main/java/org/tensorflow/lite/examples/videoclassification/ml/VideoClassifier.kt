@@ -18,10 +18,10 @@ package org.tensorflow.lite.examples.videoclassification.ml
 
 import android.content.Context
 import android.graphics.Bitmap
+import android.os.SystemClock
 import android.util.Size
 import org.tensorflow.lite.DataType
 import org.tensorflow.lite.Interpreter
-import org.tensorflow.lite.examples.videoclassification.CalculateUtils
 import org.tensorflow.lite.support.common.FileUtil
 import org.tensorflow.lite.support.common.ops.NormalizeOp
 import org.tensorflow.lite.support.image.ImageProcessor
@@ -31,14 +31,25 @@ import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp
 import org.tensorflow.lite.support.label.Category
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
-import kotlin.math.max
+import java.util.concurrent.ArrayBlockingQueue
 import kotlin.math.min
 
+/**
+ * Classifies video frames with a streaming MoViNet model.
+ *
+ * The model carries a recurrent state from one frame to the next, so each video needs its own state.
+ * A [Stream] opened with [openStream] holds the state of one video, and any number of streams can
+ * share the loaded model. Their inferences run on a small pool of interpreters, so frames of
+ * different streams can be classified concurrently. [classify] and [reset] use a default stream,
+ * for apps that only follow one video.
+ */
 class VideoClassifier private constructor(
-    private val interpreter: Interpreter,
+    private val interpreters: List<Interpreter>,
     private val labels: List<String>,
     private val maxResults: Int?
 ) {
+    // All interpreters run the same model, so any of them describes the tensors.
+    private val interpreter = interpreters[0]
     private val inputShape = interpreter
         .getInputTensorFromSignature(IMAGE_INPUT_NAME, SIGNATURE_KEY)
         .shape()
@@ -47,8 +58,19 @@ class VideoClassifier private constructor(
         .shape()[1]
     private val inputHeight = inputShape[2]
     private val inputWidth = inputShape[3]
-    private var inputState = HashMap<String, Any>()
-    private val lock = Any()
+    private val stateSizes = interpreter.getSignatureInputs(SIGNATURE_KEY)
+        .filter { it != IMAGE_INPUT_NAME }
+        .associateWith { interpreter.getInputTensorFromSignature(it, SIGNATURE_KEY).numBytes() }
+    private val logitsSize =
+        interpreter.getOutputTensorFromSignature(LOGITS_OUTPUT_NAME, SIGNATURE_KEY).numBytes()
+    private val zeros = ByteArray(stateSizes.values.maxOrNull() ?: 0)
+
+    // Interpreters not running an inference right now.
+    private val idleInterpreters = ArrayBlockingQueue<Interpreter>(interpreters.size)
+        .apply { addAll(interpreters) }
+
+    private val defaultStream by lazy { openStream() }
+    private val sharedPreprocessor by lazy { ImagePreprocessor() }
 
     companion object {
         private const val IMAGE_INPUT_NAME = "image"
@@ -63,11 +85,13 @@ class VideoClassifier private constructor(
             labelFile: String,
             options: VideoClassifierOptions
         ): VideoClassifier {
-            // Create a TFLite interpreter from the TFLite model file.
+            // Create the TFLite interpreters from the TFLite model file, loaded once for all.
             val interpreterOptions = Interpreter.Options()
             interpreterOptions.setNumThreads(options.numThreads)
-            val interpreter =
-                Interpreter(FileUtil.loadMappedFile(context, modelFile))
+            val model = FileUtil.loadMappedFile(context, modelFile)
+            val interpreters = List(options.interpreterCount) {
+                Interpreter(model, interpreterOptions)
+            }
 
             // Load the label file.
             val labels = FileUtil.loadLabels(context, labelFile)
@@ -76,7 +100,7 @@ class VideoClassifier private constructor(
             val maxResults = if (options.maxResults > 0 && options.maxResults <= labels.size)
                 options.maxResults else null
 
-            return VideoClassifier(interpreter, labels, maxResults)
+            return VideoClassifier(interpreters, labels, maxResults)
         }
     }
 
@@ -86,78 +110,31 @@ class VideoClassifier private constructor(
                 "Label list size doesn't match with model output shape " +
                         "(${labels.size} != $outputCategoryCount"
             )
-        inputState = initializeInput()
     }
 
     /**
-     * Initialize the input objects and fill them with zeros.
+     * Open a new stream, starting from the initial state of the model.
      */
-    private fun initializeInput(): HashMap<String, Any> {
-        val inputs = HashMap<String, Any>()
-        for (inputName in interpreter.getSignatureInputs(SIGNATURE_KEY)) {
-            // Skip the input image tensor as it'll be fed in later.
-            if (inputName.equals(IMAGE_INPUT_NAME))
-                continue
-
-            // Initialize a ByteBuffer filled with zeros as an initial input of the TFLite model.
-            val tensor = interpreter.getInputTensorFromSignature(inputName, SIGNATURE_KEY)
-            val byteBuffer = ByteBuffer.allocateDirect(tensor.numBytes())
-            byteBuffer.order(ByteOrder.nativeOrder())
-            inputs[inputName] = byteBuffer
-        }
-
-        return inputs
-    }
+    fun openStream(): Stream = Stream()
 
     /**
-     * Initialize the output objects to store the TFLite model outputs.
+     * Run classify on the default stream and return a list include action and score.
      */
-    private fun initializeOutput(): HashMap<String, Any> {
-        val outputs = HashMap<String, Any>()
-        for (outputName in interpreter.getSignatureOutputs(SIGNATURE_KEY)) {
-            // Initialize a ByteBuffer to store the output of the TFLite model.
-            val tensor = interpreter.getOutputTensorFromSignature(outputName, SIGNATURE_KEY)
-            val byteBuffer = ByteBuffer.allocateDirect(tensor.numBytes())
-            byteBuffer.order(ByteOrder.nativeOrder())
-            outputs[outputName] = byteBuffer
-        }
+    fun classify(inputBitmap: Bitmap): List<Category> = defaultStream.classify(inputBitmap)
 
-        return outputs
+    /**
+     * Convert a frame to the model input, e.g. on another thread ahead of [Stream.classify]. It
+     * doesn't depend on the state of any stream.
+     */
+    fun preprocess(inputBitmap: Bitmap): TensorImage = synchronized(sharedPreprocessor) {
+        // A new TensorImage each time, as callers may hold on to several of them.
+        sharedPreprocessor.process(inputBitmap, TensorImage(DataType.FLOAT32))
     }
 
     /**
-     * Run classify and return a list include action and score.
+     * Number of inferences that can run at the same time.
      */
-    fun classify(inputBitmap: Bitmap): List<Category> {
-        // As this model is stateful, ensure there's only one inference going on at once.
-        synchronized(lock) {
-            // Prepare inputs.
-            val tensorImage = preprocessInputImage(inputBitmap)
-            inputState[IMAGE_INPUT_NAME] = tensorImage.buffer
-
-            // Initialize a placeholder to store the output objects.
-            val outputs = initializeOutput()
-
-            // Run inference using the TFLite model.
-            interpreter.runSignature(inputState, outputs)
-
-            // Post-process the outputs.
-            var categories = postprocessOutputLogits(outputs[LOGITS_OUTPUT_NAME] as ByteBuffer)
-
-            // Store the output states to feed as input for the next frame.
-            outputs.remove(LOGITS_OUTPUT_NAME)
-            inputState = outputs
-
-            // Sort the output and return only the top K results.
-            categories.sortByDescending { it.score }
-
-            // Take only maxResults number of result.
-            maxResults?.let {
-                categories = categories.subList(0, max(maxResults, categories.size))
-            }
-            return categories
-        }
-    }
+    fun getInterpreterCount(): Int = interpreters.size
 
     /**
      * Return the input size required by the model.
@@ -167,63 +144,162 @@ class VideoClassifier private constructor(
     }
 
     /**
-     * Convert input bitmap to TensorImage and normalize.
+     * Converts input bitmaps to normalized TensorImages. The image processor is only rebuilt when
+     * the size of the input bitmaps changes. Not thread safe, as the processor's crop operation
+     * draws into a bitmap it owns.
      */
-    private fun preprocessInputImage(bitmap: Bitmap): TensorImage {
-        val size = min(bitmap.width, bitmap.height)
-        val imageProcessor = ImageProcessor.Builder().apply {
-            add(ResizeWithCropOrPadOp(size, size))
-            add(ResizeOp(inputHeight, inputWidth, ResizeOp.ResizeMethod.BILINEAR))
-            add(NormalizeOp(INPUT_MEAN, INPUT_STD))
-        }.build()
-        val tensorImage = TensorImage(DataType.FLOAT32)
-        tensorImage.load(bitmap)
-        return imageProcessor.process(tensorImage)
-    }
-
-    /**
-     * Convert output logits of the model to a list of Category objects.
-     */
-    private fun postprocessOutputLogits(logitsByteBuffer: ByteBuffer): MutableList<Category> {
-        // Convert ByteBuffer to FloatArray.
-        val logits = FloatArray(outputCategoryCount)
-        logitsByteBuffer.rewind()
-        logitsByteBuffer.asFloatBuffer().get(logits)
-
-        // Convert logits into probability list.
-        val probabilities = CalculateUtils.softmax(logits)
-
-        // Append label name to form a list of Category objects.
-        val categories = mutableListOf<Category>()
-        probabilities.forEachIndexed { index, probability ->
-            categories.add(Category(labels[index], probability))
+    private inner class ImagePreprocessor {
+        private var imageProcessor: ImageProcessor? = null
+        private var imageProcessorSize = 0
+
+        /**
+         * Convert input bitmap to TensorImage and normalize, loading it into [tensorImage].
+         */
+        fun process(bitmap: Bitmap, tensorImage: TensorImage): TensorImage {
+            val size = min(bitmap.width, bitmap.height)
+            val processor = imageProcessor?.takeIf { imageProcessorSize == size }
+                ?: ImageProcessor.Builder().apply {
+                    add(ResizeWithCropOrPadOp(size, size))
+                    add(ResizeOp(inputHeight, inputWidth, ResizeOp.ResizeMethod.BILINEAR))
+                    add(NormalizeOp(INPUT_MEAN, INPUT_STD))
+                }.build().also {
+                    imageProcessor = it
+                    imageProcessorSize = size
+                }
+            tensorImage.load(bitmap)
+            return processor.process(tensorImage)
         }
-        return categories
     }
 
     /**
-     * Close the interpreter when it's no longer needed.
+     * Close the interpreters when they're no longer needed. Streams can't be used afterwards.
      */
     fun close() {
-        interpreter.close()
+        interpreters.forEach { it.close() }
     }
 
     /**
-     * Clear the internal state of the model.
+     * Clear the internal state of the default stream.
      *
      * Call this function if the future inputs is unrelated to the past inputs. (e.g. when changing
      * to a new video sequence)
      */
     fun reset() {
-        // Ensure that no inference is running when the state is being cleared.
-        synchronized(lock) {
-            inputState = initializeInput()
+        defaultStream.reset()
+    }
+
+    private fun allocateBuffer(numBytes: Int): ByteBuffer =
+        ByteBuffer.allocateDirect(numBytes).order(ByteOrder.nativeOrder())
+
+    /**
+     * The recurrent state of one video, fed to the shared model frame after frame.
+     *
+     * Frames of a stream are classified one at a time, in the order [classify] is called. Frames of
+     * different streams run in parallel, up to the number of interpreters.
+     */
+    inner class Stream internal constructor() {
+        private val lock = Any()
+
+        // The state is kept in two sets of buffers that swap roles on every frame: the set the
+        // model reads its state from and the set it writes the next state into.
+        private val stateBuffers = Array(2) {
+            stateSizes.mapValues { (_, size) -> allocateBuffer(size) }
+        }
+        private val logitsBuffer = allocateBuffer(logitsSize)
+        private val logits = logitsBuffer.asFloatBuffer()
+        private val postprocessor = LogitsPostprocessor(labels, maxResults)
+        private val preprocessor = ImagePreprocessor()
+        private val tensorImage = TensorImage(DataType.FLOAT32)
+
+        // Input and output maps of each of the two roles, so no map is created per frame either.
+        private val inputs = Array(2) { HashMap<String, Any>(stateBuffers[it]) }
+        private val outputs = Array(2) {
+            HashMap<String, Any>(stateBuffers[it]).apply { put(LOGITS_OUTPUT_NAME, logitsBuffer) }
+        }
+
+        // Index of the buffer set holding the state to feed in for the next frame.
+        private var current = 0
+
+        /** Throughput and latency of this stream. */
+        val metrics = StreamMetrics()
+
+        /**
+         * Run classify on the next frame of this stream and return a list include action and
+         * score.
+         */
+        fun classify(inputBitmap: Bitmap): List<Category> {
+            synchronized(lock) {
+                // Only this stream uses its TensorImage, so it's reused from frame to frame.
+                return classifyLocked(preprocessor.process(inputBitmap, tensorImage))
+            }
+        }
+
+        /**
+         * Run classify on the next frame of this stream, already converted with [preprocess],
+         * and return a list include action and score.
+         */
+        fun classify(inputImage: TensorImage): List<Category> {
+            synchronized(lock) {
+                return classifyLocked(inputImage)
+            }
+        }
+
+        // As this model is stateful, ensure there's only one inference going on at once: callers
+        // must hold the stream lock.
+        private fun classifyLocked(inputImage: TensorImage): List<Category> {
+            val startNanos = SystemClock.elapsedRealtimeNanos()
+
+            // Prepare inputs.
+            val next = 1 - current
+            inputs[current][IMAGE_INPUT_NAME] = inputImage.buffer
+
+            // The outputs are copied into the buffers from their current position.
+            for (buffer in stateBuffers[next].values) buffer.rewind()
+            logitsBuffer.rewind()
+
+            // Run inference on the first free interpreter, writing the new state into the
+            // other set.
+            val waitStartNanos = SystemClock.elapsedRealtimeNanos()
+            val interpreter = idleInterpreters.take()
+            val waitNanos = SystemClock.elapsedRealtimeNanos() - waitStartNanos
+            try {
+                interpreter.runSignature(inputs[current], outputs[next])
+            } finally {
+                idleInterpreters.put(interpreter)
+            }
+
+            // Post-process the outputs, keeping only the top K results.
+            val categories = postprocessor.process(logits)
+
+            // The state just written is the input for the next frame.
+            current = next
+
+            val endNanos = SystemClock.elapsedRealtimeNanos()
+            metrics.recordFrame(endNanos - startNanos, waitNanos, endNanos)
+            return categories
+        }
+
+        /**
+         * Clear the state of this stream, e.g. when its video source changes.
+         */
+        fun reset() {
+            // Ensure that no inference is running when the state is being cleared.
+            synchronized(lock) {
+                // Only the set read on the next frame needs clearing, the other one is
+                // overwritten.
+                for (buffer in stateBuffers[current].values) {
+                    buffer.rewind()
+                    buffer.put(zeros, 0, buffer.capacity())
+                    buffer.rewind()
+                }
+            }
         }
     }
 
     class VideoClassifierOptions private constructor(
         val numThreads: Int,
-        val maxResults: Int
+        val maxResults: Int,
+        val interpreterCount: Int
     ) {
         companion object {
             fun builder() = Builder()
@@ -232,6 +308,7 @@ class VideoClassifier private constructor(
         class Builder {
             private var numThreads: Int = -1
             private var maxResult: Int = -1
+            private var interpreterCount: Int = 1
 
             fun setNumThreads(numThreads: Int): Builder {
                 this.numThreads = numThreads
@@ -246,8 +323,20 @@ class VideoClassifier private constructor(
                 return this
             }
 
+            /**
+             * Set the number of interpreters sharing the model, i.e. how many streams can run
+             * an inference at the same time.
+             */
+            fun setInterpreterCount(interpreterCount: Int): Builder {
+                if (interpreterCount <= 0) {
+                    throw IllegalArgumentException("interpreterCount must be positive.")
+                }
+                this.interpreterCount = interpreterCount
+                return this
+            }
+
             fun build(): VideoClassifierOptions {
-                return VideoClassifierOptions(this.numThreads, this.maxResult)
+                return VideoClassifierOptions(this.numThreads, this.maxResult, this.interpreterCount)
             }
         }
     }
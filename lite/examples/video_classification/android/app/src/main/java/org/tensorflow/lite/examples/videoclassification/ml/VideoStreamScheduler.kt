@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification.ml
+
+import android.graphics.Bitmap
+import org.tensorflow.lite.support.label.Category
+import java.util.ArrayDeque
+import java.util.IdentityHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Classifies frames of several [VideoClassifier.Stream]s in the background.
+ *
+ * Frames of one stream are classified one after the other in submission order, while frames of
+ * different streams are interleaved across [threadCount] worker threads. Each worker classifies a
+ * single frame and then moves on to the next stream waiting, so a busy stream can't starve the
+ * others. When a stream has more than [maxPendingFrames] frames waiting, its oldest one is dropped
+ * to keep up with the live video.
+ */
+class VideoStreamScheduler(
+    classifier: VideoClassifier,
+    threadCount: Int = classifier.getInterpreterCount(),
+    private val maxPendingFrames: Int = DEFAULT_MAX_PENDING_FRAMES
+) {
+
+    interface Listener {
+        /** Called on a worker thread with the results of [frame], in submission order. */
+        fun onResult(stream: VideoClassifier.Stream, frame: Bitmap, categories: List<Category>)
+
+        /** Called on a worker thread when [frame] could not be classified. */
+        fun onError(stream: VideoClassifier.Stream, frame: Bitmap, e: Exception)
+    }
+
+    private class PendingFrame(val bitmap: Bitmap, val listener: Listener)
+
+    // Frames waiting for one stream, whether a worker has been asked to run the next one, and
+    // whether the stream was cancelled while a worker still had it.
+    private class StreamQueue(val stream: VideoClassifier.Stream) {
+        val frames = ArrayDeque<PendingFrame>()
+        var isScheduled = false
+        var isCancelled = false
+    }
+
+    private val executor: ExecutorService = Executors.newFixedThreadPool(threadCount)
+    // Locked before any StreamQueue when both are needed.
+    private val queues = IdentityHashMap<VideoClassifier.Stream, StreamQueue>()
+
+    init {
+        require(maxPendingFrames > 0) { "maxPendingFrames must be positive: $maxPendingFrames" }
+    }
+
+    /**
+     * Queue [frame] as the next frame of [stream]. [listener] receives the results once it has
+     * been classified. The frame must not be modified until then. Frames submitted after
+     * [shutdown] are discarded.
+     */
+    fun submit(stream: VideoClassifier.Stream, frame: Bitmap, listener: Listener) {
+        synchronized(queues) {
+            if (executor.isShutdown) return
+            // A cancelled stream whose last frame is still being classified keeps its queue, so
+            // new frames wait behind that one.
+            val queue = queues.getOrPut(stream) { StreamQueue(stream) }
+            synchronized(queue) {
+                queue.isCancelled = false
+                if (queue.frames.size >= maxPendingFrames) {
+                    queue.frames.removeFirst()
+                    stream.metrics.recordDroppedFrame()
+                }
+                queue.frames.addLast(PendingFrame(frame, listener))
+                if (!queue.isScheduled) {
+                    queue.isScheduled = true
+                    executor.execute { runNextFrame(queue) }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the frames waiting for [stream], e.g. before closing or resetting it. A frame that is
+     * being classified still gets its result.
+     */
+    fun cancel(stream: VideoClassifier.Stream) {
+        synchronized(queues) {
+            val queue = queues[stream] ?: return
+            synchronized(queue) {
+                queue.frames.clear()
+                // The worker running the stream removes the queue once it's done.
+                if (queue.isScheduled) queue.isCancelled = true else queues.remove(stream)
+            }
+        }
+    }
+
+    /**
+     * Stop the workers. Frames that have not been classified yet, or are submitted later, are
+     * discarded.
+     */
+    fun shutdown() {
+        // Under the lock, so no frame is handed to the executor after its isShutdown check.
+        synchronized(queues) { executor.shutdownNow() }
+    }
+
+    private fun runNextFrame(queue: StreamQueue) {
+        // Null if the stream was cancelled after this run was scheduled.
+        val frame = synchronized(queue) { queue.frames.pollFirst() }
+        if (frame != null) {
+            try {
+                val categories = queue.stream.classify(frame.bitmap)
+                frame.listener.onResult(queue.stream, frame.bitmap, categories)
+            } catch (e: Exception) {
+                frame.listener.onError(queue.stream, frame.bitmap, e)
+            }
+        }
+
+        // Go to the back of the line, so the other streams get their turn first.
+        synchronized(queues) {
+            synchronized(queue) {
+                if (queue.frames.isEmpty()) {
+                    queue.isScheduled = false
+                    if (queue.isCancelled) queues.remove(queue.stream)
+                } else if (!executor.isShutdown) {
+                    executor.execute { runNextFrame(queue) }
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_MAX_PENDING_FRAMES = 2
+    }
+}
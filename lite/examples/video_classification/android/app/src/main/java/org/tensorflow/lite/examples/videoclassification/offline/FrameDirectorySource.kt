@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification.offline
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import java.io.File
+import java.io.IOException
+
+/**
+ * [FrameSource] reading the frames of a video from a directory of images, one image per frame.
+ *
+ * Frames are ordered by file name and timed at a constant [fps], e.g. for frames extracted from a
+ * video with `ffmpeg -i video.mp4 -r 30 frames/%05d.png`.
+ */
+class FrameDirectorySource(directory: File, private val fps: Float) : FrameSource {
+
+    private val files = directory.listFiles { file ->
+        file.isFile && file.extension.lowercase() in IMAGE_EXTENSIONS
+    }?.sortedBy { it.name } ?: throw IOException("Can't list frames in $directory")
+    private var index = -1
+
+    init {
+        require(fps > 0) { "fps must be positive: $fps" }
+    }
+
+    override fun advance(): Long {
+        if (index + 1 >= files.size) return FrameSource.END_OF_STREAM
+        index++
+        return (index * 1_000_000.0 / fps).toLong()
+    }
+
+    override fun retrieve(): Bitmap {
+        check(index in files.indices) { "advance() must return a frame first." }
+        val file = files[index]
+        return BitmapFactory.decodeFile(file.path) ?: throw IOException("Can't decode $file")
+    }
+
+    override fun close() {}
+
+    companion object {
+        private val IMAGE_EXTENSIONS = setOf("jpg", "jpeg", "png", "webp", "bmp")
+    }
+}
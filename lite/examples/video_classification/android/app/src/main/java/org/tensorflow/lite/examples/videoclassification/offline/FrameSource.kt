@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification.offline
+
+import android.graphics.Bitmap
+import java.io.Closeable
+
+/**
+ * Frames of a recorded video, read in presentation order.
+ *
+ * Finding the next frame and converting it to a [Bitmap] are separate steps, so frames that are
+ * skipped when resampling the video are never converted.
+ */
+interface FrameSource : Closeable {
+
+    /**
+     * Move to the next frame.
+     * @return the presentation time of the frame in microseconds, or [END_OF_STREAM] if there are
+     * no more frames
+     */
+    fun advance(): Long
+
+    /**
+     * Return the current frame, i.e. the one [advance] moved to last. The bitmap may be reused by
+     * the source, so it is only valid until the next call to [advance].
+     */
+    fun retrieve(): Bitmap
+
+    companion object {
+        const val END_OF_STREAM = -1L
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification.offline
+
+import android.graphics.Bitmap
+import android.graphics.Matrix
+import android.media.Image
+import android.media.MediaCodec
+import android.media.MediaCodecInfo
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * [FrameSource] decoding the video track of a local file with [MediaCodec].
+ *
+ * Decoded frames are only converted to RGB when [retrieve] is called, into a bitmap that is reused
+ * from frame to frame.
+ */
+class MediaCodecFrameSource(path: String) : FrameSource {
+
+    private val extractor = MediaExtractor()
+    private val decoder: MediaCodec
+    private val rotationDegrees: Int
+    private val bufferInfo = MediaCodec.BufferInfo()
+    private var inputDone = false
+    private var outputDone = false
+
+    // Output buffer of the current frame, held until the next call to advance().
+    private var currentIndex = NO_BUFFER
+    private var currentBitmap: Bitmap? = null
+
+    // Reused between frames.
+    private var bitmap: Bitmap? = null
+    private var pixels = IntArray(0)
+    private val planeBytes = Array(3) { ByteArray(0) }
+
+    init {
+        extractor.setDataSource(path)
+        val track = (0 until extractor.trackCount).firstOrNull { track ->
+            extractor.getTrackFormat(track).getString(MediaFormat.KEY_MIME)
+                ?.startsWith("video/") == true
+        }
+        if (track == null) {
+            extractor.release()
+            throw IOException("No video track in $path")
+        }
+        extractor.selectTrack(track)
+        val format = extractor.getTrackFormat(track)
+        rotationDegrees =
+            if (format.containsKey(KEY_ROTATION)) format.getInteger(KEY_ROTATION) else 0
+
+        // Ask for YUV 4:2:0 output that can be read through Image planes on any device.
+        format.setInteger(
+            MediaFormat.KEY_COLOR_FORMAT,
+            MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible
+        )
+        decoder = try {
+            MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME)!!).apply {
+                configure(format, null, null, 0)
+                start()
+            }
+        } catch (e: Exception) {
+            extractor.release()
+            throw IOException("Can't decode the video track of $path", e)
+        }
+    }
+
+    override fun advance(): Long {
+        releaseCurrentFrame()
+        while (!outputDone) {
+            if (!inputDone) queueInput()
+            val index = decoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US)
+            // Format and buffer changes need no handling, frames are read through Image.
+            if (index < 0) continue
+
+            if (bufferInfo.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0) {
+                outputDone = true
+            }
+            if (bufferInfo.size > 0) {
+                currentIndex = index
+                return bufferInfo.presentationTimeUs
+            }
+            decoder.releaseOutputBuffer(index, false)
+        }
+        return FrameSource.END_OF_STREAM
+    }
+
+    override fun retrieve(): Bitmap {
+        check(currentIndex != NO_BUFFER) { "advance() must return a frame first." }
+        currentBitmap?.let { return it }
+        val image = decoder.getOutputImage(currentIndex)
+            ?: throw IOException("Decoder has no image for the current frame.")
+        val frame = try {
+            convertToBitmap(image)
+        } finally {
+            image.close()
+        }
+        val rotated = if (rotationDegrees == 0) frame else {
+            val matrix = Matrix().apply { postRotate(rotationDegrees.toFloat()) }
+            Bitmap.createBitmap(frame, 0, 0, frame.width, frame.height, matrix, false)
+        }
+        currentBitmap = rotated
+        return rotated
+    }
+
+    override fun close() {
+        releaseCurrentFrame()
+        decoder.stop()
+        decoder.release()
+        extractor.release()
+    }
+
+    private fun queueInput() {
+        val index = decoder.dequeueInputBuffer(TIMEOUT_US)
+        if (index < 0) return
+        val sampleSize = extractor.readSampleData(decoder.getInputBuffer(index)!!, 0)
+        if (sampleSize < 0) {
+            decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+            inputDone = true
+        } else {
+            decoder.queueInputBuffer(index, 0, sampleSize, extractor.sampleTime, 0)
+            extractor.advance()
+        }
+    }
+
+    private fun releaseCurrentFrame() {
+        if (currentIndex != NO_BUFFER) {
+            decoder.releaseOutputBuffer(currentIndex, false)
+            currentIndex = NO_BUFFER
+        }
+        currentBitmap = null
+    }
+
+    /**
+     * Convert a YUV_420_888 image to ARGB_8888 with the BT.601 video range coefficients, reading
+     * the planes with their own row and pixel strides.
+     */
+    private fun convertToBitmap(image: Image): Bitmap {
+        val crop = image.cropRect
+        val width = crop.width()
+        val height = crop.height()
+        val output = bitmap?.takeIf { it.width == width && it.height == height }
+            ?: Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).also { bitmap = it }
+        if (pixels.size != width * height) pixels = IntArray(width * height)
+
+        val planes = image.planes
+        for (i in 0 until 3) copyPlane(planes[i].buffer, i)
+        val y = planeBytes[0]
+        val u = planeBytes[1]
+        val v = planeBytes[2]
+        val yRowStride = planes[0].rowStride
+        val yPixelStride = planes[0].pixelStride
+        val uvRowStride = planes[1].rowStride
+        val uvPixelStride = planes[1].pixelStride
+
+        var out = 0
+        for (row in 0 until height) {
+            val yRow = (crop.top + row) * yRowStride
+            val uvRow = ((crop.top + row) shr 1) * uvRowStride
+            for (col in 0 until width) {
+                val yValue = y[yRow + (crop.left + col) * yPixelStride].toInt() and 0xff
+                val uvOffset = uvRow + ((crop.left + col) shr 1) * uvPixelStride
+                // 10-bit fixed point, rounded to nearest. Luma is only clamped with the result,
+                // which keeps the colours within 1 of the RenderScript YUV to RGB intrinsic.
+                val luma = 1192 * (yValue - 16) + 512
+                val cb = (u[uvOffset].toInt() and 0xff) - 128
+                val cr = (v[uvOffset].toInt() and 0xff) - 128
+                val r = clamp((luma + 1634 * cr) shr 10)
+                val g = clamp((luma - 833 * cr - 400 * cb) shr 10)
+                val b = clamp((luma + 2066 * cb) shr 10)
+                pixels[out++] = (0xff shl 24) or (r shl 16) or (g shl 8) or b
+            }
+        }
+        output.setPixels(pixels, 0, width, 0, 0, width, height)
+        return output
+    }
+
+    private fun copyPlane(buffer: ByteBuffer, plane: Int) {
+        val size = buffer.remaining()
+        if (planeBytes[plane].size < size) planeBytes[plane] = ByteArray(size)
+        buffer.get(planeBytes[plane], 0, size)
+    }
+
+    private fun clamp(value: Int) = if (value < 0) 0 else if (value > 255) 255 else value
+
+    companion object {
+        private const val TIMEOUT_US = 10_000L
+        private const val NO_BUFFER = -1
+
+        // MediaFormat.KEY_ROTATION, which is only public from API level 23.
+        private const val KEY_ROTATION = "rotation-degrees"
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.videoclassification.offline
+
+import android.os.SystemClock
+import org.tensorflow.lite.examples.videoclassification.ml.VideoClassifier
+import org.tensorflow.lite.support.image.TensorImage
+import org.tensorflow.lite.support.label.Category
+import java.util.concurrent.ArrayBlockingQueue
+
+/**
+ * Classifies recorded videos as fast as the model allows, e.g. to label footage in batch.
+ *
+ * The frames of a [FrameSource] are resampled to the [modelFps] the model expects, then decoded
+ * and preprocessed on a background thread up to [prefetchFrames] frames ahead of the inference,
+ * which runs on the calling thread. Each video is classified on its own stream of the
+ * [classifier], so several videos can be classified at once from different threads.
+ */
+class VideoFileClassifier(
+    private val classifier: VideoClassifier,
+    private val modelFps: Float = DEFAULT_MODEL_FPS,
+    private val prefetchFrames: Int = DEFAULT_PREFETCH_FRAMES
+) {
+
+    /** The top categories of the model after seeing the video up to [timestampUs]. */
+    class TimelineEntry(val timestampUs: Long, val categories: List<Category>)
+
+    /** The results of classifying a video. */
+    class Timeline(
+        val entries: List<TimelineEntry>,
+        /** Number of frames read from the source. */
+        val sourceFrames: Int,
+        /** Time spent classifying the video, in milliseconds. */
+        val elapsedMillis: Long
+    ) {
+        /** Number of frames fed to the model, after resampling. */
+        val classifiedFrames: Int
+            get() = entries.size
+
+        /**
+         * How many times faster than real time the video was classified, measured over the span
+         * between the first and the last classified frame, as videos don't always start at 0.
+         */
+        val realtimeFactor: Float
+            get() {
+                val durationUs = if (entries.isEmpty()) 0L
+                else entries.last().timestampUs - entries.first().timestampUs
+                return if (elapsedMillis <= 0) 0f else durationUs / (elapsedMillis * 1000f)
+            }
+    }
+
+    // A preprocessed frame, or the end of the video when image is null.
+    private class PreparedFrame(val timestampUs: Long, val image: TensorImage?)
+
+    init {
+        require(modelFps > 0) { "modelFps must be positive: $modelFps" }
+        require(prefetchFrames > 0) { "prefetchFrames must be positive: $prefetchFrames" }
+    }
+
+    /**
+     * Classify all frames of [source], calling [listener] with each new timeline entry as soon as
+     * it is known. Blocks until the end of the video. The source is not closed.
+     */
+    fun classify(
+        source: FrameSource,
+        listener: ((TimelineEntry) -> Unit)? = null
+    ): Timeline {
+        val startMillis = SystemClock.uptimeMillis()
+        val stream = classifier.openStream()
+        val queue = ArrayBlockingQueue<PreparedFrame>(prefetchFrames)
+        var sourceFrames = 0
+        var error: Throwable? = null
+
+        val prefetcher = Thread({
+            try {
+                sourceFrames = prepareFrames(source, queue)
+            } catch (e: InterruptedException) {
+                // The inference stopped, nobody is waiting for more frames.
+                return@Thread
+            } catch (e: Throwable) {
+                error = e
+            }
+            try {
+                queue.put(PreparedFrame(FrameSource.END_OF_STREAM, null))
+            } catch (e: InterruptedException) {
+                // Same as above.
+            }
+        }, PREFETCH_THREAD_NAME)
+        prefetcher.start()
+
+        val entries = mutableListOf<TimelineEntry>()
+        try {
+            while (true) {
+                val frame = queue.take()
+                val image = frame.image ?: break
+                val entry = TimelineEntry(frame.timestampUs, stream.classify(image))
+                entries.add(entry)
+                listener?.invoke(entry)
+            }
+        } finally {
+            prefetcher.interrupt()
+            prefetcher.join()
+        }
+        error?.let { throw it }
+        return Timeline(entries, sourceFrames, SystemClock.uptimeMillis() - startMillis)
+    }
+
+    /**
+     * Read [source] resampled to the model FPS into [queue], and return the number of frames read.
+     *
+     * Each tick of the model FPS takes the first frame at or after it. Frames between two ticks
+     * are skipped without being converted. A frame covering several ticks, when the video has
+     * fewer frames per second than the model, is fed once for each of them.
+     */
+    private fun prepareFrames(source: FrameSource, queue: ArrayBlockingQueue<PreparedFrame>): Int {
+        val tickUs = 1_000_000.0 / modelFps
+        var nextTickUs = Double.NaN
+        var sourceFrames = 0
+        while (true) {
+            val timestampUs = source.advance()
+            if (timestampUs == FrameSource.END_OF_STREAM) return sourceFrames
+            sourceFrames++
+            if (nextTickUs.isNaN()) nextTickUs = timestampUs.toDouble()
+            if (timestampUs < nextTickUs) continue
+
+            val image = classifier.preprocess(source.retrieve())
+            while (nextTickUs <= timestampUs) {
+                queue.put(PreparedFrame(nextTickUs.toLong(), image))
+                nextTickUs += tickUs
+            }
+        }
+    }
+
+    companion object {
+        // The FPS the MoViNet stream models were trained at.
+        private const val DEFAULT_MODEL_FPS = 5f
+        private const val DEFAULT_PREFETCH_FRAMES = 4
+        private const val PREFETCH_THREAD_NAME = "VideoFilePrefetch"
+    }
+}